@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An output stream that writes to another stream on a thread of its own
+ * <p>
+ * Writes are copied into a buffer, full buffers are handed to the writer
+ * thread through a small bounded queue, so an expensive stream (ie.
+ * compression) doesn't slow down the writer, unless it falls behind.
+ * Errors from the writer thread are thrown from the next call.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class AsyncOutputStream extends OutputStream {
+
+    private static final int QUEUE_SIZE = 4;
+    private static final byte[] CLOSE = new byte[0];
+
+    private final OutputStream os;
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private volatile IOException error;
+    private byte[] buffer;
+    private int length;
+    private boolean closed;
+
+    /**
+     * @param os         the stream to write to (it is closed when this is
+     *                   closed)
+     * @param bufferSize number of bytes handed over at a time
+     */
+    public AsyncOutputStream(OutputStream os, int bufferSize) {
+        this.os = os;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        this.buffer = new byte[bufferSize];
+        this.length = 0;
+        this.closed = false;
+        this.thread = new Thread(this::writeLoop, "async-output");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void writeLoop() {
+        try {
+            for (;;) {
+                Object item = queue.take();
+                if (item == CLOSE)
+                    break;
+                try {
+                    if (item instanceof CountDownLatch) {
+                        if (error == null)
+                            os.flush();
+                        ( (CountDownLatch) item ).countDown();
+                    } else if (error == null) {
+                        os.write((byte[]) item);
+                    }
+                } catch (IOException ex) {
+                    error = ex;
+                }
+            }
+            try {
+                os.close();
+            } catch (IOException ex) {
+                if (error == null)
+                    error = ex;
+            }
+        } catch (InterruptedException ex) {
+            error = new IOException("Interrupted writing output", ex);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (length == buffer.length)
+            handOver();
+        buffer[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (length == buffer.length)
+                handOver();
+            int chunk = Math.min(len, buffer.length - length);
+            System.arraycopy(b, off, buffer, length, chunk);
+            length += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Write everything written so far, and flush the stream
+     *
+     * @throws IOException if the stream couldn't be written to
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        handOver();
+        CountDownLatch flushed = new CountDownLatch(1);
+        put(flushed);
+        try {
+            flushed.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted flushing output", ex);
+        }
+        checkError();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            handOver();
+        } finally {
+            // Even after an error the writer thread has to close the stream
+            put(CLOSE);
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted closing output", ex);
+            }
+        }
+        checkError();
+    }
+
+    private void handOver() throws IOException {
+        if (length == 0)
+            return;
+        byte[] bytes = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        put(bytes);
+        if (bytes == buffer)
+            buffer = new byte[buffer.length];
+        length = 0;
+        checkError();
+    }
+
+    private void put(Object item) throws IOException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing output", ex);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream is closed");
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        IOException ex = error;
+        if (ex != null)
+            throw ex;
+    }
+}
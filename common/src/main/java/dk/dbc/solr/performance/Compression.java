@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Transparent compression of recordings and results
+ * <p>
+ * Input is decompressed if it starts with the magic bytes of gzip or zstd,
+ * output is compressed according to the extension of the file name (.gz,
+ * .zst). Compression is done on a thread of its own (see
+ * {@link AsyncOutputStream}), so the writer only copies bytes.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public enum Compression {
+    NONE,
+    GZIP,
+    ZSTD;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The compression implied by a file name
+     *
+     * @param fileName name of the file
+     * @return compression
+     */
+    public static Compression ofFileName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz") || name.endsWith(".gzip"))
+            return GZIP;
+        if (name.endsWith(".zst") || name.endsWith(".zstd"))
+            return ZSTD;
+        return NONE;
+    }
+
+    /**
+     * The compression of a stream, from its first bytes
+     * <p>
+     * The stream is reset to where it was
+     *
+     * @param is stream supporting mark/reset
+     * @return compression
+     * @throws IOException if the stream cannot be read
+     */
+    public static Compression ofMagic(InputStream is) throws IOException {
+        is.mark(4);
+        int[] magic = new int[4];
+        for (int i = 0 ; i < magic.length ; i++) {
+            magic[i] = is.read();
+        }
+        is.reset();
+        if (magic[0] == 0x1f && magic[1] == 0x8b)
+            return GZIP;
+        if (magic[0] == 0x28 && magic[1] == 0xb5 && magic[2] == 0x2f && magic[3] == 0xfd)
+            return ZSTD;
+        return NONE;
+    }
+
+    /**
+     * Open a file for reading, decompressing if it is compressed
+     *
+     * @param fileName name of the file
+     * @return stream of the (decompressed) content
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream open(String fileName) throws IOException {
+        return decompress(new FileInputStream(fileName));
+    }
+
+    /**
+     * Decompress a stream, if it is compressed
+     *
+     * @param is stream (ie. stdin)
+     * @return stream of the (decompressed) content
+     * @throws IOException if the stream cannot be read
+     */
+    public static InputStream decompress(InputStream is) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(is, BUFFER_SIZE);
+        switch (ofMagic(buffered)) {
+            case GZIP:
+                return new GZIPInputStream(buffered, BUFFER_SIZE);
+            case ZSTD:
+                return new BufferedInputStream(new ZstdInputStream(buffered), BUFFER_SIZE);
+            default:
+                return buffered;
+        }
+    }
+
+    /**
+     * Open a file for writing, compressed according to its name
+     *
+     * @param fileName name of the file
+     * @param append   add to the file (a compressed file gets another
+     *                 member/frame)
+     * @return stream to write the content to
+     * @throws IOException if the file cannot be opened
+     */
+    public static OutputStream create(String fileName, boolean append) throws IOException {
+        return ofFileName(fileName).compress(new FileOutputStream(fileName, append));
+    }
+
+    /**
+     * Compress what is written to a stream
+     *
+     * @param os where the compressed content is written
+     * @return stream to write the content to, compression happens on a
+     *         thread of its own
+     * @throws IOException if the compressor cannot be set up
+     */
+    public OutputStream compress(OutputStream os) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new AsyncOutputStream(new GZIPOutputStream(os, BUFFER_SIZE), BUFFER_SIZE);
+            case ZSTD:
+                return new AsyncOutputStream(new ZstdOutputStream(os), BUFFER_SIZE);
+            default:
+                return os;
+        }
+    }
+}
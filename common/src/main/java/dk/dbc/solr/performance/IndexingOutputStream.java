@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Write a recording, and its {@link SeekIndex} when it is closed
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class IndexingOutputStream extends FilterOutputStream {
+
+    private final Path recording;
+    private final SeekIndex.Scanner scanner;
+    private boolean closed;
+
+    /**
+     * @param os        where the recording is written (plain text, from the
+     *                  start of the file)
+     * @param recording the file name of the recording, the index is written
+     *                  next to it
+     */
+    public IndexingOutputStream(OutputStream os, Path recording) {
+        super(os);
+        this.recording = recording;
+        this.scanner = new SeekIndex.Scanner();
+        this.closed = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        scanner.update(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        scanner.update(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        super.close();
+        scanner.build().write(SeekIndex.pathOf(recording));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Prometheus style histogram of durations, with fixed buckets
+ * <p>
+ * Recording doesn't lock, and it can be read while being recorded to.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MetricsHistogram {
+
+    /**
+     * Bucket upper bounds in seconds
+     */
+    private static final double[] DEFAULT_BUCKETS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private final double[] buckets;
+    private final LongAdder[] counts;
+    private final DoubleAdder sum;
+
+    public MetricsHistogram() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    /**
+     * @param buckets increasing upper bounds in seconds
+     */
+    public MetricsHistogram(double... buckets) {
+        this.buckets = buckets.clone();
+        this.counts = new LongAdder[buckets.length + 1];
+        for (int i = 0 ; i < counts.length ; i++) {
+            counts[i] = new LongAdder();
+        }
+        this.sum = new DoubleAdder();
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        double seconds = nanos / 1e9;
+        int i = 0;
+        while (i < buckets.length && seconds > buckets[i]) {
+            i++;
+        }
+        counts[i].increment();
+        sum.add(seconds);
+    }
+
+    /**
+     * Number of recorded durations
+     *
+     * @return count
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder c : counts) {
+            count += c.sum();
+        }
+        return count;
+    }
+
+    void writeTo(MetricsWriter writer, String name) {
+        long cumulative = 0;
+        for (int i = 0 ; i < buckets.length ; i++) {
+            cumulative += counts[i].sum();
+            writer.sample(name + "_bucket", cumulative, "le", MetricsWriter.format(buckets[i]));
+        }
+        cumulative += counts[buckets.length].sum();
+        writer.sample(name + "_bucket", cumulative, "le", "+Inf");
+        writer.sample(name + "_sum", sum.sum());
+        writer.sample(name + "_count", cumulative);
+    }
+}
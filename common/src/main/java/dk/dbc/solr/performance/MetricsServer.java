@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded http endpoint, that serves metrics in the Prometheus text format
+ * on /metrics
+ * <p>
+ * The metrics are collected on every scrape, by a collector that writes the
+ * current values to a {@link MetricsWriter}.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MetricsServer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsServer.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Start serving
+     *
+     * @param address   where to listen
+     * @param collector writer of the current metrics
+     * @throws IOException if the address cannot be bound
+     */
+    public MetricsServer(InetSocketAddress address, Consumer<MetricsWriter> collector) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/metrics", exchange -> serve(exchange, collector));
+        server.setExecutor(executor);
+        server.start();
+        log.info("Serving metrics on http://{}:{}/metrics", address.getHostString(), getPort());
+    }
+
+    /**
+     * Parse a listen address
+     *
+     * @param text [HOST:]PORT, the host defaults to the loopback interface
+     * @return address
+     */
+    public static InetSocketAddress parseAddress(String text) {
+        int colon = text.lastIndexOf(':');
+        int port = Integer.parseInt(text.substring(colon + 1));
+        if (port < 0 || port > 65535)
+            throw new IllegalArgumentException("Invalid port: " + text);
+        if (colon < 0)
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        return new InetSocketAddress(text.substring(0, colon), port);
+    }
+
+    private static void serve(HttpExchange exchange, Consumer<MetricsWriter> collector) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            MetricsWriter writer = new MetricsWriter();
+            collector.accept(writer);
+            byte[] body = writer.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } catch (RuntimeException ex) {
+            log.error("Error collecting metrics: {}", ex.getMessage());
+            log.debug("Error collecting metrics: ", ex);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The port that is listened on (if 0 was requested)
+     *
+     * @return port number
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
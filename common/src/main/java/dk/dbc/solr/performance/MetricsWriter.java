@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+/**
+ * Writer of metrics in the Prometheus text exposition format
+ * <p>
+ * Every metric family is started with {@link #family(String, String, String)}
+ * followed by its samples.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MetricsWriter {
+
+    private final StringBuilder sb;
+
+    public MetricsWriter() {
+        this.sb = new StringBuilder();
+    }
+
+    /**
+     * Start a metric family
+     *
+     * @param name metric name
+     * @param type counter, gauge or histogram
+     * @param help description
+     * @return self for chaining
+     */
+    public MetricsWriter family(String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a sample
+     *
+     * @param name   metric name (with suffix for histograms)
+     * @param value  sample value
+     * @param labels label name, value pairs
+     * @return self for chaining
+     */
+    public MetricsWriter sample(String name, double value, String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels need to be name, value pairs");
+        sb.append(name);
+        if (labels.length > 0) {
+            sb.append('{');
+            for (int i = 0 ; i < labels.length ; i += 2) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(labels[i]).append("=\"")
+                        .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                        .append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a histogram (family and samples)
+     *
+     * @param name      metric name
+     * @param help      description
+     * @param histogram the histogram
+     * @return self for chaining
+     */
+    public MetricsWriter histogram(String name, String help, MetricsHistogram histogram) {
+        family(name, "histogram", help);
+        histogram.writeTo(this, name);
+        return this;
+    }
+
+    static String format(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return String.valueOf((long) value);
+        return Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sparse index of a (plain text) recording: time delta to byte position
+ * <p>
+ * An entry is kept for the first line of every second of the recording, so
+ * a replay can start at an offset into the recording without reading every
+ * line before it. The index is kept next to the recording (RECORDING.idx)
+ * with the size of the recording, so an index of a recording that has
+ * changed isn't used.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class SeekIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(SeekIndex.class);
+
+    private static final byte[] MAGIC = "SPTIDX01".getBytes(StandardCharsets.US_ASCII);
+    static final long INTERVAL = 1000L;
+
+    private final long size;
+    private final long[] timeDeltas;
+    private final long[] positions;
+
+    private SeekIndex(long size, long[] timeDeltas, long[] positions) {
+        this.size = size;
+        this.timeDeltas = timeDeltas;
+        this.positions = positions;
+    }
+
+    /**
+     * Where the index of a recording is kept
+     *
+     * @param recording the recording
+     * @return index file
+     */
+    public static Path pathOf(Path recording) {
+        return Paths.get(recording.toString() + ".idx");
+    }
+
+    /**
+     * Get the index of a recording, from its index file or by reading the
+     * recording (the index file is then written if possible)
+     *
+     * @param recording the recording
+     * @return index
+     * @throws IOException if the recording cannot be read
+     */
+    public static SeekIndex load(Path recording) throws IOException {
+        Path path = pathOf(recording);
+        long size = Files.size(recording);
+        if (Files.exists(path)) {
+            try {
+                SeekIndex index = read(path);
+                if (index.size == size)
+                    return index;
+                log.info("Seek index {} is stale, rebuilding", path);
+            } catch (IOException ex) {
+                log.warn("Cannot read seek index {}: {}", path, ex.getMessage());
+            }
+        }
+        log.info("Building seek index of {}", recording);
+        SeekIndex index = build(recording);
+        try {
+            index.write(path);
+        } catch (IOException ex) {
+            log.warn("Cannot write seek index {}: {}", path, ex.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Read a recording, and index it
+     *
+     * @param recording the recording
+     * @return index
+     * @throws IOException if the recording cannot be read
+     */
+    public static SeekIndex build(Path recording) throws IOException {
+        Scanner scanner = new Scanner();
+        try (InputStream is = Files.newInputStream(recording)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while (( n = is.read(buffer) ) > 0) {
+                scanner.update(buffer, 0, n);
+            }
+        }
+        return scanner.build();
+    }
+
+    /**
+     * Read an index file
+     *
+     * @param path index file
+     * @return index
+     * @throws IOException if the file cannot be read, or isn't an index
+     */
+    public static SeekIndex read(Path path) throws IOException {
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            byte[] magic = new byte[MAGIC.length];
+            is.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(path + " is not a seek index");
+            long size = is.readLong();
+            int count = is.readInt();
+            long[] timeDeltas = new long[count];
+            long[] positions = new long[count];
+            for (int i = 0 ; i < count ; i++) {
+                timeDeltas[i] = is.readLong();
+                positions[i] = is.readLong();
+            }
+            return new SeekIndex(size, timeDeltas, positions);
+        }
+    }
+
+    /**
+     * Write the index file, atomically so concurrent readers (ie. replay
+     * workers) never see a partial index
+     *
+     * @param path index file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        Path tmp = Paths.get(path.toString() + ".tmp" + Thread.currentThread().getId() + "-" + System.nanoTime());
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            os.write(MAGIC);
+            os.writeLong(size);
+            os.writeInt(timeDeltas.length);
+            for (int i = 0 ; i < timeDeltas.length ; i++) {
+                os.writeLong(timeDeltas[i]);
+                os.writeLong(positions[i]);
+            }
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Where to start reading, to get every line at or after a time delta
+     *
+     * @param timeDelta time from the start of the recording (ms)
+     * @return byte position of a line start (0 if there is no earlier entry)
+     */
+    public long positionOf(long timeDelta) {
+        int i = Arrays.binarySearch(timeDeltas, timeDelta);
+        if (i < 0)
+            i = -i - 2;
+        // Equal deltas are all in the same entry, and binarySearch may
+        // find any of them
+        return i < 0 ? 0 : positions[i];
+    }
+
+    /**
+     * Size of the recording the index was made from
+     *
+     * @return bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Number of entries in the index
+     *
+     * @return entries
+     */
+    public int getEntries() {
+        return timeDeltas.length;
+    }
+
+    /**
+     * Index the bytes of a recording as they are read or written
+     * <p>
+     * A line that starts with digits followed by a space has a time delta,
+     * the first line at or after each second gets an entry
+     */
+    static class Scanner {
+
+        private long position;
+        private boolean lineStart;
+        private boolean inDelta;
+        private long lineStartPosition;
+        private long delta;
+        private int digits;
+        private long nextBoundary;
+        private long[] timeDeltas;
+        private long[] positions;
+        private int count;
+
+        Scanner() {
+            this.lineStart = true;
+            this.timeDeltas = new long[1024];
+            this.positions = new long[1024];
+        }
+
+        void update(byte[] bytes, int offset, int length) {
+            for (int i = offset ; i < offset + length ; i++) {
+                update(bytes[i]);
+            }
+        }
+
+        void update(int b) {
+            if (lineStart) {
+                lineStart = false;
+                lineStartPosition = position;
+                inDelta = true;
+                delta = 0;
+                digits = 0;
+            }
+            if (inDelta) {
+                if (b >= '0' && b <= '9' && digits < 18) {
+                    delta = delta * 10 + ( b - '0' );
+                    digits++;
+                } else {
+                    inDelta = false;
+                    if (digits > 0 && ( b == ' ' || b == '\t' ))
+                        add(delta, lineStartPosition);
+                }
+            }
+            if (b == '\n')
+                lineStart = true;
+            position++;
+        }
+
+        private void add(long timeDelta, long linePosition) {
+            if (timeDelta < nextBoundary)
+                return;
+            if (count == timeDeltas.length) {
+                timeDeltas = Arrays.copyOf(timeDeltas, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            timeDeltas[count] = timeDelta;
+            positions[count] = linePosition;
+            count++;
+            nextBoundary = ( timeDelta / INTERVAL + 1 ) * INTERVAL;
+        }
+
+        SeekIndex build() {
+            return new SeekIndex(position, Arrays.copyOf(timeDeltas, count), Arrays.copyOf(positions, count));
+        }
+    }
+}
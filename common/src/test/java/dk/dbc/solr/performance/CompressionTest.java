@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test-recorder
+ *
+ * solr-performance-test-recorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test-recorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+
+    @Test(timeout = 10_000L)
+    public void testRoundTrip() throws Exception {
+        System.out.println("testRoundTrip");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0 ; i < 100_000 ; i++) {
+            content.append(i).append(" q=REDACTED&defType=edismax&rows=10\n");
+        }
+        byte[] bytes = content.toString().getBytes(UTF_8);
+        for (String extension : new String[] {".gz", ".zst", ".data"}) {
+            File file = File.createTempFile("recording", extension);
+            try {
+                try (OutputStream os = Compression.create(file.getPath(), false)) {
+                    os.write(bytes, 0, 10);
+                    os.write(bytes[10]);
+                    os.write(bytes, 11, bytes.length - 11);
+                }
+                byte[] raw = Files.readAllBytes(file.toPath());
+                if (extension.equals(".data"))
+                    assertThat(raw.length, is(bytes.length));
+                else
+                    assertThat(extension, raw.length, lessThan(bytes.length / 5));
+                try (InputStream is = Compression.open(file.getPath())) {
+                    assertThat(extension, new String(readAll(is), UTF_8), is(content.toString()));
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testAppend() throws Exception {
+        System.out.println("testAppend");
+        File file = File.createTempFile("recording", ".gz");
+        try {
+            for (String line : new String[] {"0 q=a\n", "5 q=b\n"}) {
+                try (OutputStream os = Compression.create(file.getPath(), true)) {
+                    os.write(line.getBytes(UTF_8));
+                }
+            }
+            try (InputStream is = Compression.open(file.getPath())) {
+                assertThat(new String(readAll(is), UTF_8), is("0 q=a\n5 q=b\n"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testWriteErrorIsThrown() throws Exception {
+        System.out.println("testWriteErrorIsThrown");
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        AsyncOutputStream os = new AsyncOutputStream(failing, 16);
+        try {
+            for (int i = 0 ; i < 1000 ; i++) {
+                os.write(new byte[16]);
+            }
+            os.close();
+            fail("Expected an IOException");
+        } catch (IOException ex) {
+            assertThat(ex.getMessage(), is("disk full"));
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCloseAfterWriteError() throws Exception {
+        System.out.println("testCloseAfterWriteError");
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicBoolean closed = new AtomicBoolean();
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                failed.countDown();
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        AsyncOutputStream os = new AsyncOutputStream(failing, 16);
+        // One buffer is handed over (and fails), one byte is left buffered
+        os.write(new byte[17]);
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        try {
+            os.close();
+            fail("Expected an IOException");
+        } catch (IOException ex) {
+            assertThat(ex.getMessage(), is("disk full"));
+        }
+        assertThat(closed.get(), is(true));
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while (( n = is.read(buffer) ) > 0) {
+            bos.write(buffer, 0, n);
+        }
+        return bos.toByteArray();
+    }
+}
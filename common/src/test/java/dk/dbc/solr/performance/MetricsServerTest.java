@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test-recorder
+ *
+ * solr-performance-test-recorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test-recorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class MetricsServerTest {
+
+    @Test(timeout = 5_000L)
+    public void testScrape() throws Exception {
+        System.out.println("testScrape");
+        MetricsHistogram histogram = new MetricsHistogram(0.01, 0.1);
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+
+        try (MetricsServer server = new MetricsServer(MetricsServer.parseAddress("0"), w -> {
+                 w.family("test_total", "counter", "A counter")
+                         .sample("test_total", 3, "status", "a\"b");
+                 w.histogram("test_seconds", "A histogram", histogram);
+             })) {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/metrics").openConnection();
+            assertThat(connection.getResponseCode(), is(200));
+            assertThat(connection.getContentType(), startsWith("text/plain; version=0.0.4"));
+            String body = read(connection.getInputStream());
+            assertThat(body, containsString("# TYPE test_total counter\n"));
+            assertThat(body, containsString("test_total{status=\"a\\\"b\"} 3\n"));
+            assertThat(body, containsString("test_seconds_bucket{le=\"0.01\"} 1\n"));
+            assertThat(body, containsString("test_seconds_bucket{le=\"0.1\"} 2\n"));
+            assertThat(body, containsString("test_seconds_bucket{le=\"+Inf\"} 3\n"));
+            assertThat(body, containsString("test_seconds_count 3\n"));
+        }
+    }
+
+    @Test
+    public void testParseAddress() throws Exception {
+        System.out.println("testParseAddress");
+        InetSocketAddress local = MetricsServer.parseAddress("9100");
+        assertThat(local.getAddress().isLoopbackAddress(), is(true));
+        assertThat(local.getPort(), is(9100));
+        InetSocketAddress any = MetricsServer.parseAddress("0.0.0.0:9101");
+        assertThat(any.getAddress().isAnyLocalAddress(), is(true));
+        assertThat(any.getPort(), is(9101));
+    }
+
+    private static String read(InputStream is) throws Exception {
+        try (InputStream in = is) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while (( n = in.read(buffer) ) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
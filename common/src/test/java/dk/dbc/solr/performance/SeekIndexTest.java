@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test-recorder
+ *
+ * solr-performance-test-recorder is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test-recorder is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class SeekIndexTest {
+
+    @Test(timeout = 10_000L)
+    public void testPositionOf() throws Exception {
+        System.out.println("testPositionOf");
+        Path recording = recording();
+        try {
+            SeekIndex index = SeekIndex.build(recording);
+            assertThat(index.getSize(), is(Files.size(recording)));
+            // A line every 100ms for 100s, and a 10s gap
+            assertThat(index.getEntries(), is(100));
+            // Past the header
+            assertThat(index.positionOf(0), is((long) "#{\"header\":true}\n".length()));
+            for (long offset : new long[] {1, 999, 1000, 1001, 25_050, 49_950, 50_000, 59_999, 60_000, 75_000, 1_000_000}) {
+                long first = firstLineAt(recording, index.positionOf(offset), offset);
+                assertThat("offset " + offset, first, is(firstLineAt(recording, 0, offset)));
+            }
+        } finally {
+            delete(recording);
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testIndexingOutputStream() throws Exception {
+        System.out.println("testIndexingOutputStream");
+        Path recording = recording();
+        Path copy = Files.createTempFile("recording", ".data");
+        try {
+            byte[] bytes = Files.readAllBytes(recording);
+            try (OutputStream os = new IndexingOutputStream(new FileOutputStream(copy.toFile()), copy)) {
+                os.write(bytes, 0, 17);
+                os.write(bytes[17]);
+                os.write(bytes, 18, bytes.length - 18);
+            }
+            SeekIndex written = SeekIndex.read(SeekIndex.pathOf(copy));
+            SeekIndex built = SeekIndex.build(recording);
+            assertThat(written.getSize(), is(built.getSize()));
+            assertThat(written.getEntries(), is(built.getEntries()));
+            for (long offset = 0 ; offset < 120_000 ; offset += 333) {
+                assertThat(written.positionOf(offset), is(built.positionOf(offset)));
+            }
+        } finally {
+            delete(recording);
+            delete(copy);
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testLoadRebuildsStale() throws Exception {
+        System.out.println("testLoadRebuildsStale");
+        Path recording = recording();
+        try {
+            SeekIndex index = SeekIndex.load(recording);
+            assertTrue(Files.exists(SeekIndex.pathOf(recording)));
+            assertThat(SeekIndex.load(recording).getEntries(), is(index.getEntries()));
+
+            try (RandomAccessFile file = new RandomAccessFile(recording.toFile(), "rw")) {
+                file.seek(file.length());
+                file.write("200000 q=late\n".getBytes(UTF_8));
+            }
+            SeekIndex rebuilt = SeekIndex.load(recording);
+            assertThat(rebuilt.getEntries(), is(index.getEntries() + 1));
+            assertThat(SeekIndex.read(SeekIndex.pathOf(recording)).getSize(), is(Files.size(recording)));
+        } finally {
+            delete(recording);
+        }
+    }
+
+    /**
+     * A header, then a line every 100ms, but nothing from 50s to 60s
+     */
+    private static Path recording() throws IOException {
+        StringBuilder content = new StringBuilder("#{\"header\":true}\n");
+        for (long delta = 0 ; delta < 110_000 ; delta += 100) {
+            if (delta >= 50_000 && delta < 60_000)
+                continue;
+            content.append(delta).append(" q=").append(delta).append("&rows=10\n");
+        }
+        Path recording = Files.createTempFile("recording", ".data");
+        Files.write(recording, content.toString().getBytes(UTF_8));
+        return recording;
+    }
+
+    /**
+     * Read from a position, and find the first line at or after an offset
+     */
+    private static long firstLineAt(Path recording, long position, long offset) throws IOException {
+        String content = new String(Files.readAllBytes(recording), UTF_8).substring((int) position);
+        for (String line : content.split("\n")) {
+            if (line.startsWith("#"))
+                continue;
+            long delta = Long.parseLong(line.substring(0, line.indexOf(' ')));
+            if (delta >= offset)
+                return delta;
+        }
+        return -1;
+    }
+
+    private static void delete(Path recording) throws IOException {
+        Files.deleteIfExists(recording);
+        Files.deleteIfExists(SeekIndex.pathOf(recording));
+    }
+}
@@ -19,6 +19,9 @@
 package dk.dbc.solr.performance.recorder;
 
 import dk.dbc.Arguments;
+import dk.dbc.solr.performance.Compression;
+import dk.dbc.solr.performance.MetricsServer;
+import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.util.Iterator;
 import java.util.Locale;
@@ -94,6 +97,18 @@ public final class Config {
                 .desc("if output is given, append or overwrite")
                 .build());
 
+        options.addOption(Option.builder()
+                .longOpt("seek-index")
+                .desc("write a seek index (OUTPUT.idx) next to the output, so a replay can start at an offset without reading what is before it")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("metrics")
+                .hasArg()
+                .argName("[HOST:]PORT")
+                .desc("Serve metrics in Prometheus format on http://HOST:PORT/metrics (default host: localhost)")
+                .build());
+
         return options;
     }
 
@@ -113,6 +128,8 @@ public final class Config {
     private final String output;
     private final String application;
     private boolean append;
+    private final boolean seekIndex;
+    private final InetSocketAddress metrics;
 
     /**
      * Construct a configuration from (main) args
@@ -156,6 +173,14 @@ public final class Config {
         return append;
     }
 
+    public boolean isSeekIndex() {
+        return seekIndex;
+    }
+
+    public InetSocketAddress getMetrics() {
+        return metrics;
+    }
+
     private Config(Arguments args, Iterator<String> positionalArguments) throws ParseException {
         if (positionalArguments.hasNext())
             throw new ParseException("Unexpected positional argument(s) at: " + positionalArguments.next());
@@ -201,6 +226,9 @@ public final class Config {
         this.append = args.isSet("A");
         if (append && output == null)
             throw new ParseException("-A,--append, does not makle sense without -o,--output");
+        this.seekIndex = args.isSet("seek-index");
+        if (seekIndex && ( output == null || append || Compression.ofFileName(output) != Compression.NONE ))
+            throw new ParseException("--seek-index needs a (new) uncompressed -o,--output");
 
         this.limit = args.take("l", String.valueOf(Long.MAX_VALUE), t -> {
                            long value = Long.parseLong(t);
@@ -209,6 +237,7 @@ public final class Config {
                            return value;
                        });
         this.application = args.take("a", null, t -> t);
+        this.metrics = args.take("metrics", null, MetricsServer::parseAddress);
     }
 
     private static int countNotNull(Object... objs) {
@@ -222,7 +251,7 @@ public final class Config {
 
     @Override
     public String toString() {
-        return "Config{" + "sortBufferSize=" + sortBufferSize + ", duration=" + duration + ", limit=" + limit + ", kafka=" + kafka + ", input=" + input + ", output=" + output + ", application=" + application + ", append=" + append + '}';
+        return "Config{" + "sortBufferSize=" + sortBufferSize + ", duration=" + duration + ", limit=" + limit + ", kafka=" + kafka + ", input=" + input + ", output=" + output + ", application=" + application + ", append=" + append + ", seekIndex=" + seekIndex + ", metrics=" + metrics + '}';
     }
 
 }
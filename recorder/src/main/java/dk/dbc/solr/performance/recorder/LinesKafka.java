@@ -38,6 +38,7 @@ import org.apache.kafka.common.serialization.StringDeserializer;
 public class LinesKafka extends LineSource {
 
     private final KafkaConsumer<Long, String> consumer;
+    private final RecorderMetrics metrics;
     private Iterator<ConsumerRecord<Long, String>> iterator;
 
     /**
@@ -47,6 +48,18 @@ public class LinesKafka extends LineSource {
      *                host[:port][,host[:port]]/topic
      */
     public LinesKafka(String connect) {
+        this(connect, new RecorderMetrics());
+    }
+
+    /**
+     * Start listening to a kafka topic
+     *
+     * @param connect connect string of the type
+     *                host[:port][,host[:port]]/topic
+     * @param metrics where to record poll durations
+     */
+    public LinesKafka(String connect, RecorderMetrics metrics) {
+        this.metrics = metrics;
         String[] parts = connect.split("/", 2);
         final Properties props = new Properties();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG,
@@ -64,7 +77,9 @@ public class LinesKafka extends LineSource {
     @Override
     protected String nextLine() throws IOException {
         while (iterator == null || !iterator.hasNext()) {
+            long before = System.nanoTime();
             ConsumerRecords<Long, String> records = consumer.poll(60_000L);
+            metrics.polled(System.nanoTime() - before);
             iterator = records.iterator();
         }
         return iterator.next().value();
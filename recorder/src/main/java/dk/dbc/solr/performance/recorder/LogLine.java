@@ -47,10 +47,19 @@ public final class LogLine implements Comparable<LogLine> {
 
     private static final String PERFTEST_FLAG = "dbcPerfTest=true";
 
+    static final String REJECT_JSON = "not_json";
+    static final String REJECT_FIELDS = "missing_fields";
+    static final String REJECT_MALFORMED = "malformed";
+    static final String REJECT_NOT_SELECT = "not_select";
+    static final String REJECT_NO_PARAMS = "no_params";
+    static final String REJECT_DISTRIBUTED = "distributed";
+    static final String REJECT_REPLAYED = "replayed";
+
     private final boolean valid;
     private final Instant instant;
     private final String app;
     private final String query;
+    private final String rejectReason;
 
     /**
      * Convert a log line into an object
@@ -65,24 +74,33 @@ public final class LogLine implements Comparable<LogLine> {
             JsonNode app = obj.get("app");
             JsonNode message = obj.get("message");
             if (timestamp == null || app == null || message == null)
-                return new LogLine(false, Instant.MIN, null, null);
-            String query = queryOf(message.asText(""));
-            if (query == null)
-                return new LogLine(false, Instant.MIN, null, null);
+                return invalid(REJECT_FIELDS);
+            Map<String, String> parts = messageParts(message.asText(""));
+            if (parts == null)
+                return invalid(REJECT_MALFORMED);
+            String reject = rejectOf(parts);
+            if (reject != null)
+                return invalid(reject);
+            String query = queryOf(parts);
             Instant instant = parseTimeStamp(timestamp.asText(""));
 
-            return new LogLine(true, instant, app.asText(""), query);
+            return new LogLine(true, instant, app.asText(""), query, null);
         } catch (IOException ex) {
             log.debug("Error parsing JSON log line: ", ex);
-            return new LogLine(false, Instant.MIN, null, null);
+            return invalid(REJECT_JSON);
         }
     }
 
-    private LogLine(boolean valid, Instant instant, String app, String query) {
+    private static LogLine invalid(String reason) {
+        return new LogLine(false, Instant.MIN, null, null, reason);
+    }
+
+    private LogLine(boolean valid, Instant instant, String app, String query, String rejectReason) {
         this.valid = valid;
         this.instant = instant;
         this.app = app;
         this.query = query;
+        this.rejectReason = rejectReason;
     }
 
     /**
@@ -97,6 +115,15 @@ public final class LogLine implements Comparable<LogLine> {
         return valid;
     }
 
+    /**
+     * Why this isn't a valid log line
+     *
+     * @return reason ie. "not_select" or null if the line is valid
+     */
+    public String getRejectReason() {
+        return rejectReason;
+    }
+
     /**
      * Which application was listed in the JSON
      *
@@ -180,47 +207,64 @@ public final class LogLine implements Comparable<LogLine> {
     }
 
     /**
-     * Extract query
-     * <p>
-     * <ul>
-     * <li>If path is not "/select", then return null
-     * <li>If params is unset or empty, then return null
-     * <li>If params is contain distrib=false, then return null (logging from a
-     * distributed query)
-     * <li>If params is contain PERFTEST_FLAG, then return null replayed query
-     * (no feedback loop)
-     * <p>
-     * </ul>
+     * Split a log message into its key=value parts
      *
      * @param message from log
-     * @return query string or null if not a valid query, with trackingId
-     *         removed, and perftest-flag set
+     * @return map of key to value or null if the message cannot be split
      */
-    private static String queryOf(String message) {
+    private static Map<String, String> messageParts(String message) {
         try {
-            Map<String, String> parts = Arrays.stream(message.split("\\s+"))
+            return Arrays.stream(message.split("\\s+"))
                     .filter(s -> s.contains("="))
                     .map(s -> s.split("=", 2))
                     .collect(Collectors.toMap(a -> a[0], a -> a[1]));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
 
-            String path = parts.getOrDefault("path", "");
-            if (path == null || !path.equals("/select"))
-                return null;
-
-            String params = parts.get("params");
-            if (params == null || params.isEmpty())
-                return null;
+    /**
+     * Check if the message is a query that should be replayed
+     * <p>
+     * <ul>
+     * <li>If path is not "/select", then it is rejected
+     * <li>If params is unset or empty, then it is rejected
+     * <li>If params is contain distrib=false, then it is rejected (logging
+     * from a distributed query)
+     * <li>If params is contain PERFTEST_FLAG, then it is rejected (replayed
+     * query, no feedback loop)
+     * </ul>
+     *
+     * @param parts key=value parts of the message
+     * @return reason or null if the query should be kept
+     */
+    private static String rejectOf(Map<String, String> parts) {
+        String path = parts.getOrDefault("path", "");
+        if (path == null || !path.equals("/select"))
+            return REJECT_NOT_SELECT;
 
-            String queryString = params.substring(1, params.length() - 1);
+        String params = parts.get("params");
+        if (params == null || params.length() < 2)
+            return REJECT_NO_PARAMS;
 
-            String queryStringMatcher = "&" + queryString + "&";
-            if (queryStringMatcher.contains("&distrib=false&") ||
-                queryStringMatcher.contains("&" + PERFTEST_FLAG + "&"))
-                return null;
+        String queryStringMatcher = "&" + params.substring(1, params.length() - 1) + "&";
+        if (queryStringMatcher.contains("&distrib=false&"))
+            return REJECT_DISTRIBUTED;
+        if (queryStringMatcher.contains("&" + PERFTEST_FLAG + "&"))
+            return REJECT_REPLAYED;
+        return null;
+    }
 
-            return ( queryString + "&" + PERFTEST_FLAG ).replaceFirst("&trackingId=[^&]*&", "&");
-        } catch (RuntimeException e) {
-            return null;
-        }
+    /**
+     * Extract query
+     *
+     * @param parts key=value parts of the message, that passed
+     *              {@link #rejectOf(java.util.Map)}
+     * @return query string with trackingId removed, and perftest-flag set
+     */
+    private static String queryOf(Map<String, String> parts) {
+        String params = parts.get("params");
+        String queryString = params.substring(1, params.length() - 1);
+        return ( queryString + "&" + PERFTEST_FLAG ).replaceFirst("&trackingId=[^&]*&", "&");
     }
 }
@@ -47,6 +47,7 @@ public class OutputWriter implements AutoCloseable, Consumer<LogLine> {
     private long duration;
     private final long limit;
     private final BiConsumer<OutputStream, LogLine> firstLineMetadata;
+    private final RecorderMetrics metrics;
 
     private Instant origin;
     private long lastEntryTimeOffset;
@@ -66,6 +67,23 @@ public class OutputWriter implements AutoCloseable, Consumer<LogLine> {
      *                          first log line. To create headers in the output.
      */
     public OutputWriter(OutputStream os, int orderBufferSize, long duration, long limit, BiConsumer<OutputStream, LogLine> firstLineMetadata) {
+        this(os, orderBufferSize, duration, limit, firstLineMetadata, new RecorderMetrics());
+    }
+
+    /**
+     * Construct a stream consumer
+     *
+     * @param os                Stream to put lines onto
+     * @param orderBufferSize   how many lines should be buffered to mitigate
+     *                          kafka out of order lines
+     * @param duration          how many ms to run for
+     * @param limit             how many lines to acquire
+     * @param firstLineMetadata method that takes an output stream, and the
+     *                          first log line. To create headers in the output.
+     * @param metrics           where to count written and out of order lines
+     */
+    public OutputWriter(OutputStream os, int orderBufferSize, long duration, long limit, BiConsumer<OutputStream, LogLine> firstLineMetadata, RecorderMetrics metrics) {
+        this.metrics = metrics;
         this.entries = new TreeSet<>();
         this.lastEntryTimeOffset = 0L;
         this.timeFirstDelta = null;
@@ -121,6 +139,7 @@ public class OutputWriter implements AutoCloseable, Consumer<LogLine> {
 
             outputEntry(entry);
         }
+        metrics.buffered(entries.size());
     }
 
     /**
@@ -146,9 +165,11 @@ public class OutputWriter implements AutoCloseable, Consumer<LogLine> {
         }
         if (entryTimeOffset - timeFirstDelta < lastEntryTimeOffset) {
             log.warn("Buffered output is out of order, increase buffer size? (outputted={}, next={})", lastEntryTimeOffset, entryTimeOffset);
+            metrics.rejected(RecorderMetrics.REJECT_OUT_OF_ORDER);
         } else {
             lastEntryTimeOffset = entryTimeOffset;
             entry.outputTo(os, timeFirstDelta);
+            metrics.written();
             if (++count >= limit) {
                 this.completed = true;
                 throw new CompletedException();
@@ -18,14 +18,15 @@
  */
 package dk.dbc.solr.performance.recorder;
 
+import dk.dbc.solr.performance.Compression;
+import dk.dbc.solr.performance.IndexingOutputStream;
 import dk.dbc.solr.performance.LineSource;
 import dk.dbc.solr.performance.LinesInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import dk.dbc.solr.performance.MetricsServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.function.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,16 +40,37 @@ public class Recorder {
     private static final Logger log = LoggerFactory.getLogger(Recorder.class);
 
     private final Config config;
+    private final RecorderMetrics metrics;
 
     public Recorder(Config config) {
         this.config = config;
+        this.metrics = new RecorderMetrics();
     }
 
     public void run() {
+        MetricsServer metricsServer = null;
+        if (config.getMetrics() != null) {
+            try {
+                metricsServer = new MetricsServer(config.getMetrics(), metrics);
+            } catch (IOException ex) {
+                log.error("Cannot serve metrics on {}: {}", config.getMetrics(), ex.getMessage());
+                return;
+            }
+        }
+        try {
+            record();
+        } finally {
+            if (metricsServer != null)
+                metricsServer.close();
+        }
+    }
+
+    private void record() {
         try (OutputWriter outputWriter = getOutputWriter()) {
             try (LineSource lineSource = getLineSource()) {
                 lineSource.stream()
                         .map(LogLine::of)
+                        .peek(metrics::parsed)
                         .filter(LogLine::isValid)
                         .filter(applicationFilter())
                         .forEach(outputWriter);
@@ -59,18 +81,20 @@ public class Recorder {
                 log.debug("Error processing input: ", ex);
             }
 
-        } catch (FileNotFoundException ex) {
+        } catch (IOException ex) {
             log.error("Error opening output: {}", ex.getMessage());
             log.debug("Error opening output: ", ex);
         }
     }
 
-    private OutputWriter getOutputWriter() throws FileNotFoundException {
+    private OutputWriter getOutputWriter() throws IOException {
         OutputStream os;
         String filename = config.getOutput();
         if (filename != null) {
             log.debug("Outputting to {}", filename);
-            os = new FileOutputStream(filename, config.isAppend());
+            os = Compression.create(filename, config.isAppend());
+            if (config.isSeekIndex())
+                os = new IndexingOutputStream(os, Paths.get(filename));
         } else {
             log.debug("Outputting to stdout");
             os = System.out;
@@ -80,7 +104,8 @@ public class Recorder {
                                 config.getSortBufferSize(),
                                 config.getDuration(),
                                 config.getLimit(),
-                                new HeaderOutput(config));
+                                new HeaderOutput(config),
+                                metrics);
     }
 
     private Predicate<LogLine> applicationFilter() {
@@ -88,18 +113,23 @@ public class Recorder {
         if (application == null)
             return l -> true;
         else
-            return l -> application.equals(l.getApp());
+            return l -> {
+                if (application.equals(l.getApp()))
+                    return true;
+                metrics.rejected(RecorderMetrics.REJECT_APPLICATION);
+                return false;
+            };
     }
 
-    private LineSource getLineSource() throws FileNotFoundException {
+    private LineSource getLineSource() throws IOException {
         String kafka = config.getKafka();
         String input = config.getInput();
         if (kafka != null) {
-            return new LinesKafka(kafka);
+            return new LinesKafka(kafka, metrics);
         } else if (input != null) {
-            return new LinesInputStream(new FileInputStream(input));
+            return new LinesInputStream(Compression.open(input));
         } else {
-            return new LinesInputStream(System.in, StandardCharsets.UTF_8);
+            return new LinesInputStream(Compression.decompress(System.in), StandardCharsets.UTF_8);
         }
     }
 
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.recorder;
+
+import dk.dbc.solr.performance.MetricsHistogram;
+import dk.dbc.solr.performance.MetricsWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counters of the recording, for the metrics endpoint
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RecorderMetrics implements Consumer<MetricsWriter> {
+
+    static final String REJECT_APPLICATION = "application";
+    static final String REJECT_OUT_OF_ORDER = "out_of_order";
+
+    private final LongAdder parsed;
+    private final ConcurrentMap<String, LongAdder> rejected;
+    private final LongAdder written;
+    private final MetricsHistogram pollLatency;
+    private volatile int buffered;
+
+    public RecorderMetrics() {
+        this.parsed = new LongAdder();
+        this.rejected = new ConcurrentHashMap<>();
+        this.written = new LongAdder();
+        this.pollLatency = new MetricsHistogram();
+        this.buffered = 0;
+    }
+
+    /**
+     * Count a parsed line, and why it was rejected
+     *
+     * @param logLine the parsed line
+     */
+    public void parsed(LogLine logLine) {
+        parsed.increment();
+        if (!logLine.isValid())
+            rejected(logLine.getRejectReason());
+    }
+
+    /**
+     * Count a rejected line
+     *
+     * @param reason why it was rejected
+     */
+    public void rejected(String reason) {
+        rejected.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    /**
+     * Count a line written to the output
+     */
+    public void written() {
+        written.increment();
+    }
+
+    /**
+     * Set the number of lines in the reorder buffer
+     *
+     * @param size lines
+     */
+    public void buffered(int size) {
+        buffered = size;
+    }
+
+    /**
+     * Record the duration of a kafka poll
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void polled(long nanos) {
+        pollLatency.record(nanos);
+    }
+
+    long getWritten() {
+        return written.sum();
+    }
+
+    Map<String, Long> getRejected() {
+        Map<String, Long> counts = new TreeMap<>();
+        rejected.forEach((reason, count) -> counts.put(reason, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public void accept(MetricsWriter writer) {
+        writer.family("solr_recorder_lines_parsed_total", "counter", "Log lines parsed")
+                .sample("solr_recorder_lines_parsed_total", parsed.sum());
+        writer.family("solr_recorder_lines_rejected_total", "counter", "Log lines not recorded, by reason");
+        getRejected().forEach((reason, count) -> writer.sample("solr_recorder_lines_rejected_total", count, "reason", reason));
+        writer.family("solr_recorder_lines_written_total", "counter", "Queries written to the output")
+                .sample("solr_recorder_lines_written_total", written.sum());
+        writer.family("solr_recorder_reorder_buffer_lines", "gauge", "Lines waiting in the reorder buffer")
+                .sample("solr_recorder_reorder_buffer_lines", buffered);
+        writer.histogram("solr_recorder_kafka_poll_duration_seconds", "Duration of kafka polls", pollLatency);
+    }
+}
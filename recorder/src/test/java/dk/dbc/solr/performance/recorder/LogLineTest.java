@@ -81,4 +81,18 @@ public class LogLineTest {
         LogLine logLine = LogLine.of(OK_LINE);
         assertThat(logLine.getApp(), is("solr7"));
     }
+
+    @Test(timeout = 2_000L)
+    public void testRejectReason() throws Exception {
+        System.out.println("testRejectReason");
+        assertThat(LogLine.of(OK_LINE).getRejectReason(), nullValue());
+        assertThat(LogLine.of(DISTRIB_LINE).getRejectReason(), is("distributed"));
+        assertThat(LogLine.of(JVM_LINE).getRejectReason(), is("not_select"));
+        assertThat(LogLine.of(UPDATE_LINE).getRejectReason(), is("not_select"));
+        assertThat(LogLine.of("not json").getRejectReason(), is("not_json"));
+        assertThat(LogLine.of("{\"app\":\"solr7\"}").getRejectReason(), is("missing_fields"));
+
+        LogLine replayed = LogLine.of(OK_LINE.replace("wt=phps", "wt=phps&dbcPerfTest=true"));
+        assertThat(replayed.getRejectReason(), is("replayed"));
+    }
 }
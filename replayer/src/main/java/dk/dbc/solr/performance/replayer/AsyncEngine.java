@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replay engine making non-blocking calls
+ * <p>
+ * A few i/o threads drive all the calls, so the number of calls in flight is
+ * not bounded by the number of threads, only by {@code --concurrency} (the
+ * connection pool is grown to match, if {@code --max-connections} is lower). When
+ * that many calls are in flight, {@link WorkerPool.Overflow#BLOCK} waits for
+ * one to complete, {@link WorkerPool.Overflow#DROP} and
+ * {@link WorkerPool.Overflow#SHED} skip the new call (there is no queue to
+ * shed from).
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class AsyncEngine implements ReplayEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncEngine.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    protected final SolrNodes nodes;
+    protected final CallReporter reporter;
+    private final CallTimeWathcer watcher;
+    private final JobListener jobListener;
+    private final int concurrency;
+    private final WorkerPool.Overflow overflow;
+    private final Semaphore permits;
+    private final PoolingNHttpClientConnectionManager manager;
+    private final PoolStatistics statistics;
+    private final CloseableHttpAsyncClient client;
+    private final AtomicInteger peakInFlight;
+    private final AtomicLong completed;
+    private final AtomicLong blocked;
+    private final AtomicLong dropped;
+
+    public AsyncEngine(Config config, LogCollector logCollector, CallTimeWathcer watcher, JobListener jobListener) {
+        this(config, logCollector, watcher, jobListener, 0);
+    }
+
+    /**
+     * @param extraHosts number of hosts, besides the solr nodes, that calls
+     *                   are made to
+     */
+    protected AsyncEngine(Config config, LogCollector logCollector, CallTimeWathcer watcher, JobListener jobListener, int extraHosts) {
+        this.nodes = SolrNodes.of(config);
+        this.reporter = new CallReporter(logCollector);
+        this.watcher = watcher;
+        this.jobListener = jobListener;
+        this.concurrency = config.getConcurrency();
+        this.overflow = config.getOverflow();
+        this.permits = new Semaphore(concurrency);
+        // Every call in flight may need its own connection to the same node
+        int maxConnections = Math.max(config.getMaxConnections(), concurrency);
+        this.manager = createConnectionManager(config);
+        this.manager.setMaxTotal(maxConnections * ( nodes.size() + extraHosts ));
+        this.manager.setDefaultMaxPerRoute(maxConnections);
+        this.statistics = new PoolStatistics(manager);
+        this.client = HttpAsyncClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) config.getConnectTimeout())
+                        .setSocketTimeout((int) config.getReadTimeout())
+                        .build())
+                .disableCookieManagement()
+                .build();
+        this.peakInFlight = new AtomicInteger();
+        this.completed = new AtomicLong();
+        this.blocked = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.client.start();
+    }
+
+    private static PoolingNHttpClientConnectionManager createConnectionManager(Config config) {
+        try {
+            return new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                            .setTcpNoDelay(config.isTcpNoDelay())
+                            .setConnectTimeout((int) config.getConnectTimeout())
+                            .setSoTimeout((int) config.getReadTimeout())
+                            .build()));
+        } catch (IOReactorException ex) {
+            throw new RuntimeException("Cannot create i/o reactor: " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void submit(LogLine logLine, long intendedDispatch) {
+        if (!acquire()) {
+            dropped.incrementAndGet();
+            log.debug("Dropped call: {}", logLine);
+            return;
+        }
+        peakInFlight.accumulateAndGet(concurrency - permits.availablePermits(), Math::max);
+        dispatch(logLine, intendedDispatch);
+        statistics.sample();
+    }
+
+    /**
+     * Send the call(s) for a line
+     * <p>
+     * When the call(s) are completed {@link #release()} must be called
+     *
+     * @param logLine          the line to replay
+     * @param intendedDispatch when the call should have been sent
+     *                         ({@link System#nanoTime()})
+     */
+    protected void dispatch(LogLine logLine, long intendedDispatch) {
+        SolrNodes.Node node = nodes.select(logLine.getQuery());
+        RequestTiming timing = new RequestTiming();
+        TimedResponseConsumer consumer = new TimedResponseConsumer(timing, false);
+        send(node.getBaseUrl() + "/select?" + logLine.getQuery(), consumer,
+             new Call(logLine, node, intendedDispatch, timing, consumer));
+    }
+
+    /**
+     * Send a request
+     *
+     * @param url      what to call
+     * @param consumer how to read the response
+     * @param callback notified when the call has completed or failed
+     */
+    protected void send(String url, TimedResponseConsumer consumer, FutureCallback<Integer> callback) {
+        try {
+            URI uri = SolrSender.toUri(url);
+            client.execute(new TimedRequestProducer(new HttpGet(uri), consumer.getTiming()),
+                           consumer, HttpClientContext.create(), callback);
+        } catch (Exception e) {
+            callback.failed(e);
+        }
+    }
+
+    /**
+     * The call(s) of a line has completed, free the slot
+     */
+    protected void release() {
+        completed.incrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Let the watcher know the duration of a call
+     * <p>
+     * Warm-up calls aren't watched
+     *
+     * @param logLine  the line that was replayed
+     * @param duration call duration (ms)
+     */
+    protected void addCallTime(LogLine logLine, long duration) {
+        if (logLine.isWarmup())
+            return;
+        try {
+            watcher.addCallTime(duration); // Can throw CallTimeExceededException
+        } catch (CallTimeExceededException ex) {
+            jobListener.callTimeExceeded();
+        }
+    }
+
+    private boolean acquire() {
+        if (permits.tryAcquire())
+            return true;
+        if (overflow != WorkerPool.Overflow.BLOCK)
+            return false;
+        blocked.incrementAndGet();
+        try {
+            permits.acquire();
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void awaitCompletion(long timeout) {
+        try {
+            if (permits.tryAcquire(concurrency, timeout, TimeUnit.MILLISECONDS)) {
+                permits.release(concurrency);
+            } else {
+                log.warn("Calls still in flight after {}ms, aborting them", timeout);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getWorkerStats() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("concurrency", (long) concurrency);
+        map.put("inFlight", (long) ( concurrency - permits.availablePermits() ));
+        map.put("peakInFlight", (long) peakInFlight.get());
+        map.put("completed", completed.get());
+        map.put("blocked", blocked.get());
+        map.put("dropped", dropped.get());
+        return map;
+    }
+
+    @Override
+    public long getRejected() {
+        return dropped.get();
+    }
+
+    @Override
+    public Map<String, Integer> getConnectionStats() {
+        return statistics.getStats();
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getNodeStats() {
+        return nodes.getStats();
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException ex) {
+            log.error("Error closing async client: {}", ex.getMessage());
+            log.debug("Error closing async client: ", ex);
+        }
+    }
+
+    /**
+     * Completion of a call: report it, and free the slot
+     */
+    private class Call implements FutureCallback<Integer> {
+
+        private final LogLine logLine;
+        private final SolrNodes.Node node;
+        private final long intendedDispatch;
+        private final RequestTiming timing;
+        private final TimedResponseConsumer consumer;
+
+        private Call(LogLine logLine, SolrNodes.Node node, long intendedDispatch, RequestTiming timing, TimedResponseConsumer consumer) {
+            this.logLine = logLine;
+            this.node = node;
+            this.intendedDispatch = intendedDispatch;
+            this.timing = timing;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void completed(Integer responseCode) {
+            done(responseCode, null);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            done(consumer.getResponseCode(), String.valueOf(ex.getMessage()));
+        }
+
+        @Override
+        public void cancelled() {
+            done(consumer.getResponseCode(), "Cancelled");
+        }
+
+        private void done(int responseCode, String error) {
+            try {
+                timing.close();
+                nodes.release(node, responseCode);
+                addCallTime(logLine, reporter.report(logLine, node.getBaseUrl(), intendedDispatch, timing, responseCode, error));
+            } catch (RuntimeException ex) {
+                log.error("Error reporting call: {}", ex.getMessage());
+                log.debug("Error reporting call: ", ex);
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Request producer, that notes when a connection is ready for the
+     * request
+     */
+    private static class TimedRequestProducer extends BasicAsyncRequestProducer {
+
+        private final RequestTiming timing;
+
+        private TimedRequestProducer(HttpGet request, RequestTiming timing) {
+            super(URIUtils.extractHost(request.getURI()), request);
+            this.timing = timing;
+        }
+
+        @Override
+        public HttpRequest generateRequest() {
+            timing.acquired();
+            return super.generateRequest();
+        }
+    }
+
+    /**
+     * Response consumer, that notes the first byte, and extracts the QTime
+     * while the body is drained (and optionally kept)
+     */
+    static class TimedResponseConsumer extends AbstractAsyncResponseConsumer<Integer> {
+
+        private final RequestTiming timing;
+        private final QTimeExtractor extractor;
+        private final ByteBuffer buffer;
+        private final ByteArrayOutputStream body;
+        private volatile int responseCode;
+
+        /**
+         * @param timing   where to note the timing of the response
+         * @param keepBody should the body be kept for {@link #getBody()}
+         */
+        TimedResponseConsumer(RequestTiming timing, boolean keepBody) {
+            this.timing = timing;
+            this.extractor = new QTimeExtractor();
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.body = keepBody ? new ByteArrayOutputStream() : null;
+            this.responseCode = -1;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) throws HttpException, IOException {
+            timing.firstByte();
+            responseCode = response.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+            for (int n = decoder.read(buffer) ; n > 0 ; n = decoder.read(buffer)) {
+                extractor.accept(buffer.array(), 0, n);
+                if (body != null)
+                    body.write(buffer.array(), 0, n);
+                buffer.clear();
+            }
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        }
+
+        @Override
+        protected Integer buildResult(HttpContext context) throws Exception {
+            extractor.end();
+            timing.setQTime(extractor.getQTime());
+            return responseCode;
+        }
+
+        @Override
+        protected void releaseResources() {
+        }
+
+        RequestTiming getTiming() {
+            return timing;
+        }
+
+        /**
+         * @return http status or -1 if no response was received
+         */
+        int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * @return the response body, if it is kept, and the call is completed
+         */
+        byte[] getBody() {
+            return body == null ? null : body.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A compiled recording (see {@link RecordingCompiler}), memory mapped
+ * <p>
+ * The file is:
+ * <ul>
+ * <li>a header: magic, number of lines, offset of the dictionary and offset
+ * of the dictionary index (all longs after the magic)
+ * <li>the lines: the time delta from the previous line (zigzag varint) and
+ * the dictionary number of the query (varint)
+ * <li>the dictionary: the distinct queries, each an int length and the uri
+ * encoded query
+ * <li>the dictionary index: the offset of each query (long)
+ * </ul>
+ * Moving through the lines doesn't allocate, a query is decoded the first
+ * time a line with it is asked for.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BinaryRecordingReader implements RecordingReader {
+
+    static final byte[] MAGIC = "SPTREC01".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER = MAGIC.length + 3 * Long.BYTES;
+
+    private final FileChannel channel;
+    private final long lines;
+    private final MappedByteBuffer data;
+    private final MappedByteBuffer dictionary;
+    private final long dictionaryOffset;
+    private final long indexOffset;
+    private final String[] queries;
+    private long timeDelta;
+    private int query;
+
+    /**
+     * Is a file a compiled recording
+     *
+     * @param path file
+     * @return true if the file starts with the magic
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCompiled(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+            }
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        }
+    }
+
+    public BinaryRecordingReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER)
+                throw new IOException("Compiled recording " + path + " is truncated");
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException(path + " is not a compiled recording");
+            this.lines = header.getLong();
+            this.dictionaryOffset = header.getLong();
+            this.indexOffset = header.getLong();
+            if (dictionaryOffset < HEADER || indexOffset < dictionaryOffset || size < indexOffset ||
+                ( size - indexOffset ) % Long.BYTES != 0)
+                throw new IOException("Compiled recording " + path + " is corrupt");
+            this.data = map(path, HEADER, dictionaryOffset);
+            this.dictionary = map(path, dictionaryOffset, size);
+            this.queries = new String[(int) ( ( size - indexOffset ) / Long.BYTES )];
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private MappedByteBuffer map(Path path, long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE)
+            throw new IOException("Compiled recording " + path + " has a section larger than 2GB, split the recording");
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    /**
+     * Number of lines in the recording
+     *
+     * @return lines
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Number of distinct queries in the recording
+     *
+     * @return queries
+     */
+    public int getQueries() {
+        return queries.length;
+    }
+
+    @Override
+    public boolean next() {
+        if (!data.hasRemaining())
+            return false;
+        long delta = readVarLong(data);
+        timeDelta += ( delta >>> 1 ) ^ -( delta & 1 );
+        query = (int) readVarLong(data);
+        return true;
+    }
+
+    @Override
+    public boolean isValid() {
+        return true;
+    }
+
+    @Override
+    public long getTimeDelta() {
+        return timeDelta;
+    }
+
+    @Override
+    public LogLine getLine() {
+        return LogLine.of(timeDelta, query(query));
+    }
+
+    @Override
+    public long getMalformed() {
+        return 0;
+    }
+
+    private String query(int number) {
+        String text = queries[number];
+        if (text == null) {
+            int offset = (int) ( dictionary.getLong((int) ( indexOffset - dictionaryOffset ) + number * Long.BYTES) - dictionaryOffset );
+            byte[] bytes = new byte[dictionary.getInt(offset)];
+            for (int i = 0 ; i < bytes.length ; i++) {
+                bytes[i] = dictionary.get(offset + Integer.BYTES + i);
+            }
+            text = new String(bytes, StandardCharsets.UTF_8);
+            queries[number] = text;
+        }
+        return text;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0 ; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) ( b & 0x7f ) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
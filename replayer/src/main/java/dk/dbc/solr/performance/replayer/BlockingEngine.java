@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replay engine with a bounded pool of worker threads, making blocking calls
+ * through a shared connection pool
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BlockingEngine implements ReplayEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockingEngine.class);
+
+    private final WorkerPool workerPool;
+    private final ConnectionPool connectionPool;
+    private final SolrNodes nodes;
+    private final SolrSender sender;
+    private final CallTimeWathcer watcher;
+    private final JobListener jobListener;
+
+    public BlockingEngine(Config config, LogCollector logCollector, CallTimeWathcer watcher, JobListener jobListener) {
+        this.workerPool = WorkerPool.of(config);
+        this.connectionPool = ConnectionPool.of(config);
+        this.nodes = SolrNodes.of(config);
+        this.sender = new SolrSender(nodes, logCollector, connectionPool);
+        this.watcher = watcher;
+        this.jobListener = jobListener;
+    }
+
+    @Override
+    public void submit(LogLine logLine, long intendedDispatch) {
+        workerPool.execute(new ReplayerTask(sender, watcher, logLine, intendedDispatch, jobListener));
+        connectionPool.sample();
+    }
+
+    @Override
+    public void awaitCompletion(long timeout) {
+        workerPool.shutdown();
+        try {
+            if (!workerPool.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Calls still in flight after {}ms, aborting them", timeout);
+                workerPool.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            workerPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getWorkerStats() {
+        return workerPool.getStats();
+    }
+
+    @Override
+    public long getRejected() {
+        return workerPool.getRejected();
+    }
+
+    @Override
+    public Map<String, Integer> getConnectionStats() {
+        return connectionPool.getStats();
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getNodeStats() {
+        return nodes.getStats();
+    }
+
+    @Override
+    public void close() {
+        workerPool.shutdownNow();
+        connectionPool.close();
+    }
+}
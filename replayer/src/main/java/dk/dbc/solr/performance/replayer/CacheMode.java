@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How a replay treats solr's caches
+ * <p>
+ * {@code none} replays the queries as recorded.
+ * <p>
+ * {@code bust[:RATIO]} makes RATIO (default 1) of the queries bypass the
+ * caches: every filter query gets the local param cache=false (filterCache),
+ * as does the main query, when it is parsed by the lucene parser
+ * (queryResultCache - other parsers does not allow local params in q). A
+ * cacheBust=N parameter makes each query unique on the wire too.
+ * <p>
+ * {@code hot-set[:SIZE]} replays the recorded timing, with only the SIZE
+ * (default 100) most frequent queries of the replayed window; a query that
+ * isn't in the hot set is replaced by the next from the hot set.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CacheMode {
+
+    public enum Kind {
+        NONE, BUST, HOT_SET
+    }
+
+    /**
+     * The parameter that makes a busted query unique
+     */
+    static final String BUST_PARAMETER = "cacheBust";
+
+    /**
+     * Number of counters per hot set entry, when finding the most frequent
+     * queries
+     */
+    private static final int COUNTERS_PER_ENTRY = 10;
+
+    private final String text;
+    private final Kind kind;
+    private final double ratio;
+    private final int size;
+
+    private CacheMode(String text, Kind kind, double ratio, int size) {
+        this.text = text;
+        this.kind = kind;
+        this.ratio = ratio;
+        this.size = size;
+    }
+
+    /**
+     * Parse a cache mode
+     *
+     * @param text mode specification (see class documentation)
+     * @return mode
+     */
+    public static CacheMode of(String text) {
+        String[] parts = text.split(":", 2);
+        switch (parts[0].toLowerCase(Locale.ROOT)) {
+            case "none":
+                if (parts.length != 1)
+                    throw new IllegalArgumentException("Invalid cache mode, use none");
+                return new CacheMode(text, Kind.NONE, 0, 0);
+            case "bust": {
+                double ratio = parts.length == 2 ? Double.parseDouble(parts[1]) : 1.0;
+                if (!( ratio > 0 && ratio <= 1 ))
+                    throw new IllegalArgumentException("Cache bust ratio needs to be above 0 and at most 1: " + text);
+                return new CacheMode(text, Kind.BUST, ratio, 0);
+            }
+            case "hot-set": {
+                int size = parts.length == 2 ? Integer.parseInt(parts[1]) : 100;
+                if (size < 1)
+                    throw new IllegalArgumentException("Hot set needs at least 1 query: " + text);
+                return new CacheMode(text, Kind.HOT_SET, 0, size);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown cache mode: " + text + " (use none, bust[:RATIO] or hot-set[:SIZE])");
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Find the most frequent queries of a recording
+     * <p>
+     * The queries are counted with a bounded number of counters
+     * (Misra-Gries), so memory doesn't grow with the length of the
+     * recording, the counts are lower bounds
+     *
+     * @param recording the recording, read to the end
+     * @param from      first time delta included (ms)
+     * @param to        time delta where the window ends (ms, excluded)
+     * @return up to SIZE queries, most frequent first
+     * @throws IOException if the recording cannot be read
+     */
+    public List<String> hotSet(RecordingReader recording, long from, long to) throws IOException {
+        int capacity = size * COUNTERS_PER_ENTRY;
+        Map<String, long[]> counters = new HashMap<>();
+        while (recording.next()) {
+            if (!recording.isValid())
+                continue;
+            long timeDelta = recording.getTimeDelta();
+            if (timeDelta < from)
+                continue;
+            if (timeDelta >= to)
+                break;
+            String query = recording.getLine().getQuery();
+            long[] counter = counters.get(query);
+            if (counter != null) {
+                counter[0]++;
+            } else if (counters.size() < capacity) {
+                counters.put(query, new long[] {1});
+            } else {
+                Iterator<long[]> i = counters.values().iterator();
+                while (i.hasNext()) {
+                    if (--i.next()[0] == 0)
+                        i.remove();
+                }
+            }
+        }
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(counters.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        List<String> hotSet = new ArrayList<>();
+        for (int i = 0 ; i < entries.size() && i < size ; i++) {
+            hotSet.add(entries.get(i).getKey());
+        }
+        return hotSet;
+    }
+
+    /**
+     * Rewrite the lines of a replay according to the mode
+     *
+     * @param hotSet the hot set (see {@link #hotSet(RecordingReader, long, long)}),
+     *               only used in hot-set mode
+     * @return rewriter
+     */
+    public Rewriter rewriter(List<String> hotSet) {
+        return new Rewriter(hotSet);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * The rewriting of the lines of one replay
+     * <p>
+     * This is used from the thread reading the recording only
+     */
+    public class Rewriter {
+
+        private final List<String> hotSet;
+        private final Set<String> hot;
+        private int next;
+        private long busted;
+        private long substituted;
+
+        private Rewriter(List<String> hotSet) {
+            this.hotSet = hotSet == null ? Collections.emptyList() : hotSet;
+            this.hot = new HashSet<>(this.hotSet);
+        }
+
+        /**
+         * Rewrite a line
+         *
+         * @param line  the line from the recording
+         * @param index number of the line (from 0) among the replayed lines
+         * @return the line to replay
+         */
+        public LogLine apply(LogLine line, long index) {
+            switch (kind) {
+                case BUST:
+                    // RATIO of the lines, evenly spread
+                    if (Math.floor(( index + 1 ) * ratio) == Math.floor(index * ratio))
+                        return line;
+                    busted++;
+                    return LogLine.of(line.getTimeDelta(), bust(line.getQuery(), index));
+                case HOT_SET:
+                    if (hotSet.isEmpty() || hot.contains(line.getQuery()))
+                        return line;
+                    substituted++;
+                    String query = hotSet.get(next);
+                    next = ( next + 1 ) % hotSet.size();
+                    return LogLine.of(line.getTimeDelta(), query);
+                default:
+                    return line;
+            }
+        }
+
+        /**
+         * What has been rewritten
+         *
+         * @return map of name to value
+         */
+        public Map<String, Object> stats() {
+            Map<String, Object> stats = new HashMap<>();
+            switch (kind) {
+                case BUST:
+                    stats.put("busted", busted);
+                    break;
+                case HOT_SET:
+                    stats.put("substituted", substituted);
+                    break;
+                default:
+                    break;
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Make a query bypass solr's caches
+     *
+     * @param query  the query string (url encoded)
+     * @param unique number making the query unique
+     * @return query string
+     */
+    static String bust(String query, long unique) {
+        boolean lucene = true;
+        for (String param : query.split("&")) {
+            if (param.startsWith("defType=")) {
+                String defType = decode(param.substring(8));
+                lucene = defType.isEmpty() || defType.equals("lucene");
+            }
+        }
+        StringBuilder busted = new StringBuilder(query.length() + 64);
+        for (String param : query.split("&")) {
+            if (param.isEmpty())
+                continue;
+            if (busted.length() > 0)
+                busted.append('&');
+            if (param.startsWith("fq=") || lucene && param.startsWith("q=")) {
+                int eq = param.indexOf('=');
+                busted.append(param, 0, eq + 1)
+                        .append(encode(uncached(decode(param.substring(eq + 1)))));
+            } else {
+                busted.append(param);
+            }
+        }
+        return busted.append('&').append(BUST_PARAMETER).append('=').append(unique).toString();
+    }
+
+    /**
+     * Add cache=false to the local params of a query
+     */
+    private static String uncached(String query) {
+        if (query.startsWith("{!"))
+            return "{!cache=false " + query.substring(2);
+        return "{!cache=false}" + query;
+    }
+
+    private static String decode(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return text;
+        }
+    }
+
+    private static String encode(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Record the outcome of a call to solr in the {@link LogCollector}
+ * <p>
+ * This is shared between the replay engines, so they report alike
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CallReporter {
+
+    private static final Logger log = LoggerFactory.getLogger(CallReporter.class);
+
+    private final LogCollector logCollector;
+
+    public CallReporter(LogCollector logCollector) {
+        this.logCollector = logCollector;
+    }
+
+    /**
+     * Record a completed call
+     *
+     * @param logLine          the line that was replayed
+     * @param node             the solr node the call was sent to
+     * @param intendedDispatch when the query should have been sent
+     *                         ({@link System#nanoTime()})
+     * @param timing           the (closed) timing of the call
+     * @param responseCode     http status or -1 if no response was received
+     * @param error            message of the exception, if the call failed
+     * @return Duration of solr-call in ms
+     */
+    public long report(LogLine logLine, String node, long intendedDispatch, RequestTiming timing, int responseCode, String error) {
+        return report(logLine, node, intendedDispatch, timing, responseCode, error, null);
+    }
+
+    /**
+     * Record a completed call
+     *
+     * @param logLine          the line that was replayed
+     * @param node             the solr node the call was sent to
+     * @param intendedDispatch when the query should have been sent
+     *                         ({@link System#nanoTime()})
+     * @param timing           the (closed) timing of the call
+     * @param responseCode     http status or -1 if no response was received
+     * @param error            message of the exception, if the call failed
+     * @param mirror           comparison with a mirrored call (or null)
+     * @return Duration of solr-call in ms
+     */
+    public long report(LogLine logLine, String node, long intendedDispatch, RequestTiming timing, int responseCode, String error, MirrorResult mirror) {
+        final String q = logLine.getQuery();
+        LogCollector.LogEntry logEntry = new LogCollector.LogEntry();
+        logEntry.setQuery(q);
+        logEntry.setNode(node);
+        logEntry.setMirror(mirror);
+
+        boolean warmup = logLine.isWarmup();
+        logEntry.setWarmup(warmup);
+
+        String status = "error";
+        if (responseCode >= 0) {
+            status = Integer.toString(responseCode);
+            if (!warmup)
+                logCollector.incrementFor(status);
+
+            if (responseCode != 200) {
+                log.error( "Got non-zero status({}) from solr on query: {}", responseCode, q);
+                logEntry.setStatus("Non-zero exit status from solr(" + responseCode + ")");
+            }
+        }
+        if (error != null) {
+            log.error("Exception from solrClient caught ({}) on query: {}", error, q);
+            logEntry.setStatus("Exception from solr (" + error + ")");
+        }
+
+        long callDuration = NANOSECONDS.toMillis(timing.getTotal());
+        long completed = timing.getCompleted();
+        logEntry.setCallDuration(callDuration);
+        logEntry.setSchedule(NANOSECONDS.toMillis(timing.getStarted() - intendedDispatch),
+                             NANOSECONDS.toMillis(completed - intendedDispatch));
+        logEntry.setTiming(timing);
+        logCollector.addEntry(logEntry);
+        if (warmup) {
+            logCollector.recordWarmup(status, timing.getTotal(), completed - intendedDispatch);
+        } else {
+            logCollector.recordLatency(status, timing.getTotal(), completed - intendedDispatch);
+            logCollector.recordNodeLatency(node, status, timing.getTotal());
+            if (responseCode == 200)
+                logCollector.recordQueryClass(q, timing.getTotal());
+            logCollector.recordCache(logLine.isRepeat(), status, timing.getTotal());
+            logCollector.recordTiming(timing);
+        }
+
+        log.debug( "Call duration = {}ms", callDuration);
+        log.debug("Timing = {}", timing);
+        return callDuration;
+    }
+}
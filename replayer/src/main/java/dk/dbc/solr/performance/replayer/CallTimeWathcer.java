@@ -20,10 +20,16 @@ package dk.dbc.solr.performance.replayer;
  * File created: 26/03/2019
  */
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Logs the calltime for the latest x calls to solr
  * and throws an exception if more than y calls exceed
  * the given limit
+ * <p>
+ * This is called after every call, from all threads, so it doesn't lock, and
+ * the number of calls exceeding the limit is kept as a running count
  */
 public class CallTimeWathcer {
     private CallStack callTimes;
@@ -37,14 +43,13 @@ public class CallTimeWathcer {
      * @param cutoffLimit Max call time allowed
      */
     public CallTimeWathcer(int callBufferSize, int maxCalls, long cutoffLimit) {
-        this.callTimes = new CallStack(callBufferSize);
+        this.callTimes = new CallStack(callBufferSize, cutoffLimit);
         this.maxCalls = maxCalls;
         this.cutoffLimit = cutoffLimit;
     }
 
-    public synchronized void addCallTime(long callTime) {
-        callTimes.push(callTime);
-        if( callTimes.numElementsAbove(cutoffLimit) > this.maxCalls) {
+    public void addCallTime(long callTime) {
+        if( callTimes.push(callTime) > this.maxCalls) {
             throw new CallTimeExceededException();
         }
     }
@@ -60,16 +65,67 @@ public class CallTimeWathcer {
         return callTimes.numElementsAbove(cutoffLimit);
     }
 
-    static class CallStack extends FixedSizeStack<Long> {
+    /**
+     * The latest call times in a ring of primitive longs
+     * <p>
+     * Slots are claimed from an atomic counter, and swapped atomically, so
+     * the number of values at or above the cutoff can be adjusted by the
+     * value that goes in, and the value that falls out.
+     */
+    static class CallStack {
+
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private final AtomicLongArray values;
+        private final AtomicLong next;
+        private final AtomicLong above;
+        private final long cutoffLimit;
 
         public CallStack(int size) {
-            super(size);
+            this(size, Long.MAX_VALUE);
+        }
+
+        /**
+         * @param size        The number of call times kept
+         * @param cutoffLimit The limit to keep a running count for
+         */
+        public CallStack(int size, long cutoffLimit) {
+            if (size < 1)
+                throw new IllegalArgumentException("Call buffer size needs to be at least 1");
+            this.values = new AtomicLongArray(size);
+            for (int i = 0 ; i < size ; i++) {
+                values.set(i, EMPTY);
+            }
+            this.next = new AtomicLong();
+            this.above = new AtomicLong();
+            this.cutoffLimit = cutoffLimit;
+        }
+
+        /**
+         * Add a call time, replacing the oldest when full
+         *
+         * @param value call time
+         * @return number of values at or above the cutoff limit
+         */
+        public long push(long value) {
+            int slot = (int) ( next.getAndIncrement() % values.length() );
+            long old = values.getAndSet(slot, value);
+            int delta = ( value >= cutoffLimit ? 1 : 0 ) - ( old != EMPTY && old >= cutoffLimit ? 1 : 0 );
+            if (delta == 0)
+                return above.get();
+            return above.addAndGet(delta);
         }
 
         public long numElementsAbove(long cutoffLimit) {
-            return stack.stream()
-                    .filter( e-> {if(e >= cutoffLimit) return true; else return false;})
-                    .count();
+            if (cutoffLimit == this.cutoffLimit)
+                return above.get();
+            long count = 0;
+            for (int i = 0 ; i < values.length() ; i++) {
+                long value = values.get(i);
+                if (value != EMPTY && value >= cutoffLimit)
+                    count++;
+            }
+            return count;
         }
     }
 }
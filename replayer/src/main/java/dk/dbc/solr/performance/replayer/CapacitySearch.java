@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleFunction;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Find the highest replay speed, where a {@link Slo} still holds
+ * <p>
+ * The recording is replayed once per step, at a constant speed. A step
+ * passes if it meets the objective, and wasn't stopped by the call time
+ * constraint. The knee is the fastest passing step, below the slowest
+ * failing one.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CapacitySearch {
+
+    private static final Logger log = LoggerFactory.getLogger(CapacitySearch.class);
+
+    private final Strategy strategy;
+    private final Slo slo;
+    private final List<Step> steps;
+
+    public CapacitySearch(Strategy strategy, Slo slo) {
+        this.strategy = strategy;
+        this.slo = slo;
+        this.steps = new ArrayList<>();
+    }
+
+    /**
+     * Run the steps
+     *
+     * @param replay replay the recording at a speed, null to stop the
+     *               search (ie. the input cannot be read)
+     */
+    public void run(DoubleFunction<Step> replay) {
+        if (strategy.binary) {
+            double low = strategy.speeds[0];
+            double high = strategy.speeds[1];
+            Step step = step(replay, low);
+            if (step == null || !step.passed)
+                return;
+            step = step(replay, high);
+            if (step == null || step.passed)
+                return;
+            for (int i = 0 ; i < strategy.iterations ; i++) {
+                double mid = Math.sqrt(low * high);
+                step = step(replay, mid);
+                if (step == null)
+                    return;
+                if (step.passed)
+                    low = mid;
+                else
+                    high = mid;
+            }
+        } else {
+            for (double speed : strategy.speeds) {
+                Step step = step(replay, speed);
+                if (step == null || !step.passed)
+                    return;
+            }
+        }
+    }
+
+    private Step step(DoubleFunction<Step> replay, double speed) {
+        log.info("Capacity search: replaying at {}x", speed);
+        Step step = replay.apply(speed);
+        if (step == null)
+            return null;
+        step.check(slo);
+        log.info("Capacity search: {}x gave {} calls/s, {}", speed, String.format(Locale.ROOT, "%.1f", step.getQps()),
+                 step.passed ? "passed" : step.violations);
+        steps.add(step);
+        return step;
+    }
+
+    /**
+     * The fastest passing step, that is slower than any failing step
+     *
+     * @return step or null if no step passed
+     */
+    public Step getKnee() {
+        double firstFailure = steps.stream()
+                .filter(s -> !s.passed)
+                .mapToDouble(s -> s.speed)
+                .min().orElse(Double.POSITIVE_INFINITY);
+        return steps.stream()
+                .filter(s -> s.passed && s.speed < firstFailure)
+                .max(Comparator.comparingDouble(s -> s.speed))
+                .orElse(null);
+    }
+
+    /**
+     * The search as it should be reported
+     *
+     * @return map with strategy, slo, curve (steps by speed) and knee
+     */
+    public Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("strategy", strategy.toString());
+        report.put("slo", slo.toString());
+        List<Map<String, Object>> curve = new ArrayList<>();
+        steps.stream()
+                .sorted(Comparator.comparingDouble(s -> s.speed))
+                .forEach(s -> curve.add(s.report()));
+        report.put("curve", curve);
+        Step knee = getKnee();
+        report.put("knee", knee == null ? null : knee.report());
+        return report;
+    }
+
+    /**
+     * How the speeds are chosen
+     * <p>
+     * {@code step:SPEED,SPEED,...} runs the speeds in order until one fails,
+     * {@code binary:LOW:HIGH[:ITERATIONS]} bisects (geometrically) between
+     * LOW and HIGH (default 5 iterations)
+     */
+    public static class Strategy {
+
+        private final String text;
+        private final boolean binary;
+        private final double[] speeds;
+        private final int iterations;
+
+        private Strategy(String text, boolean binary, double[] speeds, int iterations) {
+            this.text = text;
+            this.binary = binary;
+            this.speeds = speeds;
+            this.iterations = iterations;
+        }
+
+        /**
+         * Parse a strategy
+         *
+         * @param text strategy specification
+         * @return strategy
+         */
+        public static Strategy of(String text) {
+            String[] parts = text.split(":");
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "step": {
+                    if (parts.length != 2)
+                        throw new IllegalArgumentException("Invalid capacity search, use step:SPEED,SPEED,...");
+                    String[] list = parts[1].split(",");
+                    double[] speeds = new double[list.length];
+                    for (int i = 0 ; i < list.length ; i++) {
+                        speeds[i] = finiteSpeed(list[i]);
+                        if (i > 0 && speeds[i] <= speeds[i - 1])
+                            throw new IllegalArgumentException("Capacity search steps need to be increasing: " + text);
+                    }
+                    return new Strategy(text, false, speeds, 0);
+                }
+                case "binary": {
+                    if (parts.length != 3 && parts.length != 4)
+                        throw new IllegalArgumentException("Invalid capacity search, use binary:LOW:HIGH[:ITERATIONS]");
+                    double low = finiteSpeed(parts[1]);
+                    double high = finiteSpeed(parts[2]);
+                    if (high <= low)
+                        throw new IllegalArgumentException("Capacity search HIGH needs to be above LOW: " + text);
+                    int iterations = parts.length == 4 ? Integer.parseInt(parts[3]) : 5;
+                    if (iterations < 1)
+                        throw new IllegalArgumentException("Capacity search needs at least 1 iteration: " + text);
+                    return new Strategy(text, true, new double[] {low, high}, iterations);
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown capacity search: " + text + " (use step or binary)");
+            }
+        }
+
+        private static double finiteSpeed(String text) {
+            double speed = RateProfile.parseSpeed(text);
+            if (speed == Double.POSITIVE_INFINITY)
+                throw new IllegalArgumentException("No delay (0) cannot be a capacity search step");
+            return speed;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * The outcome of replaying at one speed
+     */
+    public static class Step {
+
+        private final double speed;
+        private final long dispatched;
+        private final long calls;
+        private final long rejected;
+        private final long failures;
+        private final long elapsed;
+        private final Histogram latency;
+        private final boolean aborted;
+        private List<String> violations;
+        private boolean passed;
+
+        /**
+         * @param speed      replay speed multiplier
+         * @param dispatched number of lines sent
+         * @param latency    corrected latency of every call per status
+         *                   (http code or "error")
+         * @param rejected   number of lines dropped or shed by the worker
+         *                   pool, these count as failures
+         * @param elapsed    duration of the step (nanoseconds)
+         * @param aborted    if the call time constraint stopped the step
+         */
+        public Step(double speed, long dispatched, Map<String, Histogram> latency, long rejected, long elapsed, boolean aborted) {
+            this.speed = speed;
+            this.dispatched = dispatched;
+            this.elapsed = elapsed;
+            this.aborted = aborted;
+            this.latency = LatencyHistograms.newHistogram();
+            long failed = 0;
+            for (Map.Entry<String, Histogram> e : latency.entrySet()) {
+                this.latency.add(e.getValue());
+                if (isFailure(e.getKey()))
+                    failed += e.getValue().getTotalCount();
+            }
+            this.calls = this.latency.getTotalCount();
+            this.rejected = rejected;
+            this.failures = failed + rejected;
+        }
+
+        private static boolean isFailure(String status) {
+            try {
+                return Integer.parseInt(status) >= 500;
+            } catch (NumberFormatException ex) {
+                return true;
+            }
+        }
+
+        private void check(Slo slo) {
+            violations = slo.violations(latency, calls + rejected, failures);
+            if (aborted)
+                violations.add("stopped by the call time constraint");
+            passed = violations.isEmpty();
+        }
+
+        public double getSpeed() {
+            return speed;
+        }
+
+        /**
+         * @return completed calls per second
+         */
+        public double getQps() {
+            return elapsed <= 0 ? 0 : calls * 1e9 / elapsed;
+        }
+
+        public boolean isPassed() {
+            return passed;
+        }
+
+        private Map<String, Object> report() {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("speed", speed);
+            report.put("dispatched", dispatched);
+            report.put("calls", calls);
+            report.put("rejected", rejected);
+            report.put("failures", failures);
+            report.put("elapsed", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            report.put("offered", elapsed <= 0 ? 0 : dispatched * 1e9 / elapsed);
+            report.put("qps", getQps());
+            report.put("latency", LatencyHistograms.summarize(latency));
+            report.put("passed", passed);
+            report.put("violations", violations);
+            return report;
+        }
+    }
+}
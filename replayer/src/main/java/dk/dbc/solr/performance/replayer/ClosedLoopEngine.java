@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replay engine with a fixed number of virtual users, each sending the next
+ * query as soon as the previous call completes (plus think time)
+ * <p>
+ * This finds the throughput a cluster can sustain, the recorded timing is
+ * ignored. Lines are handed to the users one at a time, so
+ * {@link #submit(LogLine, long)} blocks until a user is ready.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ClosedLoopEngine implements ReplayEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(ClosedLoopEngine.class);
+
+    private static final LogLine DONE = LogLine.of("# done");
+
+    private final LogCollector logCollector;
+    private final CallTimeWathcer watcher;
+    private final JobListener jobListener;
+    private final SolrNodes nodes;
+    private final ConnectionPool connectionPool;
+    private final SolrSender sender;
+    private final long thinkTime;
+    private final SynchronousQueue<LogLine> handoff;
+    private final Thread[] users;
+    private final AtomicLongArray calls;
+    private final AtomicInteger active;
+    private final AtomicLong started;
+    private final AtomicLong finished;
+
+    public ClosedLoopEngine(Config config, LogCollector logCollector, CallTimeWathcer watcher, JobListener jobListener) {
+        this.logCollector = logCollector;
+        this.watcher = watcher;
+        this.jobListener = jobListener;
+        this.nodes = SolrNodes.of(config);
+        // Every user can have a call in flight to the same node
+        this.connectionPool = new ConnectionPool(Math.max(config.getMaxConnections(), config.getUsers()),
+                                                 nodes.size(),
+                                                 (int) config.getConnectTimeout(),
+                                                 (int) config.getReadTimeout(),
+                                                 config.isTcpNoDelay());
+        this.sender = new SolrSender(nodes, logCollector, connectionPool);
+        this.thinkTime = config.getThinkTime();
+        this.handoff = new SynchronousQueue<>();
+        this.users = new Thread[config.getUsers()];
+        this.calls = new AtomicLongArray(users.length);
+        this.active = new AtomicInteger();
+        this.started = new AtomicLong();
+        this.finished = new AtomicLong();
+        for (int i = 0 ; i < users.length ; i++) {
+            int user = i;
+            users[i] = new Thread(() -> user(user), "user-" + ( i + 1 ));
+            users[i].start();
+        }
+    }
+
+    @Override
+    public void submit(LogLine logLine, long intendedDispatch) {
+        started.compareAndSet(0, System.nanoTime());
+        try {
+            handoff.put(logLine);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        connectionPool.sample();
+    }
+
+    private void user(int user) {
+        try {
+            for (;;) {
+                LogLine logLine = handoff.take();
+                if (logLine == DONE)
+                    return;
+                active.incrementAndGet();
+                // There is no schedule, the call is intended to be sent now
+                long duration = sender.send(logLine, System.nanoTime());
+                calls.incrementAndGet(user);
+                finished.set(System.nanoTime());
+                active.decrementAndGet();
+                try {
+                    if (!logLine.isWarmup())
+                        watcher.addCallTime(duration); // Can throw CallTimeExceededException
+                } catch (CallTimeExceededException ex) {
+                    jobListener.callTimeExceeded();
+                }
+                if (thinkTime > 0)
+                    Thread.sleep(thinkTime);
+            }
+        } catch (InterruptedException ex) {
+            log.debug("User {} interrupted", user + 1);
+        }
+    }
+
+    @Override
+    public void awaitCompletion(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            for (Thread user : users) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !handoff.offer(DONE, remaining, TimeUnit.NANOSECONDS))
+                    break;
+            }
+            for (Thread user : users) {
+                user.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                if (user.isAlive()) {
+                    log.warn("Calls still in flight after {}ms, aborting them", timeout);
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Thread user : users) {
+            user.interrupt();
+        }
+        logCollector.addClosedLoop(getLoopStats());
+    }
+
+    /**
+     * Throughput and fairness between the users
+     * <p>
+     * Fairness is Jain's index of the number of calls per user: 1 when all
+     * users made the same number of calls, 1/users when one user made them
+     * all
+     *
+     * @return map of name to value
+     */
+    Map<String, Object> getLoopStats() {
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        double squares = 0;
+        for (int i = 0 ; i < calls.length() ; i++) {
+            long count = calls.get(i);
+            total += count;
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+            squares += (double) count * count;
+        }
+        long elapsed = started.get() == 0 ? 0 : finished.get() - started.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("users", users.length);
+        stats.put("thinkTime", thinkTime);
+        stats.put("calls", total);
+        stats.put("elapsed", TimeUnit.NANOSECONDS.toMillis(Math.max(0, elapsed)));
+        stats.put("throughput", elapsed > 0 ? total * 1e9 / elapsed : 0.0);
+        stats.put("minUserCalls", total == 0 ? 0 : min);
+        stats.put("maxUserCalls", max);
+        stats.put("meanUserCalls", (double) total / users.length);
+        stats.put("fairness", squares > 0 ? (double) total * total / ( users.length * squares ) : 1.0);
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getWorkerStats() {
+        long total = 0;
+        for (int i = 0 ; i < calls.length() ; i++) {
+            total += calls.get(i);
+        }
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("users", (long) users.length);
+        map.put("active", (long) active.get());
+        map.put("completed", total);
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getConnectionStats() {
+        return connectionPool.getStats();
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getNodeStats() {
+        return nodes.getStats();
+    }
+
+    @Override
+    public void close() {
+        for (Thread user : users) {
+            user.interrupt();
+        }
+        connectionPool.close();
+    }
+}
@@ -19,12 +19,18 @@
 package dk.dbc.solr.performance.replayer;
 
 import dk.dbc.Arguments;
+import dk.dbc.solr.performance.MetricsServer;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.*;
 
@@ -38,14 +44,53 @@ public final class Config {
 
     private final long durationConstraint;
     private final long replayTime;
+    private final long startOffset;
     private final long callTimeConstraint;
     private final long limit;
     private final String solr;
+    private final List<String> solrNodes;
+    private final SolrNodes.Balance balance;
+    private final int ejectAfter;
+    private final long ejectFor;
+    private final List<String> mirrorNodes;
+    private final String mirrorIdField;
+    private final double regressionRatio;
+    private final int queryClasses;
+    private final CacheMode cacheMode;
+    private final int repeatWindow;
+    private final String baseline;
+    private final int users;
+    private final long thinkTime;
     private final String input;
     private final String output;
-    private final int replay;
+    private final String compile;
+    private final int readAhead;
+    private final String replay;
+    private final RateProfile rateProfile;
+    private final CapacitySearch.Strategy capacitySearch;
+    private final Slo slo;
+    private final long stepTime;
+    private final long warmupLines;
+    private final long warmupTime;
+    private final long reportInterval;
+    private final InetSocketAddress metrics;
+    private final int workers;
+    private final long split;
+    private final Shard shard;
+    private final long startAt;
+    private final List<String> arguments;
     private final int callBufferSize;
     private final int maxDelayedCalls;
+    private final Scheduler.Mode schedule;
+    private final LogCollector.Mode recordMode;
+    private final int maxConnections;
+    private final long connectTimeout;
+    private final long readTimeout;
+    private final boolean tcpNoDelay;
+    private final int concurrency;
+    private final int queueSize;
+    private final WorkerPool.Overflow overflow;
+    private final ReplayEngine.Type engine;
 
     private static Options options() {
         Options options = new Options();
@@ -68,7 +113,15 @@ public final class Config {
                 .longOpt("replay-time")
                 .hasArg()
                 .argName("DURATION")
-                .desc("Replay this much of the original recording ie. 15s or 3h")
+                .desc("Replay this much of the original recording ie. 15s or 3h (default: all of it)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("start-offset")
+                .hasArg()
+                .argName("DURATION")
+                .desc("Start the replay this far into the original recording ie. 14h (default: 0)." +
+                      " An uncompressed text recording is sought to the offset using its seek index (RECORDING.idx), which is built on first use")
                 .build());
 
         options.addOption(Option.builder("l")
@@ -82,7 +135,99 @@ public final class Config {
                 .longOpt("solr")
                 .hasArg()
                 .argName("URL")
-                .desc("Connect url (host[:port])")
+                .desc("Connect url (host[:port]), or a comma separated list of them")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("solr-file")
+                .hasArg()
+                .argName("FILE")
+                .desc("File with connect urls, one per line (# starts a comment)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("balance")
+                .hasArg()
+                .argName("POLICY")
+                .desc("How calls are spread across solr nodes: round-robin, least-outstanding - fewest calls in flight, hash - consistent hash of the query (default: round-robin)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("eject-after")
+                .hasArg()
+                .argName("NUM")
+                .desc("Eject a solr node after this many consecutive failures (default: 5)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("eject-for")
+                .hasArg()
+                .argName("DURATION")
+                .desc("How long a solr node is ejected ie. 30s or 2m (default: 30s)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("mirror")
+                .hasArg()
+                .argName("URL")
+                .desc("Also send every query (as wt=json) to this candidate solr, or comma separated list of them, and compare the responses with the baseline (--solr). Calls are then made with non-blocking i/o")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("mirror-id-field")
+                .hasArg()
+                .argName("FIELD")
+                .desc("Unique key field used to compare documents, when mirroring (default: id)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("regression-ratio")
+                .hasArg()
+                .argName("RATIO")
+                .desc("A mirrored call, or a query class compared to --baseline, is a regression if candidate latency / baseline latency is above this (default: 1.5)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("query-classes")
+                .hasArg()
+                .argName("NUM")
+                .desc("Report latency of the NUM most frequent query classes (handler, parameter names, facet fields, sort and rows with values stripped), 0 disables (default: 20)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("baseline")
+                .hasArg()
+                .argName("FILE")
+                .desc("Output of a previous replay, the query classes whose latency has grown beyond --regression-ratio are reported as regressions")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("cache-mode")
+                .hasArg()
+                .argName("MODE")
+                .desc("How solr's caches are met: none (as recorded), bust[:RATIO] (RATIO - default 1 - of the queries bypass the caches)" +
+                      " or hot-set[:SIZE] (only the SIZE - default 100 - most frequent queries are replayed) (default: none)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("repeat-window")
+                .hasArg()
+                .argName("NUM")
+                .desc("A query is a repeat (warm), if it is among the last NUM distinct queries sent, else cold. Latency is reported for each, 0 disables (default: 10000)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("users")
+                .hasArg()
+                .argName("NUM")
+                .desc("Closed loop: NUM virtual users each send the next query as soon as their previous call completes, the recorded timing is ignored (default: 0 - replay the recorded timing)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("think-time")
+                .hasArg()
+                .argName("DURATION")
+                .desc("Closed loop: pause between a user's calls ie. 100ms or 1s (default: 0)")
                 .build());
 
         options.addOption(Option.builder("i")
@@ -99,11 +244,170 @@ public final class Config {
                 .desc("File to write log lines to (absent means no output)")
                 .build());
 
+        options.addOption(Option.builder()
+                .longOpt("compile")
+                .hasArg()
+                .argName("FILE")
+                .desc("Compile the input into a binary recording FILE and exit. A compiled recording is memory mapped, and replays without parsing, when given as input")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("read-ahead")
+                .hasArg()
+                .argName("NUM")
+                .desc("Read up to NUM lines of a text recording ahead of the replay, on a thread of its own, 0 to read as lines are replayed (default: 10000)")
+                .build());
+
         options.addOption(Option.builder("r")
                 .longOpt("replay")
                 .hasArg()
                 .argName("REPLAY")
-                .desc("Replayspeed (ex. 110 is 10% slower than original speed, 0 means no delay between calls")
+                .desc("Replayspeed (ex. 110 is 10% slower than original speed, 0 means no delay between calls) or a multiplier of the recorded rate ie. 3x")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("rate-profile")
+                .hasArg()
+                .argName("PROFILE")
+                .desc("Change the replay speed over the run, overrides -r: linear:FROM:TO:DURATION (ie. linear:1x:10x:10m), step:SPEED,SPEED,...:DURATION (ie. step:1x,2x,4x:5m) or spike:BASE:PEAK:AT:DURATION (ie. spike:1x:10x:5m:30s)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("capacity-search")
+                .hasArg()
+                .argName("STRATEGY")
+                .desc("Replay the recording at increasing speeds, until the --slo is violated, and report the load/latency curve: step:SPEED,SPEED,... (ie. step:1x,2x,4x,8x) or binary:LOW:HIGH[:ITERATIONS] (ie. binary:1x:32x:5)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("slo")
+                .hasArg()
+                .argName("SLO")
+                .desc("What a capacity search step has to meet: comma separated pNN:DURATION (corrected latency percentile) and errors:PERCENT (default: p99:1s,errors:1%)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("step-time")
+                .hasArg()
+                .argName("DURATION")
+                .desc("How long each capacity search step runs ie. 1m (default: the whole recording)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("warmup")
+                .hasArg()
+                .argName("WARMUP")
+                .desc("Calls in the first DURATION (ie. 2m) or number of lines (ie. 500) are sent, but recorded separately and not watched by the call time constraint (default: no warm-up)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("report-interval")
+                .hasArg()
+                .argName("DURATION")
+                .desc("Log the progress (rates, in flight, latency, errors and lag) every DURATION, and keep it in the output as \"intervals\", 0 to disable (default: 10s)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("metrics")
+                .hasArg()
+                .argName("[HOST:]PORT")
+                .desc("Serve metrics in Prometheus format on http://HOST:PORT/metrics (default host: localhost)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("workers")
+                .hasArg()
+                .argName("NUM")
+                .desc("Split the recording across NUM worker processes on this host, started at the same time, and merge their results into the output (default: 0 - replay in this process)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("split")
+                .hasArg()
+                .argName("SPLIT")
+                .desc("How the recording is split between workers: lines - by line number, or DURATION - in time slices of the recording ie. 1s (default: lines)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("shard")
+                .hasArg()
+                .argName("INDEX/COUNT")
+                .desc("Worker: only replay this part of the recording (set by --workers)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("start-at")
+                .hasArg()
+                .argName("EPOCH-MS")
+                .desc("Worker: wait until this wall clock time before starting the replay (set by --workers)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("schedule")
+                .hasArg()
+                .argName("MODE")
+                .desc("How calls are timed: absolute - each call is sent at start + scaled time delta, delay - sleep the scaled gap after each call (default: absolute)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("record-mode")
+                .hasArg()
+                .argName("MODE")
+                .desc("What to keep of each call: lines - every call is logged, histogram - only latency histograms are kept, stream - every call is written to the output as JSON Lines, and the summary to OUTPUT.summary.json (default: lines)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("max-connections")
+                .hasArg()
+                .argName("NUM")
+                .desc("Max number of (keep-alive) connections per host (default: 100)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("connect-timeout")
+                .hasArg()
+                .argName("DURATION")
+                .desc("Timeout establishing a connection ie. 500ms or 5s (default: 10s)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("read-timeout")
+                .hasArg()
+                .argName("DURATION")
+                .desc("Timeout waiting for data from solr ie. 30s or 2m (default: 1m)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("no-tcp-nodelay")
+                .desc("Don't set TCP_NODELAY on connections (enable Nagle's algorithm)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("concurrency")
+                .hasArg()
+                .argName("NUM")
+                .desc("Number of calls to solr in flight at once (default: 100)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("queue-size")
+                .hasArg()
+                .argName("NUM")
+                .desc("Number of calls that can wait for a free worker (default: 1000)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("overflow")
+                .hasArg()
+                .argName("POLICY")
+                .desc("When the queue is full: block - wait for room, drop - skip the new call, shed - skip the oldest queued call (default: block)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("engine")
+                .hasArg()
+                .argName("ENGINE")
+                .desc("How calls are made: blocking - a thread per call in flight, async - non-blocking i/o (default: blocking)")
                 .build());
         return options;
     }
@@ -119,10 +423,20 @@ public final class Config {
      * @return configuration
      */
     public static Config of(String... args) {
-        return Arguments.parse(options(), FOOTER, Config::new, args);
+        return Arguments.parse(options(), FOOTER, (a, p) -> new Config(a, p, args), args);
     }
 
-    private Config(Arguments args, Iterator<String> positionalArguments) throws ParseException {
+    /**
+     * The options a configuration is parsed from
+     *
+     * @return options (without help/verbose/version)
+     */
+    static Options optionDefinitions() {
+        return options();
+    }
+
+    private Config(Arguments args, Iterator<String> positionalArguments, String... arguments) throws ParseException {
+        this.arguments = Collections.unmodifiableList(Arrays.asList(arguments.clone()));
         if (positionalArguments.hasNext())
             throw new ParseException("Unexpected positional argument(s) at: " + positionalArguments.next());
 
@@ -130,9 +444,10 @@ public final class Config {
             return parseTimeSpec(t);
         });
 
-        this.replayTime = args.take("t", "1h", t -> {
-            return parseTimeSpec(t);
-        });
+        this.replayTime = args.isSet("t") ?
+                          args.take("t", null, this::parseTimeSpec) :
+                          Long.MAX_VALUE;
+        this.startOffset = args.take("start-offset", "0", t -> "0".equals(t) ? 0L : parseTimeSpec(t));
 
         String callTimeOption = args.take("c", "5s/10/100", t -> t);
         String[] parts = callTimeOption.split("(/)", 3);
@@ -151,8 +466,59 @@ public final class Config {
         this.input = args.take("i", null, t -> t);
         this.output= args.take("o", null, t -> t);
 
-        if(this.solr == null)
+        this.compile = args.take("compile", null, t -> t);
+        this.readAhead = args.take("read-ahead", "10000", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 0)
+                throw new RuntimeException("Read ahead cannot be negative");
+            return value;
+        });
+
+        String solrFile = args.take("solr-file", null, t -> t);
+        if(this.solr == null && solrFile == null && this.compile == null)
             throw new ParseException("Solr-URL is mandatory");
+        List<String> nodes = new ArrayList<>();
+        if(this.solr != null)
+            nodes.addAll(SolrNodes.parseUrls(this.solr));
+        if(solrFile != null)
+            nodes.addAll(readSolrFile(solrFile));
+        if(nodes.isEmpty() && this.compile == null)
+            throw new ParseException("Solr-URL is mandatory");
+        this.solrNodes = Collections.unmodifiableList(nodes);
+        this.balance = args.take("balance", "round-robin", SolrNodes.Balance::of);
+        this.ejectAfter = args.take("eject-after", "5", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 1)
+                throw new RuntimeException("Eject after needs to be at least 1");
+            return value;
+        });
+        this.ejectFor = args.take("eject-for", "30s", this::parseTimeSpec);
+        this.mirrorNodes = Collections.unmodifiableList(args.take("mirror", "", SolrNodes::parseUrls));
+        this.mirrorIdField = args.take("mirror-id-field", "id", t -> t);
+        this.regressionRatio = args.take("regression-ratio", "1.5", t -> {
+            double value = Double.parseDouble(t);
+            if (value <= 0)
+                throw new RuntimeException("Regression ratio needs to be positive");
+            return value;
+        });
+        this.queryClasses = args.take("query-classes", "20", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 0)
+                throw new RuntimeException("Number of query classes cannot be negative");
+            return value;
+        });
+        this.baseline = args.take("baseline", null, t -> t);
+        if (this.baseline != null && this.queryClasses == 0)
+            throw new ParseException("--baseline needs --query-classes");
+        this.users = args.take("users", "0", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 0)
+                throw new RuntimeException("Number of users cannot be negative");
+            return value;
+        });
+        this.thinkTime = args.take("think-time", "0", t -> "0".equals(t) ? 0L : parseTimeSpec(t));
+        if (this.users > 0 && !this.mirrorNodes.isEmpty())
+            throw new ParseException("Closed loop (--users) cannot be combined with --mirror");
 
         this.limit = args.take("l", String.valueOf(Long.MAX_VALUE), t -> {
                            long value = Long.parseLong(t);
@@ -161,19 +527,123 @@ public final class Config {
                            return value;
                        });
 
-        this.replay = args.take( "r", "100", t -> {
+        this.replay = args.take("r", "100", t -> t);
+        RateProfile constant = args.take("r", "100", t -> RateProfile.constant(RateProfile.parseSpeed(t)));
+        this.rateProfile = args.isSet("rate-profile") ?
+                           args.take("rate-profile", null, t -> RateProfile.of(t, this::parseTimeSpec)) :
+                           constant;
+        this.capacitySearch = args.take("capacity-search", null, CapacitySearch.Strategy::of);
+        this.slo = args.take("slo", "p99:1s,errors:1%", t -> Slo.of(t, this::parseTimeSpec));
+        this.stepTime = args.isSet("step-time") ?
+                        args.take("step-time", null, this::parseTimeSpec) :
+                        Long.MAX_VALUE;
+        // A plain number is a line count, otherwise a duration
+        this.warmupLines = args.take("warmup", "0", t -> t.matches("\\d+") ? Long.parseLong(t) : 0L);
+        this.warmupTime = args.take("warmup", "0", t -> t.matches("\\d+") ? 0L : parseTimeSpec(t));
+        this.reportInterval = args.take("report-interval", "10s", t -> "0".equals(t) ? 0L : parseTimeSpec(t));
+        this.metrics = args.take("metrics", null, MetricsServer::parseAddress);
+        if (this.capacitySearch != null && this.users > 0)
+            throw new ParseException("Capacity search (--capacity-search) cannot be combined with --users");
+        this.workers = args.take("workers", "0", t -> {
             int value = Integer.parseInt(t);
-            if( value < 0 || value > 200)
-                throw new RuntimeException("Replay speed needs to be between 0 and 200 (0 means no delay)");
+            if (value < 0)
+                throw new RuntimeException("Number of workers cannot be negative");
             return value;
         });
+        this.split = args.take("split", "lines", t -> "lines".equals(t) ? 0L : parseTimeSpec(t));
+        this.shard = args.take("shard", null, t -> Shard.of(t, split));
+        this.startAt = args.take("start-at", "0", Long::parseLong);
+
+        this.schedule = args.take("schedule", "absolute", Scheduler.Mode::of);
+        this.recordMode = args.take("record-mode", "lines", LogCollector.Mode::of);
+
+        this.maxConnections = args.take("max-connections", "100", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 1)
+                throw new RuntimeException("Number of connections needs to be at least 1");
+            return value;
+        });
+        this.connectTimeout = args.take("connect-timeout", "10s", this::parseTimeout);
+        this.readTimeout = args.take("read-timeout", "1m", this::parseTimeout);
+        this.tcpNoDelay = !args.isSet("no-tcp-nodelay");
+
+        this.concurrency = args.take("concurrency", "100", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 1)
+                throw new RuntimeException("Concurrency needs to be at least 1");
+            return value;
+        });
+        this.queueSize = args.take("queue-size", "1000", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 1)
+                throw new RuntimeException("Queue size needs to be at least 1");
+            return value;
+        });
+        this.overflow = args.take("overflow", "block", WorkerPool.Overflow::of);
+        this.engine = args.take("engine", "blocking", ReplayEngine.Type::of);
+
+        this.cacheMode = args.take("cache-mode", "none", CacheMode::of);
+        this.repeatWindow = args.take("repeat-window", "10000", t -> {
+            int value = Integer.parseInt(t);
+            if (value < 0)
+                throw new RuntimeException("Repeat window cannot be negative");
+            return value;
+        });
+        if (this.cacheMode.getKind() == CacheMode.Kind.HOT_SET && this.input == null)
+            throw new ParseException("Cache mode hot-set needs an input file");
+
+        if (this.workers > 0) {
+            if (this.input == null)
+                throw new ParseException("Workers (--workers) needs an input file");
+            if (this.shard != null)
+                throw new ParseException("Workers (--workers) cannot be combined with --shard");
+            if (this.users > 0 || this.capacitySearch != null)
+                throw new ParseException("Workers (--workers) cannot be combined with --users or --capacity-search");
+            if (this.metrics != null)
+                throw new ParseException("Workers (--workers) cannot be combined with --metrics");
+            if (this.recordMode == LogCollector.Mode.STREAM)
+                throw new ParseException("Workers (--workers) cannot be combined with record mode stream");
+        }
 
         log.debug(this.toString());
     }
 
+    /**
+     * Read solr urls from a file
+     *
+     * @param file name of file with an url per line
+     * @return list of urls
+     * @throws ParseException if the file cannot be read
+     */
+    private static List<String> readSolrFile(String file) throws ParseException {
+        try {
+            List<String> urls = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+                int comment = line.indexOf('#');
+                if (comment >= 0)
+                    line = line.substring(0, comment);
+                urls.addAll(SolrNodes.parseUrls(line));
+            }
+            return urls;
+        } catch (IOException ex) {
+            throw new ParseException("Cannot read solr file " + file + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @param t Timespec (see {@link #parseTimeSpec(java.lang.String)})
+     * @return milliseconds, that fits in an int
+     */
+    private Long parseTimeout(String t) {
+        long value = parseTimeSpec(t);
+        if (value > Integer.MAX_VALUE)
+            throw new RuntimeException("Timeout is too large");
+        return value;
+    }
+
     /**
      * @param t Timespec. Can be any positive number followed by either
-     *          s, m, h or d for resp. Seconds, Minutes, Hours or days
+     *          ms, s, m, h or d for resp. Milliseconds, Seconds, Minutes, Hours or days
      * @return
      */
     private Long parseTimeSpec(String t) {
@@ -184,6 +654,8 @@ public final class Config {
         if (number < 1)
             throw new RuntimeException();
         switch (parts[1].toLowerCase(Locale.ROOT)) {
+            case "ms":
+                return number;
             case "s":
                 return Duration.ofSeconds(number).toMillis();
             case "m":
@@ -207,12 +679,55 @@ public final class Config {
             {
                 put( "durationConstraint", String.valueOf(durationConstraint));
                 put( "replayTime", String.valueOf(replayTime));
+                put( "startOffset", String.valueOf(startOffset));
                 put( "callConstraint", String.valueOf(callTimeConstraint) + "/" + maxDelayedCalls + "/" + callBufferSize);
                 put( "limit", String.valueOf(limit));
-                put( "solr", solr);
+                put( "solr", String.join(",", solrNodes));
+                put( "balance", String.valueOf(balance).toLowerCase(Locale.ROOT).replace('_', '-'));
+                put( "ejectAfter", String.valueOf(ejectAfter));
+                put( "ejectFor", String.valueOf(ejectFor));
+                put( "mirror", String.join(",", mirrorNodes));
+                put( "mirrorIdField", mirrorIdField);
+                put( "regressionRatio", String.valueOf(regressionRatio));
+                put( "queryClasses", String.valueOf(queryClasses));
+                put( "cacheMode", cacheMode.toString());
+                put( "repeatWindow", String.valueOf(repeatWindow));
+                if (baseline != null)
+                    put( "baseline", baseline);
+                put( "users", String.valueOf(users));
+                put( "thinkTime", String.valueOf(thinkTime));
                 put( "input", input);
                 put( "output", output);
-                put( "replay", String.valueOf(replay));
+                if (compile != null)
+                    put( "compile", compile);
+                put( "readAhead", String.valueOf(readAhead));
+                put( "replay", replay);
+                put( "rateProfile", rateProfile.toString());
+                put( "warmupLines", String.valueOf(warmupLines));
+                put( "warmupTime", String.valueOf(warmupTime));
+                put( "reportInterval", String.valueOf(reportInterval));
+                put( "metrics", String.valueOf(metrics));
+                if (workers > 0) {
+                    put( "workers", String.valueOf(workers));
+                    put( "split", split > 0 ? String.valueOf(split) : "lines");
+                }
+                if (shard != null)
+                    put( "shard", shard.toString());
+                if (capacitySearch != null) {
+                    put( "capacitySearch", capacitySearch.toString());
+                    put( "slo", slo.toString());
+                    put( "stepTime", String.valueOf(stepTime));
+                }
+                put( "schedule", String.valueOf(schedule).toLowerCase(Locale.ROOT));
+                put( "recordMode", String.valueOf(recordMode).toLowerCase(Locale.ROOT));
+                put( "maxConnections", String.valueOf(maxConnections));
+                put( "connectTimeout", String.valueOf(connectTimeout));
+                put( "readTimeout", String.valueOf(readTimeout));
+                put( "tcpNoDelay", String.valueOf(tcpNoDelay));
+                put( "concurrency", String.valueOf(concurrency));
+                put( "queueSize", String.valueOf(queueSize));
+                put( "overflow", String.valueOf(overflow).toLowerCase(Locale.ROOT));
+                put( "engine", String.valueOf(engine).toLowerCase(Locale.ROOT));
             }
         });
     }
@@ -225,6 +740,19 @@ public final class Config {
         return replayTime;
     }
 
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * Where the replayed window of the recording ends
+     *
+     * @return time delta (ms, excluded)
+     */
+    public long getWindowEnd() {
+        return startOffset + Math.min(replayTime, Long.MAX_VALUE - startOffset);
+    }
+
     public long getCallTimeConstraint() {
         return callTimeConstraint;
     }
@@ -233,12 +761,178 @@ public final class Config {
         return limit;
     }
 
-    public int getReplay() {
-        return replay;
+    /**
+     * Number of lines in the warm-up
+     *
+     * @return lines, 0 if the warm-up isn't a line count
+     */
+    public long getWarmupLines() {
+        return warmupLines;
+    }
+
+    /**
+     * Duration of the warm-up
+     *
+     * @return milliseconds, 0 if the warm-up isn't a duration
+     */
+    public long getWarmupTime() {
+        return warmupTime;
+    }
+
+    /**
+     * Time between progress reports
+     *
+     * @return milliseconds, 0 for no reports
+     */
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * Where to serve metrics
+     *
+     * @return address or null for no metrics endpoint
+     */
+    public InetSocketAddress getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Number of worker processes the replay is split across
+     *
+     * @return workers, 0 if the replay runs in this process
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * The part of the recording this process replays
+     *
+     * @return shard or null if this isn't a worker
+     */
+    public Shard getShard() {
+        return shard;
+    }
+
+    /**
+     * When a worker starts replaying
+     *
+     * @return epoch ms, 0 for immediately
+     */
+    public long getStartAt() {
+        return startAt;
+    }
+
+    /**
+     * The command line the configuration was parsed from
+     *
+     * @return arguments
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * How the capacity search chooses speeds
+     *
+     * @return strategy or null if no capacity search is requested
+     */
+    public CapacitySearch.Strategy getCapacitySearch() {
+        return capacitySearch;
+    }
+
+    public Slo getSlo() {
+        return slo;
+    }
+
+    /**
+     * How long each capacity search step runs
+     *
+     * @return milliseconds, {@link Long#MAX_VALUE} for the whole recording
+     */
+    public long getStepTime() {
+        return stepTime;
+    }
+
+    /**
+     * The replay speed over the run, from -r or --rate-profile
+     *
+     * @return profile
+     */
+    public RateProfile getRateProfile() {
+        return rateProfile;
     }
 
+    /**
+     * The first solr node
+     *
+     * @return base url
+     */
     public String getSolr() {
-        return solr;
+        return solrNodes.get(0);
+    }
+
+    public List<String> getSolrNodes() {
+        return solrNodes;
+    }
+
+    public SolrNodes.Balance getBalance() {
+        return balance;
+    }
+
+    public int getEjectAfter() {
+        return ejectAfter;
+    }
+
+    public long getEjectFor() {
+        return ejectFor;
+    }
+
+    /**
+     * Candidate solr nodes
+     *
+     * @return base urls, empty if not mirroring
+     */
+    public List<String> getMirrorNodes() {
+        return mirrorNodes;
+    }
+
+    public String getMirrorIdField() {
+        return mirrorIdField;
+    }
+
+    public double getRegressionRatio() {
+        return regressionRatio;
+    }
+
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    public int getRepeatWindow() {
+        return repeatWindow;
+    }
+
+    public int getQueryClasses() {
+        return queryClasses;
+    }
+
+    public String getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Number of virtual users in closed loop mode
+     *
+     * @return users, 0 if the recorded timing is replayed
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    public long getThinkTime() {
+        return thinkTime;
     }
 
     public String getInput() {
@@ -249,7 +943,65 @@ public final class Config {
         return output;
     }
 
+    /**
+     * Where to write the compiled recording
+     *
+     * @return file name or null if the input should be replayed
+     */
+    public String getCompile() {
+        return compile;
+    }
+
+    /**
+     * Number of lines read ahead of the replay
+     *
+     * @return lines, 0 to read as lines are replayed
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
     public int getCallBufferSize() { return callBufferSize; }
 
     public int getMaxDelayedCalls() { return maxDelayedCalls; }
+
+    public Scheduler.Mode getSchedule() {
+        return schedule;
+    }
+
+    public LogCollector.Mode getRecordMode() {
+        return recordMode;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public WorkerPool.Overflow getOverflow() {
+        return overflow;
+    }
+
+    public ReplayEngine.Type getEngine() {
+        return engine;
+    }
 }
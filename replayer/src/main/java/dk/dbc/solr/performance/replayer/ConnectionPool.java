@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A keep-alive connection pool shared by all calls to solr
+ * <p>
+ * Retries, compression and cookies are disabled, so what is measured is the
+ * individual call
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final PoolingHttpClientConnectionManager manager;
+    private final CloseableHttpClient client;
+    private final PoolStatistics statistics;
+
+    /**
+     * Construct a connection pool for a single host
+     *
+     * @param maxConnections max number of connections per host
+     * @param connectTimeout timeout establishing connection (ms)
+     * @param readTimeout    max time between packages (ms)
+     * @param tcpNoDelay     should Nagle's algorithm be disabled
+     */
+    public ConnectionPool(int maxConnections, int connectTimeout, int readTimeout, boolean tcpNoDelay) {
+        this(maxConnections, 1, connectTimeout, readTimeout, tcpNoDelay);
+    }
+
+    /**
+     * Construct a connection pool
+     *
+     * @param maxConnections max number of connections per host
+     * @param hosts          number of hosts
+     * @param connectTimeout timeout establishing connection (ms)
+     * @param readTimeout    max time between packages (ms)
+     * @param tcpNoDelay     should Nagle's algorithm be disabled
+     */
+    public ConnectionPool(int maxConnections, int hosts, int connectTimeout, int readTimeout, boolean tcpNoDelay) {
+        this.manager = new PoolingHttpClientConnectionManager();
+        this.manager.setMaxTotal(maxConnections * hosts);
+        this.manager.setDefaultMaxPerRoute(maxConnections);
+        this.manager.setDefaultSocketConfig(SocketConfig.custom()
+                .setTcpNoDelay(tcpNoDelay)
+                .setSoTimeout(readTimeout)
+                .build());
+        this.client = HttpClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(readTimeout)
+                        .build())
+                .setRequestExecutor(new TimingRequestExecutor())
+                .disableAutomaticRetries()
+                .disableContentCompression()
+                .disableCookieManagement()
+                .build();
+        this.statistics = new PoolStatistics(manager);
+    }
+
+    /**
+     * Construct a connection pool from the command line parameters
+     *
+     * @param config configuration
+     * @return connection pool
+     */
+    public static ConnectionPool of(Config config) {
+        return new ConnectionPool(config.getMaxConnections(),
+                                  config.getSolrNodes().size(),
+                                  (int) config.getConnectTimeout(),
+                                  (int) config.getReadTimeout(),
+                                  config.isTcpNoDelay());
+    }
+
+    public CloseableHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Take note of the current number of leased and pending connections
+     */
+    public void sample() {
+        statistics.sample();
+    }
+
+    /**
+     * Current pool statistics, and the peaks seen by {@link #sample()}
+     *
+     * @return map of name to value
+     */
+    public Map<String, Integer> getStats() {
+        return statistics.getStats();
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException ex) {
+            log.error("Error closing connection pool: {}", ex.getMessage());
+            log.debug("Error closing connection pool: ", ex);
+        }
+    }
+}
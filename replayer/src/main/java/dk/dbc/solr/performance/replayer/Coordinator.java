@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.Main;
+import dk.dbc.solr.performance.Compression;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Split a replay across worker processes on this host, and merge their
+ * results
+ * <p>
+ * Every worker is started with the same arguments, a {@link Shard} of the
+ * recording and a common wall clock start time. When they are done their
+ * counters are summed, and their (encoded) histograms are merged, so the
+ * output has the same form as a replay in a single process, with the
+ * per-worker details in "workers".
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Coordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(Coordinator.class);
+
+    // Time for the worker JVMs to start, before the common start time
+    private static final long STARTUP = 5000L;
+
+    // Options that are set per worker
+    private static final List<String> WORKER_OPTIONS = Arrays.asList("workers", "output", "shard", "start-at");
+
+    private static final List<String> HISTOGRAM_SECTIONS = Arrays.asList("latency", "correctedLatency", "phases");
+
+    private final Config config;
+
+    public Coordinator(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Run the workers, and write the merged output
+     *
+     * @return the worst status code of the workers
+     */
+    public int run() {
+        int count = config.getWorkers();
+        Path directory;
+        try {
+            directory = Files.createTempDirectory("replayer-workers");
+        } catch (IOException ex) {
+            log.error("Cannot create directory for worker output: {}", ex.getMessage());
+            return ioError();
+        }
+        if (config.getStartOffset() > 0) {
+            // Opening at the offset builds the seek index once, rather than
+            // in every worker
+            try {
+                RecordingReader.open(config.getInput(), 0, config.getStartOffset()).close();
+            } catch (IOException ex) {
+                log.error("Cannot open {}: {}", config.getInput(), ex.getMessage());
+                return ioError();
+            }
+        }
+        QueryClasses queryClasses;
+        try {
+            queryClasses = QueryClasses.of(config, true);
+        } catch (IOException ex) {
+            log.error("Cannot read baseline {}: {}", config.getBaseline(), ex.getMessage());
+            return ioError();
+        }
+        long startAt = System.currentTimeMillis() + STARTUP;
+        List<String> arguments = workerArguments(Config.optionDefinitions(), config.getArguments(), WORKER_OPTIONS);
+        List<Worker> workers = new ArrayList<>();
+        try {
+            for (int i = 0 ; i < count ; i++) {
+                Path output = directory.resolve("worker-" + i + ".json");
+                List<String> command = new ArrayList<>(javaCommand());
+                command.addAll(arguments);
+                command.addAll(Arrays.asList("--shard", i + "/" + count,
+                                             "--start-at", String.valueOf(startAt),
+                                             "-o", output.toString()));
+                log.debug("Starting worker {}: {}", i, command);
+                Process process = new ProcessBuilder(command)
+                        .inheritIO()
+                        .start();
+                workers.add(new Worker(i, process, output));
+            }
+            log.info("Started {} workers", count);
+            for (Worker worker : workers) {
+                worker.await();
+            }
+        } catch (IOException ex) {
+            log.error("Cannot start worker: {}", ex.getMessage());
+            workers.forEach(Worker::destroy);
+            return ioError();
+        } catch (InterruptedException ex) {
+            workers.forEach(Worker::destroy);
+            throw new RuntimeException("Interrupted!!!");
+        } finally {
+            workers.forEach(Worker::delete);
+            directory.toFile().delete();
+        }
+
+        Map<String, Object> merged = merge(config.asMap(), config.getRecordMode(), queryClasses, workers);
+        Map<?, ?> status = (Map<?, ?>) merged.get("status");
+        int code = ( (Number) status.get("code") ).intValue();
+        if (code != 0)
+            log.error("Workers: {}", status.get("message"));
+        try {
+            writeOutput(merged);
+        } catch (IOException ex) {
+            log.error("Error writing to {}: {}", config.getOutput(), ex.getMessage());
+            return Math.max(code, ioError());
+        }
+        return code;
+    }
+
+    private void writeOutput(Map<String, Object> merged) throws IOException {
+        if (config.getOutput() == null)
+            return;
+        try (OutputStream os = Compression.create(config.getOutput(), false)) {
+            new ObjectMapper().writeValue(os, merged);
+        }
+    }
+
+    private static int ioError() {
+        return Replayer.Status.Code.IOERROR.ordinal();
+    }
+
+    /**
+     * Start a JVM like this one
+     *
+     * @return java, jvm options, classpath and main class
+     */
+    private static List<String> javaCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // Memory settings, not debug agents that would fight for ports
+            if (argument.startsWith("-Xm") || argument.startsWith("-XX:"))
+                command.add(argument);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        return command;
+    }
+
+    /**
+     * The command line without the options that are set per worker
+     *
+     * @param options   the options the command line is parsed with
+     * @param arguments command line
+     * @param removed   long names of the options to remove
+     * @return arguments for a worker
+     */
+    static List<String> workerArguments(Options options, List<String> arguments, Collection<String> removed) {
+        List<String> kept = new ArrayList<>();
+        for (int i = 0 ; i < arguments.size() ; i++) {
+            String argument = arguments.get(i);
+            Option option = optionOf(options, argument);
+            if (option == null) {
+                kept.add(argument);
+                continue;
+            }
+            boolean remove = removed.contains(option.getLongOpt());
+            if (!remove)
+                kept.add(argument);
+            // -oFILE and --output=FILE carry their value
+            boolean attached = argument.startsWith("--") ? argument.contains("=") : argument.length() > 2;
+            if (option.hasArg() && !attached && i + 1 < arguments.size()) {
+                i++;
+                if (!remove)
+                    kept.add(arguments.get(i));
+            }
+        }
+        return kept;
+    }
+
+    private static Option optionOf(Options options, String argument) {
+        String name;
+        if (argument.startsWith("--")) {
+            int equals = argument.indexOf('=');
+            name = argument.substring(2, equals < 0 ? argument.length() : equals);
+        } else if (argument.startsWith("-") && argument.length() > 1) {
+            name = argument.substring(1, 2);
+        } else {
+            return null;
+        }
+        return options.hasOption(name) ? options.getOption(name) : null;
+    }
+
+    /**
+     * Merge the output of the workers into the output of a single replay
+     *
+     * @param configuration the configuration of the coordinator
+     * @param mode          record mode (loglines are only merged in
+     *                      {@link LogCollector.Mode#LINES})
+     * @param workers       the completed workers
+     * @return output as written by {@link LogCollector#dump(OutputStream)}
+     */
+    static Map<String, Object> merge(Map<?, ?> configuration, LogCollector.Mode mode, List<Worker> workers) {
+        return merge(configuration, mode, null, workers);
+    }
+
+    /**
+     * Merge the output of the workers, query classes included
+     *
+     * @param configuration the configuration of the coordinator
+     * @param mode          record mode
+     * @param queryClasses  how query classes are reported (or null if they
+     *                      aren't)
+     * @param workers       the completed workers
+     * @return output in the same form as a single replay
+     */
+    static Map<String, Object> merge(Map<?, ?> configuration, LogCollector.Mode mode, QueryClasses queryClasses, List<Worker> workers) {
+        List<Map<String, Object>> outputs = new ArrayList<>();
+        List<Map<String, Object>> details = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        int code = 0;
+        for (Worker worker : workers) {
+            Map<String, Object> detail = new LinkedHashMap<>();
+            detail.put("shard", worker.index + "/" + workers.size());
+            detail.put("exitCode", worker.exitCode);
+            Map<String, Object> output = worker.output;
+            if (output == null) {
+                code = Math.max(code, Math.max(worker.exitCode, ioError()));
+                messages.add("worker " + worker.index + ": no output (exit code " + worker.exitCode + ")");
+            } else {
+                outputs.add(output);
+                Map<?, ?> status = (Map<?, ?>) output.get("status");
+                code = Math.max(code, ( (Number) status.get("code") ).intValue());
+                Object message = status.get("message");
+                if (message != null && !message.toString().isEmpty())
+                    messages.add("worker " + worker.index + ": " + message);
+                for (String key : Arrays.asList("status", "rates", "intervals", "closedLoop", "mirror", "results")) {
+                    if (output.containsKey(key))
+                        detail.put(key, output.get(key));
+                }
+            }
+            details.add(detail);
+        }
+
+        Map<String, Object> merged = new HashMap<>();
+        merged.put("configuration", configuration);
+        if (mode == LogCollector.Mode.LINES)
+            merged.put("loglines", mergeLoglines(outputs));
+        merged.put("statistics", sum(outputs, "statistics"));
+        merged.put("connectionPool", sum(outputs, "connectionPool"));
+        merged.put("workerPool", sum(outputs, "workerPool"));
+        for (String section : HISTOGRAM_SECTIONS) {
+            merged.put(section, summarize(histograms(outputs, section)));
+        }
+        merged.put("nodes", mergeNodes(outputs));
+        if (queryClasses != null)
+            merged.put("queryClasses", queryClasses.report(histograms(outputs, "queryClasses")));
+        if (outputs.stream().anyMatch(output -> output.containsKey("cache")))
+            merged.put("cache", mergeCache(configuration, outputs));
+        // Every worker reads all of the recording
+        outputs.stream()
+                .map(output -> output.get("input"))
+                .filter(input -> input != null)
+                .findFirst()
+                .ifPresent(input -> merged.put("input", input));
+        outputs.stream()
+                .map(output -> (Map<?, ?>) output.get("warmup"))
+                .filter(warmup -> warmup != null)
+                .findFirst()
+                .ifPresent(warmup -> {
+                    Map<String, Object> summary = new LinkedHashMap<>();
+                    summary.put("warmup", warmup.get("warmup"));
+                    summary.put("latency", summarize(histograms(outputs, "warmupLatency")));
+                    summary.put("correctedLatency", summarize(histograms(outputs, "warmupCorrectedLatency")));
+                    merged.put("warmup", summary);
+                });
+        merged.put("workers", details);
+        Map<String, Object> status = new HashMap<>();
+        status.put("code", code);
+        status.put("message", String.join(", ", messages));
+        merged.put("status", status);
+        return merged;
+    }
+
+    /**
+     * Log lines of all workers in order of time
+     */
+    private static List<Object> mergeLoglines(List<Map<String, Object>> outputs) {
+        List<Object> loglines = new ArrayList<>();
+        for (Map<String, Object> output : outputs) {
+            List<?> lines = (List<?>) output.get("loglines");
+            if (lines != null)
+                loglines.addAll(lines);
+        }
+        loglines.sort(Comparator.comparingLong(line -> ( (Number) ( (Map<?, ?>) line ).get("timestamp") ).longValue()));
+        return loglines;
+    }
+
+    /**
+     * Node statistics summed, and latency from the merged histograms
+     */
+    private static Map<String, Map<String, Object>> mergeNodes(List<Map<String, Object>> outputs) {
+        Map<String, Map<String, Object>> nodes = new TreeMap<>();
+        for (Map<String, Object> output : outputs) {
+            Map<?, ?> stats = (Map<?, ?>) output.get("nodes");
+            if (stats == null)
+                continue;
+            stats.forEach((node, values) -> {
+                Map<String, Object> target = nodes.computeIfAbsent(node.toString(), n -> new LinkedHashMap<>());
+                ( (Map<?, ?>) values ).forEach((key, value) -> {
+                    if (value instanceof Number)
+                        target.merge(key.toString(), value, Coordinator::add);
+                });
+            });
+        }
+        nodes.forEach((node, target) -> {
+            Map<String, Histogram> latency = histograms(outputs, "node:" + node);
+            if (!latency.isEmpty())
+                target.put("latency", summarize(latency));
+        });
+        return nodes;
+    }
+
+    /**
+     * Cache counters summed, the repeat ratio of the sums, and latency from
+     * the merged histograms
+     */
+    private static Map<String, Object> mergeCache(Map<?, ?> configuration, List<Map<String, Object>> outputs) {
+        Map<String, Object> cache = sum(outputs, "cache");
+        long calls = ( (Number) cache.getOrDefault("calls", 0L) ).longValue();
+        long repeats = ( (Number) cache.getOrDefault("repeats", 0L) ).longValue();
+        cache.putAll(LogCollector.repeats(calls, repeats));
+        cache.put("mode", configuration.get("cacheMode"));
+        cache.put("latency", summarize(histograms(outputs, "cacheLatency")));
+        return cache;
+    }
+
+    /**
+     * Sum the numbers of a section
+     */
+    private static Map<String, Object> sum(List<Map<String, Object>> outputs, String section) {
+        Map<String, Object> sum = new TreeMap<>();
+        for (Map<String, Object> output : outputs) {
+            Map<?, ?> values = (Map<?, ?>) output.get(section);
+            if (values == null)
+                continue;
+            values.forEach((key, value) -> {
+                if (value instanceof Number)
+                    sum.merge(key.toString(), value, Coordinator::add);
+            });
+        }
+        return sum;
+    }
+
+    private static Object add(Object a, Object b) {
+        Number x = (Number) a;
+        Number y = (Number) b;
+        if (x instanceof Double || x instanceof Float || y instanceof Double || y instanceof Float)
+            return x.doubleValue() + y.doubleValue();
+        return x.longValue() + y.longValue();
+    }
+
+    /**
+     * Decode and add the histograms of a section
+     *
+     * @return histogram per key
+     */
+    private static Map<String, Histogram> histograms(List<Map<String, Object>> outputs, String section) {
+        Map<String, Histogram> histograms = new TreeMap<>();
+        for (Map<String, Object> output : outputs) {
+            Map<?, ?> encoded = (Map<?, ?>) output.get("histograms");
+            if (encoded == null || encoded.get(section) == null)
+                continue;
+            ( (Map<?, ?>) encoded.get(section) ).forEach((key, text) ->
+                    histograms.computeIfAbsent(key.toString(), k -> LatencyHistograms.newHistogram())
+                            .add(LatencyHistograms.decode(text.toString())));
+        }
+        return histograms;
+    }
+
+    private static Map<String, Map<String, Object>> summarize(Map<String, Histogram> histograms) {
+        Map<String, Map<String, Object>> summary = new TreeMap<>();
+        histograms.forEach((key, histogram) -> summary.put(key, LatencyHistograms.summarize(histogram)));
+        return summary;
+    }
+
+    /**
+     * A worker process, and what it wrote
+     */
+    static class Worker {
+
+        private final int index;
+        private final Process process;
+        private final Path file;
+        private int exitCode;
+        private Map<String, Object> output;
+
+        private Worker(int index, Process process, Path file) {
+            this.index = index;
+            this.process = process;
+            this.file = file;
+        }
+
+        /**
+         * A completed worker
+         *
+         * @param index    which shard the worker replayed
+         * @param exitCode exit code of the process
+         * @param output   the parsed output or null if none was written
+         */
+        Worker(int index, int exitCode, Map<String, Object> output) {
+            this(index, null, null);
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+
+        private void await() throws InterruptedException {
+            exitCode = process.waitFor();
+            File f = file.toFile();
+            if (f.length() == 0) {
+                log.error("Worker {} exited with {}, without output", index, exitCode);
+                return;
+            }
+            try {
+                output = new ObjectMapper().readValue(f, new TypeReference<Map<String, Object>>() {});
+            } catch (IOException ex) {
+                log.error("Cannot read output of worker {}: {}", index, ex.getMessage());
+            }
+        }
+
+        private void destroy() {
+            if (process != null)
+                process.destroy();
+        }
+
+        private void delete() {
+            if (file != null)
+                file.toFile().delete();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collection of log entries from many threads
+ * <p>
+ * Every thread appends to its own chunked buffer, without locking. Each
+ * chunk publishes its fill level with an ordered write, so the entries can be
+ * read while other threads are still adding. Entries are numbered when added,
+ * so they can be returned in the order they were added.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class EntryBuffers {
+
+    static final int CHUNK_SIZE = 1024;
+
+    private final AtomicLong sequence;
+    private final List<Buffer> buffers;
+    private final ThreadLocal<Buffer> local;
+
+    public EntryBuffers() {
+        this.sequence = new AtomicLong();
+        this.buffers = new CopyOnWriteArrayList<>();
+        this.local = ThreadLocal.withInitial(() -> {
+            Buffer buffer = new Buffer();
+            buffers.add(buffer);
+            return buffer;
+        });
+    }
+
+    /**
+     * Add an entry
+     *
+     * @param entry log entry
+     */
+    public void add(LogCollector.LogEntry entry) {
+        entry.sequence(sequence.getAndIncrement());
+        local.get().add(entry);
+    }
+
+    /**
+     * Number of entries added
+     *
+     * @return count
+     */
+    public long size() {
+        return sequence.get();
+    }
+
+    /**
+     * All the entries, that are completely added, in the order they were
+     * added
+     *
+     * @return list of entries
+     */
+    public List<LogCollector.LogEntry> entries() {
+        List<LogCollector.LogEntry> entries = new ArrayList<>();
+        for (Buffer buffer : buffers) {
+            buffer.copyTo(entries);
+        }
+        entries.sort(Comparator.comparingLong(LogCollector.LogEntry::sequence));
+        return entries;
+    }
+
+    /**
+     * Entries added by a single thread
+     */
+    private static class Buffer {
+
+        private final Chunk head;
+        private Chunk tail;
+
+        private Buffer() {
+            this.head = new Chunk();
+            this.tail = head;
+        }
+
+        private void add(LogCollector.LogEntry entry) {
+            Chunk chunk = tail;
+            int count = chunk.count;
+            if (count == CHUNK_SIZE) {
+                chunk = new Chunk();
+                tail.next = chunk;
+                tail = chunk;
+                count = 0;
+            }
+            chunk.entries[count] = entry;
+            chunk.count = count + 1;
+        }
+
+        private void copyTo(List<LogCollector.LogEntry> entries) {
+            for (Chunk chunk = head ; chunk != null ; chunk = chunk.next) {
+                int count = chunk.count;
+                for (int i = 0 ; i < count ; i++) {
+                    entries.add(chunk.entries[i]);
+                }
+            }
+        }
+    }
+
+    private static class Chunk {
+
+        private final LogCollector.LogEntry[] entries = new LogCollector.LogEntry[CHUNK_SIZE];
+        private volatile int count;
+        private volatile Chunk next;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs a line with the progress of the replay every interval, and keeps the
+ * snapshots as a time series
+ * <p>
+ * A snapshot has the dispatched and completed calls per second, the number
+ * of calls in flight (lines dropped or shed by the engine are neither), the p50/p99/max service time of calls completed in
+ * the interval, the non 2xx statuses and the largest lag behind the
+ * schedule a line was dispatched with, and the number of lines read ahead
+ * (if the input is read ahead). Warm-up calls are counted, but not part of
+ * the latency and statuses.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class IntervalReporter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(IntervalReporter.class);
+
+    private final LogCollector logCollector;
+    private final LongSupplier rejected;
+    private final long interval;
+    private final AtomicLong dispatched;
+    private final AtomicLong maxLag;
+    private volatile long lag;
+    private volatile IntSupplier readAhead;
+    private final List<Map<String, Object>> intervals;
+    private Thread thread;
+    private long origin;
+    private long lastSnapshot;
+    private long lastDispatched;
+    private long lastCompleted;
+
+    /**
+     * @param logCollector where completed calls are recorded
+     * @param interval     time between reports (ms), 0 for no reports
+     */
+    public IntervalReporter(LogCollector logCollector, long interval) {
+        this(logCollector, () -> 0L, interval);
+    }
+
+    /**
+     * @param logCollector where completed calls are recorded
+     * @param rejected     number of dispatched lines the engine has dropped
+     *                     or shed
+     * @param interval     time between reports (ms), 0 for no reports
+     */
+    public IntervalReporter(LogCollector logCollector, LongSupplier rejected, long interval) {
+        this.logCollector = logCollector;
+        this.rejected = rejected;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.dispatched = new AtomicLong();
+        this.maxLag = new AtomicLong();
+        this.intervals = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Start reporting
+     *
+     * @param origin start of the replay (nanoTime)
+     */
+    public void start(long origin) {
+        this.origin = origin;
+        this.lastSnapshot = origin;
+        if (interval <= 0)
+            return;
+        thread = new Thread(this::reportLoop, "interval-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Count a dispatched line, that had no schedule (no delay or closed
+     * loop), so it cannot be late
+     */
+    public void dispatched() {
+        dispatched.incrementAndGet();
+        this.lag = 0;
+    }
+
+    /**
+     * Count a dispatched line
+     *
+     * @param intendedDispatch when the line should have been sent (nanoTime)
+     * @param actualDispatch   when it was sent (nanoTime)
+     */
+    public void dispatched(long intendedDispatch, long actualDispatch) {
+        dispatched.incrementAndGet();
+        long lag = actualDispatch - intendedDispatch;
+        this.lag = lag;
+        if (lag > maxLag.get())
+            maxLag.accumulateAndGet(lag, Math::max);
+    }
+
+    /**
+     * Report the number of lines read ahead of the replay
+     *
+     * @param readAhead current number of lines read, but not dispatched
+     */
+    public void setReadAhead(IntSupplier readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Number of lines read ahead of the replay
+     *
+     * @return lines, -1 if the input isn't read ahead
+     */
+    public int getReadAhead() {
+        IntSupplier supplier = readAhead;
+        return supplier == null ? -1 : supplier.getAsInt();
+    }
+
+    private void reportLoop() {
+        long next = origin + interval;
+        while (!Thread.currentThread().isInterrupted()) {
+            long remaining = next - System.nanoTime();
+            if (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+                continue;
+            }
+            report();
+            next += interval;
+        }
+    }
+
+    private void report() {
+        Map<String, Object> snapshot = snapshot(System.nanoTime());
+        intervals.add(snapshot);
+        log.info(String.format(Locale.ROOT, "%.0fs: dispatched %.1f/s, completed %.1f/s, in flight %d, p50 %.1fms, p99 %.1fms, max %.1fms, errors %s, lag %dms",
+                               snapshot.get("time"), snapshot.get("dispatched"), snapshot.get("completed"),
+                               snapshot.get("inFlight"), snapshot.get("p50"), snapshot.get("p99"), snapshot.get("max"),
+                               snapshot.get("errors"), snapshot.get("lag")) +
+                 ( snapshot.containsKey("readAhead") ? ", read ahead " + snapshot.get("readAhead") : "" ));
+    }
+
+    /**
+     * Take a snapshot of the interval since the last one
+     *
+     * @param now time of the snapshot (nanoTime)
+     * @return time (seconds since start), dispatched and completed (calls
+     *         per second), inFlight, p50/p99/max (ms), errors (count per
+     *         status), lag (ms) and readAhead (lines, if read ahead)
+     */
+    synchronized Map<String, Object> snapshot(long now) {
+        double seconds = Math.max(1, now - lastSnapshot) / 1e9;
+        long totalCompleted = logCollector.getCompleted();
+        long totalDispatched = getAccepted();
+        Histogram latency = LatencyHistograms.newHistogram();
+        Map<String, Long> errors = new TreeMap<>();
+        logCollector.harvestLatency().forEach((status, histogram) -> {
+            latency.add(histogram);
+            if (!status.startsWith("2") && histogram.getTotalCount() > 0)
+                errors.put(status, histogram.getTotalCount());
+        });
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("time", ( now - origin ) / 1e9);
+        snapshot.put("dispatched", ( totalDispatched - lastDispatched ) / seconds);
+        snapshot.put("completed", ( totalCompleted - lastCompleted ) / seconds);
+        snapshot.put("inFlight", Math.max(0, totalDispatched - totalCompleted));
+        snapshot.put("p50", latency.getValueAtPercentile(50) / 1000.0);
+        snapshot.put("p99", latency.getValueAtPercentile(99) / 1000.0);
+        snapshot.put("max", latency.getMaxValue() / 1000.0);
+        snapshot.put("errors", errors);
+        snapshot.put("lag", TimeUnit.NANOSECONDS.toMillis(maxLag.getAndSet(0)));
+        int depth = getReadAhead();
+        if (depth >= 0)
+            snapshot.put("readAhead", depth);
+
+        lastSnapshot = now;
+        lastDispatched = totalDispatched;
+        lastCompleted = totalCompleted;
+        return snapshot;
+    }
+
+    /**
+     * Number of lines dispatched
+     *
+     * @return count
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * Number of lines dispatched, and not dropped or shed by the engine
+     *
+     * @return count
+     */
+    public long getAccepted() {
+        return dispatched.get() - rejected.getAsLong();
+    }
+
+    /**
+     * Number of calls accepted by the engine, and not yet completed
+     *
+     * @return count
+     */
+    public long getInFlight() {
+        long completed = logCollector.getCompleted();
+        return Math.max(0, getAccepted() - completed);
+    }
+
+    /**
+     * How late the latest line was dispatched
+     *
+     * @return nanoseconds
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * The snapshots taken so far
+     *
+     * @return list of snapshots
+     */
+    public List<Map<String, Object>> getIntervals() {
+        synchronized (intervals) {
+            return new ArrayList<>(intervals);
+        }
+    }
+
+    /**
+     * Stop reporting, and take a final snapshot of the partial interval
+     */
+    @Override
+    public void close() {
+        if (thread == null)
+            return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        report();
+    }
+}
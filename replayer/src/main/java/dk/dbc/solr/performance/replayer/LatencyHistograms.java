@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency aggregation in high dynamic range histograms
+ * <p>
+ * Every key has a (wait-free) recorder, shared by all threads. The
+ * recorders are harvested into the accumulated histograms, when asked for,
+ * so memory use is constant regardless of run length and number of threads.
+ * <p>
+ * Values are recorded in microseconds, and reported in milliseconds
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class LatencyHistograms {
+
+    private static final long HIGHEST_TRACKABLE = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final double[] PERCENTILES = new double[] {50.0, 90.0, 99.0, 99.9};
+
+    private final ConcurrentMap<String, Recorder> recorders;
+    private final Map<String, Histogram> totals;
+
+    public LatencyHistograms() {
+        this.recorders = new ConcurrentHashMap<>();
+        this.totals = new TreeMap<>();
+    }
+
+    /**
+     * Record a duration
+     * <p>
+     * Durations are clamped to the trackable range (1 hour)
+     *
+     * @param key   what the duration belongs to (ie. http status)
+     * @param nanos duration in nanoseconds
+     */
+    public void record(String key, long nanos) {
+        long micros = Math.min(HIGHEST_TRACKABLE, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        Recorder recorder = recorders.get(key);
+        if (recorder == null)
+            recorder = recorders.computeIfAbsent(key, k -> new Recorder(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS));
+        recorder.recordValue(micros);
+    }
+
+    /**
+     * Collect what has been recorded since last harvest, and add it to the
+     * accumulated histograms
+     *
+     * @return histograms per key, for the interval since last harvest
+     */
+    public synchronized Map<String, Histogram> harvest() {
+        Map<String, Histogram> interval = new TreeMap<>();
+        recorders.forEach((key, recorder) -> interval.put(key, recorder.getIntervalHistogram()));
+        interval.forEach((key, histogram) -> totals.computeIfAbsent(key, k -> newHistogram()).add(histogram));
+        return interval;
+    }
+
+    /**
+     * Harvest and get a copy of the accumulated histograms
+     *
+     * @return histograms per key
+     */
+    public synchronized Map<String, Histogram> totals() {
+        harvest();
+        Map<String, Histogram> copy = new TreeMap<>();
+        totals.forEach((key, histogram) -> copy.put(key, histogram.copy()));
+        return copy;
+    }
+
+    /**
+     * Harvest and summarize the accumulated histograms
+     *
+     * @return percentiles per key
+     */
+    public Map<String, Map<String, Object>> summary() {
+        Map<String, Map<String, Object>> summary = new TreeMap<>();
+        totals().forEach((key, histogram) -> summary.put(key, summarize(histogram)));
+        return summary;
+    }
+
+    /**
+     * Count, mean, p50/p90/p99/p99.9 and max of a histogram in ms
+     *
+     * @param histogram recorded values (microseconds)
+     * @return map of name to value
+     */
+    public static Map<String, Object> summarize(Histogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getTotalCount());
+        summary.put("mean", histogram.getMean() / 1000.0);
+        for (double percentile : PERCENTILES) {
+            summary.put("p" + ( percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile) ),
+                        histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+        summary.put("max", histogram.getMaxValue() / 1000.0);
+        return summary;
+    }
+
+    /**
+     * Encode a histogram (compressed), so it can be merged in another process
+     *
+     * @param histogram recorded values
+     * @return base64 text
+     */
+    public static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length));
+    }
+
+    /**
+     * Decode a histogram encoded by {@link #encode(Histogram)}
+     *
+     * @param text base64 text
+     * @return histogram
+     */
+    public static Histogram decode(String text) {
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.getDecoder().decode(text)), HIGHEST_TRACKABLE);
+        } catch (DataFormatException | RuntimeException ex) {
+            throw new IllegalArgumentException("Cannot decode histogram: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Encode the accumulated histograms
+     *
+     * @return base64 text per key
+     */
+    public Map<String, String> encoded() {
+        Map<String, String> encoded = new TreeMap<>();
+        totals().forEach((key, histogram) -> encoded.put(key, encode(histogram)));
+        return encoded;
+    }
+
+    static Histogram newHistogram() {
+        return new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+    }
+}
@@ -20,20 +20,27 @@ package dk.dbc.solr.performance.replayer;
  * File created: 20/03/2019
  */
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.solr.performance.MetricsHistogram;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
 
 /**
  * Collecor of status for program progression
@@ -41,18 +48,131 @@ import java.util.concurrent.atomic.AtomicLong;
  * @author Mike Andersen (mran@dbc.dk)
  */
 public class LogCollector {
-    private List<LogEntry> log;
+
+    /**
+     * What is kept of the individual requests
+     */
+    public enum Mode {
+        /**
+         * Every log entry is kept, and written as "loglines"
+         */
+        LINES,
+        /**
+         * Only the latency histograms are kept (constant memory use)
+         */
+        HISTOGRAM,
+        /**
+         * Every log entry is written as a JSON line, while the test runs
+         * (constant memory use)
+         */
+        STREAM;
+
+        /**
+         * Case insensitive lookup
+         *
+         * @param name mode name
+         * @return mode
+         */
+        public static Mode of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown record mode: " + name + " (use lines, histogram or stream)");
+            }
+        }
+    }
+
+    private final Mode mode;
+    private final EntryBuffers log;
+    private ResultStreamWriter stream;
     private Map conf;
     private final ConcurrentMap<String, AtomicLong> counterMap ;
+    private final LatencyHistograms latency;
+    private final LatencyHistograms correctedLatency;
+    private final LatencyHistograms phases;
+    private final ConcurrentMap<String, LatencyHistograms> nodeLatency;
+    private final MirrorStatistics mirror;
+    private final LatencyHistograms warmupLatency;
+    private final LatencyHistograms warmupCorrectedLatency;
+    private Warmup warmup;
+    private boolean exportHistograms;
+    private QueryClasses queryClasses;
+    private final LatencyHistograms cacheLatency;
+    private final LongAdder cacheCalls;
+    private final LongAdder cacheRepeats;
+    private Map<String, Object> cache;
+    private final LongAdder completed;
+    private final ConcurrentMap<String, LongAdder> requests;
+    private final MetricsHistogram serviceTime;
+    private Map<String, Map<String, Long>> nodes;
+    private Map<String, Object> closedLoop;
+    private List<Map<String, Object>> rates;
+    private Map<String, Object> capacity;
+    private List<Map<String, Object>> intervals;
+    private Map<String, Object> input;
+    private Map<String, Integer> connectionPool;
+    private Map<String, Long> workerPool;
     private int statusCode;
     private String statusMessage;
 
 
 
     public LogCollector() {
-        log =  new ArrayList<LogEntry>(100);
+        this(Mode.LINES);
+    }
+
+    public LogCollector(Mode mode) {
+        this.mode = mode;
+        log = new EntryBuffers();
         conf = new HashMap();
+        connectionPool = new HashMap<>();
+        workerPool = new HashMap<>();
         counterMap = new ConcurrentHashMap<>();
+        latency = new LatencyHistograms();
+        correctedLatency = new LatencyHistograms();
+        phases = new LatencyHistograms();
+        nodeLatency = new ConcurrentHashMap<>();
+        mirror = new MirrorStatistics();
+        warmupLatency = new LatencyHistograms();
+        warmupCorrectedLatency = new LatencyHistograms();
+        cacheLatency = new LatencyHistograms();
+        cacheCalls = new LongAdder();
+        cacheRepeats = new LongAdder();
+        warmup = new Warmup(0, 0);
+        completed = new LongAdder();
+        requests = new ConcurrentHashMap<>();
+        serviceTime = new MetricsHistogram();
+        nodes = new HashMap<>();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Write log entries to a stream as they are added
+     * <p>
+     * Only in {@link Mode#STREAM} mode, the entries are then not part of the
+     * {@link #dump(OutputStream)}
+     *
+     * @param os Stream to output to
+     * @throws IOException if the stream cannot be written to
+     */
+    public void streamTo(OutputStream os) throws IOException {
+        if (mode != Mode.STREAM)
+            throw new IllegalStateException("Streaming requires record mode stream");
+        if (os != null)
+            this.stream = new ResultStreamWriter(os);
+    }
+
+    /**
+     * Write the remaining log entries, and close the stream
+     *
+     * @throws IOException if the log entries couldn't be written
+     */
+    public void closeStream() throws IOException {
+        if (stream != null)
+            stream.close();
     }
 
     /**
@@ -61,6 +181,95 @@ public class LogCollector {
      */
     public void addConfig(Map conf) { this.conf = conf; }
 
+    /**
+     * Add the connection pool statistics to the log
+     *
+     * @param stats Map of leased/idle/pending connections
+     */
+    public void addConnectionPool(Map<String, Integer> stats) {
+        this.connectionPool = stats;
+    }
+
+    /**
+     * Add the worker pool statistics to the log
+     *
+     * @param stats Map of queue depth/rejected calls
+     */
+    public void addWorkerPool(Map<String, Long> stats) {
+        this.workerPool = stats;
+    }
+
+    /**
+     * Add the closed loop statistics to the log
+     *
+     * @param stats Map of throughput/fairness
+     */
+    public void addClosedLoop(Map<String, Object> stats) {
+        this.closedLoop = stats;
+    }
+
+    /**
+     * Add the intended and achieved rate per interval to the log
+     *
+     * @param intervals list of interval/speed/intended/achieved
+     */
+    public void addRates(List<Map<String, Object>> intervals) {
+        this.rates = intervals;
+    }
+
+    /**
+     * Add the periodic snapshots to the log
+     *
+     * @param intervals list of snapshots (see {@link IntervalReporter})
+     */
+    public void addIntervals(List<Map<String, Object>> intervals) {
+        this.intervals = intervals;
+    }
+
+    /**
+     * Add what was read of the recording to the log
+     *
+     * @param lines     lines read (including comments)
+     * @param malformed lines that couldn't be parsed
+     * @param readAhead statistics of the read ahead (or null if the input
+     *                  wasn't read ahead)
+     */
+    public void addInput(long lines, long malformed, Map<String, Long> readAhead) {
+        this.input = new LinkedHashMap<>();
+        this.input.put("lines", lines);
+        this.input.put("malformed", malformed);
+        if (readAhead != null)
+            this.input.put("readAhead", readAhead);
+    }
+
+    /**
+     * Add the cache mode of the replay to the log, the "cache" section also
+     * gets the repeat ratio and latency of cold and warm calls
+     *
+     * @param stats mode and what it rewrote
+     */
+    public void addCache(Map<String, Object> stats) {
+        this.cache = stats;
+    }
+
+    /**
+     * Add the outcome of a capacity search to the log
+     *
+     * @param report strategy, slo, curve and knee
+     */
+    public void addCapacity(Map<String, Object> report) {
+        this.capacity = report;
+    }
+
+    /**
+     * Add the solr node statistics to the log
+     *
+     * @param stats Map of node to calls/failures/ejections
+     */
+    public void addNodes(Map<String, Map<String, Long>> stats) {
+        this.nodes = stats;
+    }
+
     /**
      * Add one status note to the log
      *
@@ -69,7 +278,10 @@ public class LogCollector {
     public void addStatusEntry(String status) {
         LogEntry e = new LogEntry();
         e.setStatus(status);
-        this.log.add(e);
+        if (mode == Mode.STREAM)
+            addEntry(e);
+        else
+            log.add(e);
     }
 
     /**
@@ -84,13 +296,213 @@ public class LogCollector {
 
     /**
      * Add a log entry to the log
+     * <p>
+     * This is called from all the threads making calls, and doesn't lock.
+     * <p>
+     * In {@link Mode#STREAM} mode the entry shouldn't be modified after this
      *
      * @param entry Logentry to be stored
      */
     public void addEntry(LogEntry entry) {
-        log.add(entry);
+        if (mode == Mode.LINES)
+            log.add(entry);
+        else if (mode == Mode.STREAM && stream != null)
+            stream.write(entry);
+    }
+
+    /**
+     * Record the latency of a request
+     *
+     * @param status         the http response code (or "error" if no
+     *                       response was received)
+     * @param duration       service time in nanoseconds
+     * @param correctedDuration time from intended send time until completed
+     *                       in nanoseconds
+     */
+    public void recordLatency(String status, long duration, long correctedDuration) {
+        completed.increment();
+        requests.computeIfAbsent(status, s -> new LongAdder()).increment();
+        serviceTime.record(duration);
+        latency.record(status, duration);
+        correctedLatency.record(status, correctedDuration);
+    }
+
+
+    /**
+     * Set the warm-up, calls in it are recorded with
+     * {@link #recordWarmup(String, long, long)}
+     *
+     * @param warmup the warm-up of this replay
+     */
+    public void setWarmup(Warmup warmup) {
+        this.warmup = warmup;
+    }
+
+    /**
+     * Include the encoded histograms in the output, so they can be merged
+     * with those of other workers (see {@link Coordinator})
+     *
+     * @param exportHistograms true to include "histograms" in the output
+     */
+    public void setExportHistograms(boolean exportHistograms) {
+        this.exportHistograms = exportHistograms;
+    }
+
+    /**
+     * Record latency per query class
+     *
+     * @param queryClasses where successful calls are recorded by class (null
+     *                     to not record query classes)
+     */
+    public void setQueryClasses(QueryClasses queryClasses) {
+        this.queryClasses = queryClasses;
+    }
+
+    /**
+     * Record the latency of a successful request by its query class, if
+     * enabled (see {@link #setQueryClasses(QueryClasses)})
+     *
+     * @param query    the query that was sent
+     * @param duration service time in nanoseconds
+     */
+    public void recordQueryClass(String query, long duration) {
+        if (queryClasses != null)
+            queryClasses.record(query, duration);
+    }
+
+    /**
+     * Record if a request was a repeat of a recent query, and the latency of
+     * successful requests as "warm" or "cold"
+     *
+     * @param repeat   if the query was sent recently
+     * @param status   the http response code (or "error" if no response
+     *                 was received)
+     * @param duration service time in nanoseconds
+     */
+    public void recordCache(boolean repeat, String status, long duration) {
+        cacheCalls.increment();
+        if (repeat)
+            cacheRepeats.increment();
+        if ("200".equals(status))
+            cacheLatency.record(repeat ? "warm" : "cold", duration);
+    }
+
+    /**
+     * Record the latency of a request in the warm-up
+     *
+     * @param status            the http response code (or "error" if no
+     *                          response was received)
+     * @param duration          service time in nanoseconds
+     * @param correctedDuration time from intended send time until completed
+     *                          in nanoseconds
+     */
+    public void recordWarmup(String status, long duration, long correctedDuration) {
+        completed.increment();
+        warmupLatency.record(status, duration);
+        warmupCorrectedLatency.record(status, correctedDuration);
+    }
+
+    /**
+     * Record the latency of a request to a specific solr node
+     *
+     * @param node     base url of the node
+     * @param status   the http response code (or "error" if no response
+     *                 was received)
+     * @param duration service time in nanoseconds
+     */
+    public void recordNodeLatency(String node, String status, long duration) {
+        nodeLatency.computeIfAbsent(node, n -> new LatencyHistograms()).record(status, duration);
+    }
+
+    /**
+     * Record a mirrored request
+     *
+     * @param result         comparison of the baseline and candidate calls
+     * @param baselineNanos  duration of the baseline call
+     * @param candidateNanos duration of the candidate call
+     */
+    public void recordMirror(MirrorResult result, long baselineNanos, long candidateNanos) {
+        mirror.record(result, baselineNanos, candidateNanos);
     }
 
+    /**
+     * Record the phases of a request
+     * <p>
+     * Phases that wasn't reached aren't recorded
+     *
+     * @param timing timing of a completed request
+     */
+    public void recordTiming(RequestTiming timing) {
+        recordPhase("connect", timing.getConnect());
+        recordPhase("ttfb", timing.getFirstByte());
+        recordPhase("body", timing.getBody());
+        if (timing.getQTime() >= 0) {
+            recordPhase("qtime", TimeUnit.MILLISECONDS.toNanos(timing.getQTime()));
+            recordPhase("overhead", timing.getOverhead());
+        }
+    }
+
+    private void recordPhase(String phase, long nanos) {
+        if (nanos >= 0)
+            phases.record(phase, nanos);
+    }
+
+    /**
+     * Number of calls completed, including the warm-up
+     *
+     * @return calls
+     */
+    long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * Number of calls completed after the warm-up
+     *
+     * @return count per http status (or "error")
+     */
+    Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        requests.forEach((status, count) -> counts.put(status, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Service time of calls completed after the warm-up, in fixed buckets
+     *
+     * @return histogram
+     */
+    MetricsHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * The service time recorded since the last harvest (the warm-up isn't
+     * included)
+     *
+     * @return histograms per http status (or "error")
+     */
+    Map<String, Histogram> harvestLatency() {
+        return latency.harvest();
+    }
+
+    /**
+     * The corrected latency recorded so far
+     *
+     * @return histograms per http status (or "error")
+     */
+    Map<String, Histogram> getCorrectedLatency() {
+        return correctedLatency.totals();
+    }
+
+    /**
+     * Number of calls the worker pool dropped or shed (--overflow)
+     *
+     * @return count
+     */
+    long getRejected() {
+        return ReplayEngine.rejected(workerPool);
+    }
 
     /**
      * Increment the counter for httpResponse codes
@@ -103,6 +515,8 @@ public class LogCollector {
 
     /**
      * Dump the log (as json) to the give OutputStream
+     * <p>
+     * In {@link Mode#STREAM} mode this is only the summary
      *
      * @param os Stream to otput to
      * @throws IOException if anything goes wrong during writing
@@ -111,15 +525,53 @@ public class LogCollector {
         if(os == null)
             return;
 
-        Map status = new HashMap();
+        Map<String, Object> status = new HashMap<>();
         status.put( "code", this.statusCode);
         status.put("message", this.statusMessage);
 
         BufferedWriter w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
-        Map output = new HashMap();
+        Map<String, Object> output = new HashMap<>();
         output.put("configuration", conf);
-        output.put("loglines", log);
+        if (mode == Mode.STREAM) {
+            Map<String, Object> results = new HashMap<>();
+            results.put("written", stream == null ? 0 : stream.getWritten());
+            results.put("stalled", stream == null ? 0 : stream.getStalled());
+            output.put("results", results);
+        } else {
+            output.put("loglines", log.entries());
+        }
         output.put("statistics", counterMap);
+        output.put("connectionPool", connectionPool);
+        output.put("workerPool", workerPool);
+        output.put("latency", latency.summary());
+        output.put("correctedLatency", correctedLatency.summary());
+        output.put("phases", phases.summary());
+        output.put("nodes", nodeSummary());
+        if (closedLoop != null)
+            output.put("closedLoop", closedLoop);
+        if (rates != null)
+            output.put("rates", rates);
+        if (warmup.isEnabled()) {
+            Map<String, Object> warmupSummary = new LinkedHashMap<>();
+            warmupSummary.put("warmup", warmup.toString());
+            warmupSummary.put("latency", warmupLatency.summary());
+            warmupSummary.put("correctedLatency", warmupCorrectedLatency.summary());
+            output.put("warmup", warmupSummary);
+        }
+        if (input != null)
+            output.put("input", input);
+        if (capacity != null)
+            output.put("capacity", capacity);
+        if (intervals != null && !intervals.isEmpty())
+            output.put("intervals", intervals);
+        if (mirror.getCalls() > 0)
+            output.put("mirror", mirrorSummary());
+        if (queryClasses != null)
+            output.put("queryClasses", queryClasses.report());
+        if (cache != null)
+            output.put("cache", cacheSummary());
+        if (exportHistograms)
+            output.put("histograms", encodedHistograms());
         output.put("status", status);
 
         ObjectMapper mapper = new ObjectMapper();
@@ -127,6 +579,76 @@ public class LogCollector {
     }
 
 
+    /**
+     * Summary of the mirrored calls
+     *
+     * @return map of name to value
+     */
+    Map<String, Object> mirrorSummary() {
+        return mirror.summary();
+    }
+
+    /**
+     * All histograms, encoded with {@link LatencyHistograms#encode(Histogram)}
+     * <p>
+     * Node latency is in sections named "node:" + node
+     *
+     * @return map of section to key to encoded histogram
+     */
+    private Map<String, Map<String, String>> encodedHistograms() {
+        Map<String, Map<String, String>> histograms = new TreeMap<>();
+        histograms.put("latency", latency.encoded());
+        histograms.put("correctedLatency", correctedLatency.encoded());
+        histograms.put("phases", phases.encoded());
+        histograms.put("warmupLatency", warmupLatency.encoded());
+        histograms.put("warmupCorrectedLatency", warmupCorrectedLatency.encoded());
+        nodeLatency.forEach((node, perStatus) -> histograms.put("node:" + node, perStatus.encoded()));
+        if (queryClasses != null)
+            histograms.put("queryClasses", queryClasses.encoded());
+        histograms.put("cacheLatency", cacheLatency.encoded());
+        return histograms;
+    }
+
+    /**
+     * The cache mode, and the repeated calls
+     *
+     * @return map of name to value
+     */
+    private Map<String, Object> cacheSummary() {
+        Map<String, Object> summary = new TreeMap<>(cache);
+        summary.putAll(repeats(cacheCalls.sum(), cacheRepeats.sum()));
+        summary.put("latency", cacheLatency.summary());
+        return summary;
+    }
+
+    /**
+     * Number of calls, and how many (and the ratio) that were repeats
+     *
+     * @param calls   calls made (outside the warm-up)
+     * @param repeats calls that repeated a recent query
+     * @return map of name to value
+     */
+    static Map<String, Object> repeats(long calls, long repeats) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("calls", calls);
+        summary.put("repeats", repeats);
+        summary.put("repeatRatio", calls == 0 ? 0.0 : (double) repeats / calls);
+        return summary;
+    }
+
+    /**
+     * Per node statistics, and latency per status
+     *
+     * @return map of node to summary
+     */
+    private Map<String, Map<String, Object>> nodeSummary() {
+        Map<String, Map<String, Object>> summary = new TreeMap<>();
+        nodes.forEach((node, stats) -> summary.computeIfAbsent(node, n -> new LinkedHashMap<>()).putAll(stats));
+        nodeLatency.forEach((node, histograms) ->
+                summary.computeIfAbsent(node, n -> new LinkedHashMap<>()).put("latency", histograms.summary()));
+        return summary;
+    }
+
     public static LogEntry newEntry() {
         return new LogEntry();
     }
@@ -136,15 +658,32 @@ public class LogCollector {
         private long callDelay;
         private long callDuration;
         private String query;
+        private String node;
         private String status;
         private long timestamp;
+        private long sendLag;
+        private long correctedDuration;
+        private double connectTime;
+        private double firstByteTime;
+        private double bodyTime;
+        private int qTime;
+        private MirrorResult mirror;
+        private boolean warmup;
+        private long sequence;
 
         public LogEntry() {
             this.timestamp = System.currentTimeMillis();
             this.originalTimeDelta = 0;
             this.callDelay = 0;
             this.callDuration = 0;
+            this.sendLag = 0;
+            this.correctedDuration = 0;
+            this.connectTime = -1;
+            this.firstByteTime = -1;
+            this.bodyTime = -1;
+            this.qTime = -1;
             this.query = "";
+            this.node = "";
             this.status = "";
         }
 
@@ -157,10 +696,46 @@ public class LogCollector {
             this.callDuration = callDuration;
         }
 
+        /**
+         * Set the timing relative to when the call should have been sent
+         *
+         * @param sendLag           how late the call was sent (ms)
+         * @param correctedDuration duration measured from intended send time
+         *                          (ms)
+         */
+        public void setSchedule(long sendLag, long correctedDuration) {
+            this.sendLag = sendLag;
+            this.correctedDuration = correctedDuration;
+        }
+
+        /**
+         * Set the phases of the call (ms with fractions, -1 is unknown)
+         *
+         * @param timing timing of the call
+         */
+        public void setTiming(RequestTiming timing) {
+            this.connectTime = RequestTiming.ms(timing.getConnect());
+            this.firstByteTime = RequestTiming.ms(timing.getFirstByte());
+            this.bodyTime = RequestTiming.ms(timing.getBody());
+            this.qTime = timing.getQTime();
+        }
+
         public void setQuery(String query) {
             this.query = query;
         }
 
+        public void setMirror(MirrorResult mirror) {
+            this.mirror = mirror;
+        }
+
+        public void setNode(String node) {
+            this.node = node;
+        }
+
+        public void setWarmup(boolean warmup) {
+            this.warmup = warmup;
+        }
+
         public void setStatus(String status) {
             this.status = status;
         }
@@ -172,8 +747,16 @@ public class LogCollector {
                     ", originalTimeDelta=" + originalTimeDelta +
                     ", callDelay=" + callDelay +
                     ", callDuration=" + callDuration +
+                    ", sendLag=" + sendLag +
+                    ", correctedDuration=" + correctedDuration +
+                    ", connectTime=" + connectTime +
+                    ", firstByteTime=" + firstByteTime +
+                    ", bodyTime=" + bodyTime +
+                    ", qTime=" + qTime +
                     ", query='" + query + "'" +
+                    ", node='" + node + "'" +
                     ", status='" + status + "'" +
+                    ( mirror == null ? "" : ", mirror=" + mirror ) +
                     '}';
         }
 
@@ -193,6 +776,10 @@ public class LogCollector {
             return query;
         }
 
+        public String getNode() {
+            return node;
+        }
+
         public String getStatus() {
             return status;
         }
@@ -200,5 +787,66 @@ public class LogCollector {
         public long getTimestamp() {
             return timestamp;
         }
+
+        public long getIntendedTimestamp() {
+            return timestamp - sendLag;
+        }
+
+        public long getSendLag() {
+            return sendLag;
+        }
+
+        public long getCorrectedDuration() {
+            return correctedDuration;
+        }
+
+        public double getConnectTime() {
+            return connectTime;
+        }
+
+        public double getFirstByteTime() {
+            return firstByteTime;
+        }
+
+        public double getBodyTime() {
+            return bodyTime;
+        }
+
+        public int getQTime() {
+            return qTime;
+        }
+
+        /**
+         * Comparison with the mirrored call
+         *
+         * @return comparison or null if the call wasn't mirrored
+         */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public MirrorResult getMirror() {
+            return mirror;
+        }
+
+        /**
+         * If the call was part of the warm-up
+         *
+         * @return true for warm-up calls (absent from the output otherwise)
+         */
+        @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+        public boolean isWarmup() {
+            return warmup;
+        }
+
+        /**
+         * Order in which the entry was added (not part of the output)
+         *
+         * @return sequence number
+         */
+        long sequence() {
+            return sequence;
+        }
+
+        void sequence(long sequence) {
+            this.sequence = sequence;
+        }
     }
 }
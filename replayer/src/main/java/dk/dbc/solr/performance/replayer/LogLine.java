@@ -18,9 +18,6 @@
  */
 package dk.dbc.solr.performance.replayer;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  *
  * Solr performance test log line abstraction
@@ -29,40 +26,75 @@ import java.util.regex.Pattern;
  */
 public final class LogLine {
 
-    private final Long timeDelta;
+    private final long timeDelta;
     private final String query;
     private final boolean isvalid;
-
-    private static final Pattern COMMENT_PATTERN = Pattern.compile("#.*");
-    private static final Pattern SPACE_PATTERN = Pattern.compile( "(\\d+)\\s+(.*)");
+    private final boolean warmup;
+    private final boolean repeat;
 
     /**
      * Convert a log line into an object
+     * <p>
+     * Comments and malformed lines are not valid
      *
      * @param text log line
      * @return LogLine object
      */
     public static LogLine of(String text) {
-        if( COMMENT_PATTERN.matcher(text).matches() )
-            return new LogLine(0l, "", false);
+        LogLineParser parser = new LogLineParser();
+        if (!parser.parse(text))
+            return new LogLine(0L, "", false);
+        return new LogLine(parser.getTimeDelta(), text.substring(parser.getQueryStart()), true);
+    }
+
+    /**
+     * A line that has already been parsed (ie. from a compiled recording)
+     *
+     * @param timeDelta when the line was logged relative to start (ms)
+     * @param query     the query requested
+     * @return LogLine object
+     */
+    static LogLine of(long timeDelta, String query) {
+        return new LogLine(timeDelta, query, true);
+    }
 
-        Matcher m = SPACE_PATTERN.matcher(text);
-        m.matches();
-        return  new LogLine(Long.parseLong(m.group(1)), m.group(2), true);
+    private LogLine(long timeDelta, String query, boolean isvalid ) {
+        this(timeDelta, query, isvalid, false, false);
     }
 
-    private LogLine(Long timeDelta, String query, boolean isvalid ) {
+    private LogLine(long timeDelta, String query, boolean isvalid, boolean warmup, boolean repeat) {
         this.timeDelta = timeDelta;
         this.query = query;
         this.isvalid = isvalid;
+        this.warmup = warmup;
+        this.repeat = repeat;
+    }
+
+    /**
+     * The same line, sent as part of the warm-up
+     *
+     * @return LogLine object
+     */
+    public LogLine asWarmup() {
+        return new LogLine(timeDelta, query, isvalid, true, repeat);
+    }
+
+    /**
+     * The same line, which repeats a recently sent query (see
+     * {@link RepeatTracker})
+     *
+     * @return LogLine object
+     */
+    public LogLine asRepeat() {
+        return new LogLine(timeDelta, query, isvalid, warmup, true);
     }
 
     /**
      * When the line was logged relative to start
      *
-     * @return Long
+     * @return milliseconds
      */
-    public Long getTimeDelta() {
+    public long getTimeDelta() {
         return timeDelta;
     }
 
@@ -83,4 +115,24 @@ public final class LogLine {
     public boolean isValid() {
         return isvalid;
     }
+
+    /**
+     * If the line is sent as part of the warm-up, and should be kept out of
+     * the statistics
+     *
+     * @return true for warm-up lines
+     */
+    public boolean isWarmup() {
+        return warmup;
+    }
+
+    /**
+     * If the query was sent recently, and is likely to be served from
+     * solr's caches
+     *
+     * @return true for repeated queries
+     */
+    public boolean isRepeat() {
+        return repeat;
+    }
 }
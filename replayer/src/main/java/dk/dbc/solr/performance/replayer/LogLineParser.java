@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+/**
+ * Single pass parser of recorded lines: "delta query" or "# comment"
+ * <p>
+ * The parser is reused for every line, and doesn't allocate. The time delta
+ * is a primitive, and the query is where it starts in the parsed text, so
+ * it's only copied out if the line is replayed. Malformed lines are
+ * counted, and rejected as comments are.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public final class LogLineParser {
+
+    private static final long MAX_DELTA = Long.MAX_VALUE / 10;
+
+    private CharSequence text;
+    private long timeDelta;
+    private int queryStart;
+    private boolean valid;
+    private long malformed;
+
+    /**
+     * Parse a line
+     *
+     * @param text the line (without line terminator)
+     * @return true if the line has a query, false for comments and
+     *         malformed lines
+     */
+    public boolean parse(CharSequence text) {
+        this.text = text;
+        this.timeDelta = 0;
+        this.queryStart = text.length();
+        this.valid = false;
+        int length = text.length();
+        if (length > 0 && text.charAt(0) == '#')
+            return false;
+
+        int pos = 0;
+        long delta = 0;
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9')
+                break;
+            if (delta > MAX_DELTA)
+                return malformed();
+            delta = delta * 10 + ( c - '0' );
+            if (delta < 0)
+                return malformed();
+            pos++;
+        }
+        if (pos == 0 || pos == length || !isSpace(text.charAt(pos)))
+            return malformed();
+        while (pos < length && isSpace(text.charAt(pos))) {
+            pos++;
+        }
+        this.timeDelta = delta;
+        this.queryStart = pos;
+        this.valid = true;
+        return true;
+    }
+
+    private boolean malformed() {
+        malformed++;
+        return false;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\f' || c == '\u000b' || c == '\r' || c == '\n';
+    }
+
+    /**
+     * If the last parsed line has a query
+     *
+     * @return true for a query line
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * When the last parsed line was logged relative to start
+     *
+     * @return milliseconds (0 if not valid)
+     */
+    public long getTimeDelta() {
+        return timeDelta;
+    }
+
+    /**
+     * Where the query starts in the last parsed line
+     *
+     * @return offset
+     */
+    public int getQueryStart() {
+        return queryStart;
+    }
+
+    /**
+     * The query of the last parsed line, as a view of the line
+     *
+     * @return query (empty if not valid)
+     */
+    public CharSequence getQuery() {
+        return text.subSequence(queryStart, text.length());
+    }
+
+    /**
+     * Number of malformed lines parsed
+     *
+     * @return lines
+     */
+    public long getMalformed() {
+        return malformed;
+    }
+}
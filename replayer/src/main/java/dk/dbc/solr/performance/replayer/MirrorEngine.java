@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.concurrent.FutureCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replay engine that sends every query to a baseline (the solr nodes) and a
+ * candidate (the mirror nodes) at the same instant
+ * <p>
+ * Both calls use the json response writer, so numFound and the document ids
+ * can be compared. The baseline call is logged as usual, with the comparison
+ * attached, and the call time watcher only looks at the baseline.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MirrorEngine extends AsyncEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(MirrorEngine.class);
+
+    private final SolrNodes mirrorNodes;
+    private final LogCollector logCollector;
+    private final String idField;
+    private final double regressionRatio;
+
+    public MirrorEngine(Config config, LogCollector logCollector, CallTimeWathcer watcher, JobListener jobListener) {
+        super(config, logCollector, watcher, jobListener, config.getMirrorNodes().size());
+        this.mirrorNodes = new SolrNodes(config.getMirrorNodes(), config.getBalance(), config.getEjectAfter(), config.getEjectFor());
+        this.logCollector = logCollector;
+        this.idField = config.getMirrorIdField();
+        this.regressionRatio = config.getRegressionRatio();
+    }
+
+    @Override
+    protected void dispatch(LogLine logLine, long intendedDispatch) {
+        String query = SolrResponse.withJsonWriter(logLine.getQuery());
+        MirroredCall call = new MirroredCall(logLine, intendedDispatch,
+                                             new Side(nodes, nodes.select(query)),
+                                             new Side(mirrorNodes, mirrorNodes.select(query)));
+        send(call.baseline.node.getBaseUrl() + "/select?" + query, call.baseline.consumer, call.baseline);
+        send(call.candidate.node.getBaseUrl() + "/select?" + query, call.candidate.consumer, call.candidate);
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getNodeStats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>(nodes.getStats());
+        stats.putAll(mirrorNodes.getStats());
+        return stats;
+    }
+
+    /**
+     * Both calls of a query, the comparison is made when both are completed
+     */
+    private class MirroredCall {
+
+        private final LogLine logLine;
+        private final long intendedDispatch;
+        private final Side baseline;
+        private final Side candidate;
+        private final AtomicInteger outstanding;
+
+        private MirroredCall(LogLine logLine, long intendedDispatch, Side baseline, Side candidate) {
+            this.logLine = logLine;
+            this.intendedDispatch = intendedDispatch;
+            this.baseline = baseline;
+            this.candidate = candidate;
+            this.outstanding = new AtomicInteger(2);
+            baseline.call = this;
+            candidate.call = this;
+        }
+
+        private void sideDone() {
+            if (outstanding.decrementAndGet() != 0)
+                return;
+            try {
+                long baselineNanos = baseline.timing.getTotal();
+                long candidateNanos = candidate.timing.getTotal();
+                MirrorResult result = new MirrorResult(candidate.node.getBaseUrl(),
+                                                       baseline.responseCode, candidate.responseCode,
+                                                       baselineNanos, candidateNanos,
+                                                       baseline.response(), candidate.response(),
+                                                       regressionRatio);
+                if (result.isCompared() && !( result.isNumFoundMatch() && result.isDocsMatch() ))
+                    log.info("Mismatch {} on query: {}", result, logLine.getQuery());
+                if (!logLine.isWarmup()) {
+                    logCollector.recordMirror(result, baselineNanos, candidateNanos);
+                    logCollector.recordNodeLatency(candidate.node.getBaseUrl(), result.getStatus(), candidateNanos);
+                }
+                addCallTime(logLine, reporter.report(logLine, baseline.node.getBaseUrl(), intendedDispatch, baseline.timing,
+                                                     baseline.responseCode, baseline.error, result));
+            } catch (RuntimeException ex) {
+                log.error("Error reporting call: {}", ex.getMessage());
+                log.debug("Error reporting call: ", ex);
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * One of the calls of a mirrored query
+     */
+    private class Side implements FutureCallback<Integer> {
+
+        private final SolrNodes solrNodes;
+        private final SolrNodes.Node node;
+        private final RequestTiming timing;
+        private final TimedResponseConsumer consumer;
+        private MirroredCall call;
+        private int responseCode;
+        private String error;
+
+        private Side(SolrNodes solrNodes, SolrNodes.Node node) {
+            this.solrNodes = solrNodes;
+            this.node = node;
+            this.timing = new RequestTiming();
+            this.consumer = new TimedResponseConsumer(timing, true);
+            this.responseCode = -1;
+            this.error = null;
+        }
+
+        @Override
+        public void completed(Integer responseCode) {
+            done(responseCode, null);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            done(consumer.getResponseCode(), String.valueOf(ex.getMessage()));
+        }
+
+        @Override
+        public void cancelled() {
+            done(consumer.getResponseCode(), "Cancelled");
+        }
+
+        private void done(int responseCode, String error) {
+            timing.close();
+            this.responseCode = responseCode;
+            this.error = error;
+            solrNodes.release(node, responseCode);
+            call.sideDone();
+        }
+
+        /**
+         * The parsed response
+         *
+         * @return response or null if it couldn't be read
+         */
+        private SolrResponse response() {
+            byte[] body = consumer.getBody();
+            if (error != null || responseCode != 200 || body == null)
+                return null;
+            try {
+                return SolrResponse.parse(body, idField);
+            } catch (IOException ex) {
+                log.debug("Cannot parse response from {}: {}", node, ex.getMessage());
+                return null;
+            }
+        }
+    }
+}
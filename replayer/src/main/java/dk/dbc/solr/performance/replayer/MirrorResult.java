@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+/**
+ * Outcome of the candidate call of a mirrored query, compared to the
+ * baseline call
+ * <p>
+ * This is part of the baseline call's log entry
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MirrorResult {
+
+    private final String node;
+    private final String status;
+    private final double callDuration;
+    private final double latencyRatio;
+    private final boolean statusMatch;
+    private final boolean compared;
+    private final long baselineNumFound;
+    private final long candidateNumFound;
+    private final boolean numFoundMatch;
+    private final boolean docsMatch;
+    private final boolean regression;
+
+    /**
+     * @param node             base url of the candidate node
+     * @param baselineCode     http status of the baseline call (or -1)
+     * @param candidateCode    http status of the candidate call (or -1)
+     * @param baselineNanos    duration of the baseline call
+     * @param candidateNanos   duration of the candidate call
+     * @param baseline         baseline response or null if it couldn't be
+     *                         read
+     * @param candidate        candidate response or null if it couldn't be
+     *                         read
+     * @param regressionRatio  latency ratio above which the candidate call
+     *                         counts as a regression
+     */
+    public MirrorResult(String node, int baselineCode, int candidateCode, long baselineNanos, long candidateNanos,
+                        SolrResponse baseline, SolrResponse candidate, double regressionRatio) {
+        this.node = node;
+        this.status = candidateCode < 0 ? "error" : String.valueOf(candidateCode);
+        this.callDuration = RequestTiming.ms(candidateNanos);
+        this.latencyRatio = baselineNanos > 0 && candidateNanos >= 0 ? (double) candidateNanos / baselineNanos : -1;
+        this.statusMatch = baselineCode == candidateCode;
+        this.compared = baseline != null && candidate != null;
+        this.baselineNumFound = baseline == null ? -1 : baseline.getNumFound();
+        this.candidateNumFound = candidate == null ? -1 : candidate.getNumFound();
+        this.numFoundMatch = compared && baselineNumFound == candidateNumFound;
+        this.docsMatch = compared && baseline.getDocs() == candidate.getDocs() &&
+                         baseline.getDocsHash() == candidate.getDocsHash();
+        this.regression = latencyRatio > regressionRatio;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public double getCallDuration() {
+        return callDuration;
+    }
+
+    /**
+     * @return candidate duration / baseline duration (-1 if unknown)
+     */
+    public double getLatencyRatio() {
+        return latencyRatio;
+    }
+
+    public boolean isStatusMatch() {
+        return statusMatch;
+    }
+
+    /**
+     * @return if both responses could be read, and thus compared
+     */
+    public boolean isCompared() {
+        return compared;
+    }
+
+    public long getBaselineNumFound() {
+        return baselineNumFound;
+    }
+
+    public long getCandidateNumFound() {
+        return candidateNumFound;
+    }
+
+    public boolean isNumFoundMatch() {
+        return numFoundMatch;
+    }
+
+    public boolean isDocsMatch() {
+        return docsMatch;
+    }
+
+    public boolean isRegression() {
+        return regression;
+    }
+
+    @Override
+    public String toString() {
+        return "MirrorResult{" + "node=" + node + ", status=" + status + ", latencyRatio=" + latencyRatio +
+               ", numFound=" + baselineNumFound + "/" + candidateNumFound + ", docsMatch=" + docsMatch + '}';
+    }
+}
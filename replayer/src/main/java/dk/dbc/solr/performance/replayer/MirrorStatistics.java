@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.DoubleHistogram;
+import org.HdrHistogram.DoubleRecorder;
+
+/**
+ * Aggregation of mirrored calls: latencies of both sides, the latency ratio
+ * and counts of mismatches and regressions
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MirrorStatistics {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double[] PERCENTILES = new double[] {50.0, 90.0, 99.0};
+
+    private final LatencyHistograms latency;
+    private final DoubleRecorder ratio;
+    private final DoubleHistogram ratios;
+    private final AtomicLong calls;
+    private final AtomicLong compared;
+    private final AtomicLong statusMismatches;
+    private final AtomicLong numFoundMismatches;
+    private final AtomicLong docsMismatches;
+    private final AtomicLong regressions;
+
+    public MirrorStatistics() {
+        this.latency = new LatencyHistograms();
+        this.ratio = new DoubleRecorder(SIGNIFICANT_DIGITS);
+        this.ratios = new DoubleHistogram(SIGNIFICANT_DIGITS);
+        this.calls = new AtomicLong();
+        this.compared = new AtomicLong();
+        this.statusMismatches = new AtomicLong();
+        this.numFoundMismatches = new AtomicLong();
+        this.docsMismatches = new AtomicLong();
+        this.regressions = new AtomicLong();
+    }
+
+    /**
+     * Record a mirrored call
+     *
+     * @param result         the comparison
+     * @param baselineNanos  duration of the baseline call
+     * @param candidateNanos duration of the candidate call
+     */
+    public void record(MirrorResult result, long baselineNanos, long candidateNanos) {
+        calls.incrementAndGet();
+        latency.record("baseline", baselineNanos);
+        latency.record("candidate", candidateNanos);
+        if (result.getLatencyRatio() > 0)
+            ratio.recordValue(result.getLatencyRatio());
+        if (!result.isStatusMatch())
+            statusMismatches.incrementAndGet();
+        if (result.isCompared()) {
+            compared.incrementAndGet();
+            if (!result.isNumFoundMatch())
+                numFoundMismatches.incrementAndGet();
+            if (!result.isDocsMatch())
+                docsMismatches.incrementAndGet();
+        }
+        if (result.isRegression())
+            regressions.incrementAndGet();
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Counts, latencies of both sides and percentiles of the latency ratio
+     *
+     * @return map of name to value
+     */
+    public synchronized Map<String, Object> summary() {
+        ratios.add(ratio.getIntervalHistogram());
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("calls", calls.get());
+        summary.put("compared", compared.get());
+        summary.put("statusMismatches", statusMismatches.get());
+        summary.put("numFoundMismatches", numFoundMismatches.get());
+        summary.put("docsMismatches", docsMismatches.get());
+        summary.put("regressions", regressions.get());
+        summary.put("latency", latency.summary());
+        Map<String, Object> ratioSummary = new LinkedHashMap<>();
+        if (ratios.getTotalCount() > 0) {
+            for (double percentile : PERCENTILES) {
+                ratioSummary.put("p" + (int) percentile, ratios.getValueAtPercentile(percentile));
+            }
+            ratioSummary.put("max", ratios.getMaxValue());
+        }
+        summary.put("latencyRatio", ratioSummary);
+        return summary;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Statistics of a connection pool, with peaks of leased and pending
+ * connections
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class PoolStatistics {
+
+    private final ConnPoolControl<?> pool;
+    private final AtomicInteger peakLeased;
+    private final AtomicInteger peakPending;
+
+    public PoolStatistics(ConnPoolControl<?> pool) {
+        this.pool = pool;
+        this.peakLeased = new AtomicInteger();
+        this.peakPending = new AtomicInteger();
+    }
+
+    /**
+     * Take note of the current number of leased and pending connections
+     */
+    public void sample() {
+        PoolStats stats = pool.getTotalStats();
+        peakLeased.accumulateAndGet(stats.getLeased(), Math::max);
+        peakPending.accumulateAndGet(stats.getPending(), Math::max);
+    }
+
+    /**
+     * Current pool statistics, and the peaks seen by {@link #sample()}
+     *
+     * @return map of name to value
+     */
+    public Map<String, Integer> getStats() {
+        sample();
+        PoolStats stats = pool.getTotalStats();
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("max", stats.getMax());
+        map.put("leased", stats.getLeased());
+        map.put("idle", stats.getAvailable());
+        map.put("pending", stats.getPending());
+        map.put("peakLeased", peakLeased.get());
+        map.put("peakPending", peakPending.get());
+        return map;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read a recording ahead of the replay, on a thread of its own
+ * <p>
+ * Lines are read and parsed into a bounded queue, so a slow read (pipes,
+ * network file systems) doesn't delay the dispatch of lines already read,
+ * and the end of the input is only seen when it has been reached, not
+ * when the next block isn't buffered yet.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class PrefetchingRecordingReader implements RecordingReader {
+
+    private static final LogLine COMMENT = LogLine.of("#");
+    private static final LogLine END = LogLine.of("# end of input");
+
+    private final RecordingReader source;
+    private final BlockingQueue<LogLine> queue;
+    private final int size;
+    private final Thread thread;
+    private volatile IOException error;
+    private volatile long malformed;
+    private volatile boolean closed;
+    private LogLine line;
+    private int peakDepth;
+    private long emptyWaits;
+
+    /**
+     * Start reading ahead
+     *
+     * @param source the recording
+     * @param size   max number of lines read ahead
+     */
+    public PrefetchingRecordingReader(RecordingReader source, int size) {
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<>(size);
+        this.size = size;
+        this.thread = new Thread(this::readLoop, "recording-reader");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void readLoop() {
+        try {
+            try {
+                while (!closed && source.next()) {
+                    LogLine next = COMMENT;
+                    if (source.isValid())
+                        next = source.getLine();
+                    else
+                        malformed = source.getMalformed();
+                    queue.put(next);
+                }
+            } catch (IOException | RuntimeException ex) {
+                if (!closed)
+                    error = ex instanceof IOException ? (IOException) ex : new IOException(ex.getMessage(), ex);
+            }
+            malformed = source.getMalformed();
+            queue.put(END);
+        } catch (InterruptedException ex) {
+            // Closed while waiting for room
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (line == END)
+            return false;
+        int depth = queue.size();
+        if (depth > peakDepth)
+            peakDepth = depth;
+        LogLine next = queue.poll();
+        try {
+            if (next == null) {
+                emptyWaits++;
+                next = queue.take();
+            }
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted waiting for input");
+        }
+        line = next;
+        if (next == END) {
+            if (error != null)
+                throw error;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isValid() {
+        return line.isValid();
+    }
+
+    @Override
+    public long getTimeDelta() {
+        return line.getTimeDelta();
+    }
+
+    @Override
+    public LogLine getLine() {
+        return line;
+    }
+
+    @Override
+    public long getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Number of lines read ahead, and not yet replayed
+     *
+     * @return lines
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Statistics of the read ahead
+     *
+     * @return size (max lines), peakDepth (most lines read ahead) and
+     *         emptyWaits (times the replay had to wait for input)
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", (long) size);
+        stats.put("peakDepth", (long) peakDepth);
+        stats.put("emptyWaits", emptyWaits);
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming extraction of QTime from a solr response
+ * <p>
+ * Bytes are fed as they are read from the response, and the first
+ * occurrence of "QTime" within the first {@value #SCAN_LIMIT} bytes (the
+ * responseHeader) is decoded. Text based response writers (json, xml, phps,
+ * python, ruby ...) have the number in digits shortly after the name,
+ * javabin has it as a (small) integer tag right after the name.
+ * <p>
+ * Nothing is buffered, so the cost is a few comparisons per byte until the
+ * value is found
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class QTimeExtractor {
+
+    static final int SCAN_LIMIT = 8192;
+
+    private static final byte[] NAME = "QTime".getBytes(StandardCharsets.US_ASCII);
+    // How many non digits is allowed between name and value in text formats
+    private static final int MAX_SEPARATOR = 16;
+
+    // javabin tags
+    private static final int JAVABIN_INT = 6;
+    private static final int JAVABIN_SINT = 3 << 5;
+    private static final int JAVABIN_TAG_MASK = 0xe0;
+
+    private enum State {
+        NAME, AFTER_NAME, DIGITS, JAVABIN_INT, JAVABIN_VINT, DONE
+    }
+
+    private State state;
+    private int scanned;
+    private int matched;
+    private int separators;
+    private long value;
+    private int shift;
+    private int qTime;
+
+    public QTimeExtractor() {
+        this.state = State.NAME;
+        this.scanned = 0;
+        this.matched = 0;
+        this.qTime = -1;
+    }
+
+    /**
+     * Feed bytes from the response
+     *
+     * @param bytes  buffer
+     * @param offset where to start in buffer
+     * @param length how many bytes are valid
+     */
+    public void accept(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset ; i < end && state != State.DONE ; i++) {
+            accept(bytes[i] & 0xff);
+        }
+    }
+
+    private void accept(int b) {
+        switch (state) {
+            case NAME:
+                if (++scanned > SCAN_LIMIT) {
+                    state = State.DONE;
+                } else if (b == NAME[matched]) {
+                    if (++matched == NAME.length) {
+                        state = State.AFTER_NAME;
+                        separators = 0;
+                    }
+                } else {
+                    matched = b == NAME[0] ? 1 : 0;
+                }
+                break;
+            case AFTER_NAME:
+                // javabin tags follows the name directly, text formats has
+                // quotes or similar first
+                if (separators == 0 && b == JAVABIN_INT) {
+                    value = 0;
+                    shift = 4;
+                    state = State.JAVABIN_INT;
+                } else if (separators == 0 && ( b & JAVABIN_TAG_MASK ) == JAVABIN_SINT) {
+                    value = b & 0x0f;
+                    shift = 4;
+                    if (( b & 0x10 ) == 0) {
+                        found(value);
+                    } else {
+                        state = State.JAVABIN_VINT;
+                    }
+                } else if (isDigit(b)) {
+                    value = b - '0';
+                    state = State.DIGITS;
+                } else if (++separators > MAX_SEPARATOR) {
+                    restart();
+                }
+                break;
+            case DIGITS:
+                if (isDigit(b)) {
+                    value = value * 10 + ( b - '0' );
+                    if (value > Integer.MAX_VALUE)
+                        restart();
+                } else {
+                    found(value);
+                }
+                break;
+            case JAVABIN_INT:
+                value = ( value << 8 ) | b;
+                if (--shift == 0)
+                    found(value);
+                break;
+            case JAVABIN_VINT:
+                value |= (long) ( b & 0x7f ) << shift;
+                shift += 7;
+                if (( b & 0x80 ) == 0) {
+                    found(value);
+                } else if (shift > 32) {
+                    restart();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The response has been read completely
+     * <p>
+     * A trailing number (response is only a QTime) is accepted
+     */
+    public void end() {
+        if (state == State.DIGITS)
+            found(value);
+    }
+
+    /**
+     * The extracted QTime
+     *
+     * @return QTime in ms, or -1 if it wasn't found
+     */
+    public int getQTime() {
+        return qTime;
+    }
+
+    private void found(long value) {
+        if (value >= 0 && value <= Integer.MAX_VALUE)
+            qTime = (int) value;
+        state = State.DONE;
+    }
+
+    private void restart() {
+        state = State.NAME;
+        matched = 0;
+    }
+
+    private static boolean isDigit(int b) {
+        return b >= '0' && b <= '9';
+    }
+}
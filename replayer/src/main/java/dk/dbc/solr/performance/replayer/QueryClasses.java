@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.solr.performance.Compression;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency per query class (see {@link QuerySignature})
+ * <p>
+ * The classes with the most calls are tracked by Space-Saving counters, 4
+ * times as many as are reported, each with a histogram of its own. When a
+ * new class is seen and all counters are taken, the class with the lowest
+ * count is evicted (its histogram is added to "other"), and the new class
+ * takes over its count. So memory doesn't grow with the number of classes,
+ * and a frequent class is tracked, even if it first appears late in the
+ * replay. The report has the top classes by number of calls, the rest are
+ * summarized as "other". Given the report of a baseline run, the classes
+ * whose latency (p50 or p99) has grown by more than the regression ratio are
+ * listed as regressions.
+ * <p>
+ * The histograms have 2 significant digits, so many classes can be tracked
+ * in little memory.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class QueryClasses {
+
+    static final String OTHER = "other";
+    /**
+     * Number of calls a class needs, in both runs, to be compared
+     */
+    static final long MIN_CALLS = 20;
+
+    private static final long HIGHEST_TRACKABLE = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final int top;
+    private final int capacity;
+    private final double regressionRatio;
+    private final Map<?, ?> baseline;
+    private final Map<String, Counter> tracked;
+    private final Histogram other;
+
+    /**
+     * @param top             number of classes reported
+     * @param regressionRatio latency ratio above which a class has regressed
+     * @param baseline        the classes of a baseline report (see
+     *                        {@link #readBaseline(String)}) or null
+     */
+    public QueryClasses(int top, double regressionRatio, Map<?, ?> baseline) {
+        this.top = top;
+        this.capacity = top * 4;
+        this.regressionRatio = regressionRatio;
+        this.baseline = baseline;
+        this.tracked = new HashMap<>();
+        this.other = newHistogram();
+    }
+
+    /**
+     * The query classes of a configuration
+     *
+     * @param config  the configuration
+     * @param compare if the --baseline should be read
+     * @return query classes, or null if they are disabled
+     * @throws IOException if the baseline cannot be read
+     */
+    public static QueryClasses of(Config config, boolean compare) throws IOException {
+        if (config.getQueryClasses() == 0)
+            return null;
+        Map<?, ?> baseline = compare && config.getBaseline() != null ? readBaseline(config.getBaseline()) : null;
+        return new QueryClasses(config.getQueryClasses(), config.getRegressionRatio(), baseline);
+    }
+
+    /**
+     * Read the query classes of a previous replay
+     *
+     * @param file output of the replayer (possibly compressed)
+     * @return classes by signature
+     * @throws IOException if the file cannot be read, or has no query classes
+     */
+    public static Map<?, ?> readBaseline(String file) throws IOException {
+        try (InputStream is = Compression.open(file)) {
+            Map<?, ?> output = new ObjectMapper().readValue(is, Map.class);
+            Object queryClasses = output.get("queryClasses");
+            if (!( queryClasses instanceof Map ) || !( ( (Map<?, ?>) queryClasses ).get("classes") instanceof Map ))
+                throw new IOException("No queryClasses in " + file);
+            return (Map<?, ?>) ( (Map<?, ?>) queryClasses ).get("classes");
+        }
+    }
+
+    /**
+     * Record the latency of a call
+     *
+     * @param query the query that was sent
+     * @param nanos service time in nanoseconds
+     */
+    public void record(String query, long nanos) {
+        long micros = Math.min(HIGHEST_TRACKABLE, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        String signature = QuerySignature.of(query);
+        synchronized (tracked) {
+            Counter counter = tracked.get(signature);
+            if (counter == null) {
+                long count = 0;
+                if (tracked.size() >= capacity) {
+                    Map.Entry<String, Counter> lowest = Collections.min(tracked.entrySet(),
+                                                                        Comparator.comparingLong(e -> e.getValue().count));
+                    tracked.remove(lowest.getKey());
+                    other.add(lowest.getValue().histogram);
+                    count = lowest.getValue().count;
+                }
+                counter = new Counter(count);
+                tracked.put(signature, counter);
+            }
+            counter.count++;
+            counter.histogram.recordValue(micros);
+        }
+    }
+
+    /**
+     * Copy of the histograms, calls not in a class of their own are in
+     * "other"
+     *
+     * @return histogram per signature
+     */
+    public Map<String, Histogram> histograms() {
+        Map<String, Histogram> histograms = new TreeMap<>();
+        synchronized (tracked) {
+            tracked.forEach((signature, counter) -> histograms.put(signature, counter.histogram.copy()));
+            histograms.put(OTHER, other.copy());
+        }
+        return histograms;
+    }
+
+    /**
+     * Encode the histograms, so they can be merged in another process
+     *
+     * @return base64 text per signature
+     */
+    public Map<String, String> encoded() {
+        Map<String, String> encoded = new TreeMap<>();
+        histograms().forEach((signature, histogram) -> encoded.put(signature, LatencyHistograms.encode(histogram)));
+        return encoded;
+    }
+
+    /**
+     * The report of this run
+     *
+     * @return the top classes, "other" and regressions if there's a baseline
+     */
+    public Map<String, Object> report() {
+        return report(histograms());
+    }
+
+    /**
+     * The report of a (merged) set of histograms
+     *
+     * @param histograms histogram per signature, including "other"
+     * @return the top classes, "other" and regressions if there's a baseline
+     */
+    public Map<String, Object> report(Map<String, Histogram> histograms) {
+        long total = histograms.values().stream().mapToLong(Histogram::getTotalCount).sum();
+        List<Map.Entry<String, Histogram>> classes = new ArrayList<>();
+        Histogram rest = newHistogram();
+        histograms.forEach((signature, histogram) -> {
+            if (OTHER.equals(signature))
+                rest.add(histogram);
+            else
+                classes.add(new AbstractMap.SimpleEntry<>(signature, histogram));
+        });
+        classes.sort(Comparator.comparingLong((Map.Entry<String, Histogram> e) -> e.getValue().getTotalCount()).reversed()
+                .thenComparing(Map.Entry::getKey));
+
+        Map<String, Object> reported = new LinkedHashMap<>();
+        List<String> regressions = new ArrayList<>();
+        for (int i = 0 ; i < classes.size() ; i++) {
+            String signature = classes.get(i).getKey();
+            Histogram histogram = classes.get(i).getValue();
+            if (i >= top) {
+                rest.add(histogram);
+                continue;
+            }
+            Map<String, Object> summary = LatencyHistograms.summarize(histogram);
+            summary.put("share", total == 0 ? 0.0 : (double) histogram.getTotalCount() / total);
+            if (baseline != null && baseline.get(signature) instanceof Map) {
+                Map<String, Object> comparison = compare(summary, (Map<?, ?>) baseline.get(signature));
+                summary.put("baseline", comparison);
+                if (Boolean.TRUE.equals(comparison.get("regressed")))
+                    regressions.add(signature);
+            }
+            reported.put(signature, summary);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("tracked", classes.size());
+        report.put("classes", reported);
+        report.put(OTHER, LatencyHistograms.summarize(rest));
+        if (baseline != null)
+            report.put("regressions", regressions);
+        return report;
+    }
+
+    /**
+     * Compare the summary of a class to the baseline summary
+     */
+    private Map<String, Object> compare(Map<String, Object> summary, Map<?, ?> base) {
+        Map<String, Object> comparison = new LinkedHashMap<>();
+        boolean comparable = number(base.get("count")) >= MIN_CALLS &&
+                             number(summary.get("count")) >= MIN_CALLS;
+        boolean regressed = false;
+        comparison.put("count", base.get("count"));
+        for (String percentile : new String[] {"p50", "p99"}) {
+            double before = number(base.get(percentile));
+            double now = number(summary.get(percentile));
+            comparison.put(percentile, before);
+            if (before > 0) {
+                double ratio = now / before;
+                comparison.put(percentile + "Ratio", ratio);
+                if (comparable && ratio > regressionRatio)
+                    regressed = true;
+            }
+        }
+        comparison.put("regressed", regressed);
+        return comparison;
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ( (Number) value ).doubleValue() : 0.0;
+    }
+
+    private static Histogram newHistogram() {
+        return new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Space-Saving counter of a tracked class, the count is an upper bound
+     * of the calls of the class
+     */
+    private static class Counter {
+
+        private long count;
+        private final Histogram histogram;
+
+        private Counter(long count) {
+            this.count = count;
+            this.histogram = newHistogram();
+        }
+    }
+}
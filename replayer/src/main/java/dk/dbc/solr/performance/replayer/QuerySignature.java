@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The class of a query: what it asks solr to do, without the values it
+ * asks for
+ * <p>
+ * The signature is made from the handler (qt, default select), the names of
+ * the parameters, the facet fields, the sort and the number of rows in
+ * buckets (0, 1-10, 11-100, 101-1000, 1001+). Ie. a facet-heavy search and
+ * an id lookup get different signatures, while two id lookups get the same.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public final class QuerySignature {
+
+    private QuerySignature() {
+    }
+
+    /**
+     * Compute the signature of a query
+     *
+     * @param query query string as recorded (url encoded)
+     * @return signature ie. "select;params=fl,q,rows;rows=1-10"
+     */
+    public static String of(String query) {
+        String handler = "select";
+        Set<String> params = new TreeSet<>();
+        Set<String> facets = new TreeSet<>();
+        String sort = null;
+        String rows = null;
+        int start = 0;
+        while (start <= query.length()) {
+            int end = query.indexOf('&', start);
+            if (end == -1)
+                end = query.length();
+            if (end > start) {
+                int eq = query.indexOf('=', start);
+                if (eq == -1 || eq > end)
+                    eq = end;
+                String name = decode(query.substring(start, eq));
+                String value = eq < end ? decode(query.substring(eq + 1, end)) : "";
+                // Added by cache mode bust, the class is that of the recorded query
+                if (name.equals(CacheMode.BUST_PARAMETER)) {
+                    start = end + 1;
+                    continue;
+                }
+                params.add(name);
+                switch (name) {
+                    case "qt":
+                        handler = value;
+                        break;
+                    case "facet.field":
+                    case "facet.pivot":
+                    case "facet.range":
+                        facets.add(stripLocalParams(value));
+                        break;
+                    case "sort":
+                        sort = value.trim().replaceAll("\\s+", " ");
+                        break;
+                    case "rows":
+                        rows = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            start = end + 1;
+        }
+        StringBuilder signature = new StringBuilder(handler)
+                .append(";params=").append(String.join(",", params));
+        if (!facets.isEmpty())
+            signature.append(";facet=").append(String.join(",", facets));
+        if (sort != null)
+            signature.append(";sort=").append(sort);
+        return signature.append(";rows=").append(rowsBucket(rows)).toString();
+    }
+
+    /**
+     * Bucket a number of rows
+     *
+     * @param rows rows parameter (null if not given, solr defaults to 10)
+     * @return bucket name
+     */
+    static String rowsBucket(String rows) {
+        long value;
+        try {
+            value = rows == null ? 10 : Long.parseLong(rows.trim());
+        } catch (NumberFormatException ex) {
+            return "?";
+        }
+        if (value <= 0)
+            return "0";
+        if (value <= 10)
+            return "1-10";
+        if (value <= 100)
+            return "11-100";
+        if (value <= 1000)
+            return "101-1000";
+        return "1001+";
+    }
+
+    /**
+     * Remove local params ie. {!ex=type}facet.type becomes facet.type
+     */
+    private static String stripLocalParams(String value) {
+        if (value.startsWith("{!")) {
+            int end = value.indexOf('}');
+            if (end != -1)
+                return value.substring(end + 1);
+        }
+        return value;
+    }
+
+    private static String decode(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return text;
+        }
+    }
+}
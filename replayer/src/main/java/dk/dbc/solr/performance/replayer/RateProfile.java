@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * How fast the recording is replayed, over the course of the run
+ * <p>
+ * The speed is a multiplier of the recorded rate (2 is twice as many calls
+ * per second as recorded), that can change with the time since start. The
+ * profile maps a time in the recording to the time (since start) it should
+ * be replayed at, so the recorded arrival pattern is kept, only compressed
+ * or stretched.
+ * <p>
+ * Speeds are given as multipliers ie. {@code 3x}, or (as the legacy
+ * {@code --replay}) percent of the original delay ie. {@code 50} for twice as
+ * fast. {@code 0} means no delay at all. Profiles are:
+ * <ul>
+ * <li>{@code linear:FROM:TO:DURATION} - ramp the speed from FROM to TO over
+ * DURATION, then keep TO
+ * <li>{@code step:SPEED,SPEED,...:DURATION} - each speed for DURATION, the
+ * last one is kept
+ * <li>{@code spike:BASE:PEAK:AT:DURATION} - BASE speed, except PEAK from AT
+ * for DURATION
+ * </ul>
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RateProfile {
+
+    private static final long MS = 1_000_000L;
+
+    private final String text;
+    private final List<Segment> segments;
+
+    private RateProfile(String text, List<Segment> segments) {
+        this.text = text;
+        this.segments = segments;
+    }
+
+    /**
+     * A constant speed
+     *
+     * @param speed multiplier of the recorded rate,
+     *              {@link Double#POSITIVE_INFINITY} for no delay
+     * @return profile
+     */
+    public static RateProfile constant(double speed) {
+        List<Segment> segments = new ArrayList<>();
+        segments.add(new Segment(0, Double.POSITIVE_INFINITY, speed, speed, 0));
+        return new RateProfile(speed == Double.POSITIVE_INFINITY ? "no delay" : formatSpeed(speed), segments);
+    }
+
+    /**
+     * Parse a speed
+     *
+     * @param text multiplier ie. "3x" or percent of original delay ie. "50"
+     * @return speed multiplier, {@link Double#POSITIVE_INFINITY} for "0"
+     */
+    public static double parseSpeed(String text) {
+        String t = text.trim().toLowerCase(Locale.ROOT);
+        double value;
+        if (t.endsWith("x")) {
+            value = Double.parseDouble(t.substring(0, t.length() - 1));
+            if (!( value > 0 ) || Double.isInfinite(value))
+                throw new IllegalArgumentException("Speed multiplier needs to be positive: " + text);
+            return value;
+        }
+        value = Double.parseDouble(t);
+        if (value < 0 || Double.isInfinite(value) || Double.isNaN(value))
+            throw new IllegalArgumentException("Replay speed cannot be negative: " + text);
+        if (value == 0)
+            return Double.POSITIVE_INFINITY;
+        return 100.0 / value;
+    }
+
+    /**
+     * Parse a profile
+     *
+     * @param text     profile specification (see class documentation)
+     * @param timeSpec parser of durations into milliseconds
+     * @return profile
+     */
+    public static RateProfile of(String text, Function<String, Long> timeSpec) {
+        String[] parts = text.split(":");
+        List<Segment> segments = new ArrayList<>();
+        try {
+            switch (parts[0].toLowerCase(Locale.ROOT)) {
+                case "linear": {
+                    check(parts, 4, "linear:FROM:TO:DURATION");
+                    double from = finiteSpeed(parts[1]);
+                    double to = finiteSpeed(parts[2]);
+                    double duration = timeSpec.apply(parts[3]) * MS;
+                    segments.add(new Segment(0, duration, from, to, 0));
+                    break;
+                }
+                case "step": {
+                    check(parts, 3, "step:SPEED,SPEED,...:DURATION");
+                    double duration = timeSpec.apply(parts[2]) * MS;
+                    String[] speeds = parts[1].split(",");
+                    for (int i = 0 ; i < speeds.length ; i++) {
+                        double speed = finiteSpeed(speeds[i]);
+                        segments.add(new Segment(0, i == speeds.length - 1 ? Double.POSITIVE_INFINITY : duration, speed, speed, 0));
+                    }
+                    break;
+                }
+                case "spike": {
+                    check(parts, 5, "spike:BASE:PEAK:AT:DURATION");
+                    double base = finiteSpeed(parts[1]);
+                    double peak = finiteSpeed(parts[2]);
+                    double at = timeSpec.apply(parts[3]) * MS;
+                    double duration = timeSpec.apply(parts[4]) * MS;
+                    segments.add(new Segment(0, at, base, base, 0));
+                    segments.add(new Segment(0, duration, peak, peak, 0));
+                    segments.add(new Segment(0, Double.POSITIVE_INFINITY, base, base, 0));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown rate profile: " + text + " (use linear, step or spike)");
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid rate profile: " + text);
+        }
+        Segment last = segments.get(segments.size() - 1);
+        if (last.length != Double.POSITIVE_INFINITY)
+            segments.add(new Segment(0, Double.POSITIVE_INFINITY, last.endSpeed, last.endSpeed, 0));
+        // Lay out the segments end to end
+        double wall = 0;
+        double recorded = 0;
+        List<Segment> laidOut = new ArrayList<>();
+        for (Segment segment : segments) {
+            Segment s = new Segment(wall, segment.length, segment.startSpeed, segment.endSpeed, recorded);
+            laidOut.add(s);
+            wall += s.length;
+            recorded += s.recordedLength();
+        }
+        return new RateProfile(text, laidOut);
+    }
+
+    private static String formatSpeed(double speed) {
+        return BigDecimal.valueOf(speed).round(new MathContext(4)).stripTrailingZeros().toPlainString() + "x";
+    }
+
+    private static void check(String[] parts, int count, String syntax) {
+        if (parts.length != count)
+            throw new IllegalArgumentException("Invalid rate profile, use " + syntax);
+    }
+
+    private static double finiteSpeed(String text) {
+        double speed = parseSpeed(text);
+        if (speed == Double.POSITIVE_INFINITY)
+            throw new IllegalArgumentException("No delay (0) cannot be part of a rate profile");
+        return speed;
+    }
+
+    /**
+     * When a point in the recording should be replayed
+     *
+     * @param recordedNanos time since start of the recording
+     * @return time since start of the run
+     */
+    public long wallTime(long recordedNanos) {
+        for (Segment segment : segments) {
+            if (recordedNanos < segment.recordedStart + segment.recordedLength())
+                return Math.round(segment.wallStart + segment.wallTime(recordedNanos - segment.recordedStart));
+        }
+        // Unreachable, the last segment is infinite
+        throw new IllegalStateException("Time is beyond the rate profile");
+    }
+
+    /**
+     * The speed at a point of the run
+     *
+     * @param wallNanos time since start of the run
+     * @return speed multiplier
+     */
+    public double speedAt(long wallNanos) {
+        for (Segment segment : segments) {
+            if (wallNanos < segment.wallStart + segment.length)
+                return segment.speedAt(wallNanos - segment.wallStart);
+        }
+        return segments.get(segments.size() - 1).endSpeed;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * A part of the run, where the speed changes linearly
+     */
+    private static class Segment {
+
+        private final double wallStart;
+        private final double length;
+        private final double startSpeed;
+        private final double endSpeed;
+        private final double recordedStart;
+
+        private Segment(double wallStart, double length, double startSpeed, double endSpeed, double recordedStart) {
+            this.wallStart = wallStart;
+            this.length = length;
+            this.startSpeed = startSpeed;
+            this.endSpeed = endSpeed;
+            this.recordedStart = recordedStart;
+        }
+
+        private double speedAt(double offset) {
+            if (startSpeed == endSpeed)
+                return startSpeed;
+            return startSpeed + ( endSpeed - startSpeed ) * offset / length;
+        }
+
+        /**
+         * @return how much of the recording is replayed during the segment
+         */
+        private double recordedLength() {
+            if (length == Double.POSITIVE_INFINITY)
+                return Double.POSITIVE_INFINITY;
+            return ( startSpeed + endSpeed ) / 2 * length;
+        }
+
+        /**
+         * Inverse of the recording replayed after offset: startSpeed * offset
+         * + (endSpeed - startSpeed) * offset^2 / (2 * length)
+         *
+         * @param recorded part of the recording replayed in this segment
+         * @return offset into the segment
+         */
+        private double wallTime(double recorded) {
+            if (startSpeed == Double.POSITIVE_INFINITY)
+                return 0;
+            if (startSpeed == endSpeed)
+                return recorded / startSpeed;
+            double a = ( endSpeed - startSpeed ) / ( 2 * length );
+            return 2 * recorded / ( startSpeed + Math.sqrt(startSpeed * startSpeed + 4 * a * recorded) );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the intended and the achieved number of dispatches per interval
+ * <p>
+ * Intended is when the {@link Scheduler} wanted a line dispatched, achieved
+ * is when it actually was handed to the engine. If the dispatcher cannot keep
+ * up with the {@link RateProfile}, the achieved rate lags behind.
+ * <p>
+ * Not thread safe, only the dispatcher records.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RateTracker {
+
+    private final RateProfile profile;
+    private final long origin;
+    private final long interval;
+    private long[] intended;
+    private long[] achieved;
+    private int size;
+
+    /**
+     * @param profile  the speed the run is replayed at
+     * @param origin   start of the run (nanoTime)
+     * @param interval interval length (ms)
+     */
+    public RateTracker(RateProfile profile, long origin, long interval) {
+        this.profile = profile;
+        this.origin = origin;
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.intended = new long[64];
+        this.achieved = new long[64];
+        this.size = 0;
+    }
+
+    /**
+     * Count a dispatch
+     *
+     * @param intendedDispatch when the line should have been dispatched
+     *                         (nanoTime)
+     * @param actualDispatch   when the line was dispatched (nanoTime)
+     */
+    public void record(long intendedDispatch, long actualDispatch) {
+        intended[slot(intendedDispatch)]++;
+        achieved[slot(actualDispatch)]++;
+    }
+
+    private int slot(long nanoTime) {
+        int slot = (int) ( Math.max(0, nanoTime - origin) / interval );
+        if (slot >= intended.length) {
+            int length = Math.max(slot + 1, intended.length * 2);
+            intended = Arrays.copyOf(intended, length);
+            achieved = Arrays.copyOf(achieved, length);
+        }
+        size = Math.max(size, slot + 1);
+        return slot;
+    }
+
+    /**
+     * The rates side by side
+     *
+     * @return list of interval (seconds since start), speed (multiplier at
+     *         the start of the interval), intended and achieved (calls per
+     *         second)
+     */
+    public List<Map<String, Object>> intervals() {
+        double seconds = interval / 1e9;
+        List<Map<String, Object>> list = new ArrayList<>(size);
+        for (int i = 0 ; i < size ; i++) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("interval", i * seconds);
+            entry.put("speed", profile.speedAt(i * interval));
+            entry.put("intended", intended[i] / seconds);
+            entry.put("achieved", achieved[i] / seconds);
+            list.add(entry);
+        }
+        return list;
+    }
+}
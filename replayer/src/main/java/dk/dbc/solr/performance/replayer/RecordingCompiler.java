@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compile a text recording into the binary format read by
+ * {@link BinaryRecordingReader}
+ * <p>
+ * Time deltas are delta encoded, queries are kept once in a dictionary, and
+ * are stored uri encoded, so a call can be made without quoting the query
+ * first. Comments and malformed lines are left out (and counted).
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RecordingCompiler {
+
+    private final Map<String, Integer> dictionary;
+    private final List<byte[]> queries;
+    private long lines;
+    private long skipped;
+    private long malformed;
+    private long previousTimeDelta;
+    private long position;
+
+    private RecordingCompiler() {
+        this.dictionary = new HashMap<>();
+        this.queries = new ArrayList<>();
+    }
+
+    /**
+     * Compile a recording
+     *
+     * @param input  recording (file name or null for stdin)
+     * @param output file to write the compiled recording to
+     * @return number of lines, distinct queries, skipped lines and the
+     *         malformed of those
+     * @throws IOException if the input cannot be read or the output cannot be
+     *                     written
+     */
+    public static Map<String, Long> compile(String input, Path output) throws IOException {
+        return new RecordingCompiler().run(input, output);
+    }
+
+    private Map<String, Long> run(String input, Path output) throws IOException {
+        try (RecordingReader reader = RecordingReader.open(input) ;
+             FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(BinaryRecordingReader.HEADER);
+            OutputStream os = new BufferedOutputStream(Channels.newOutputStream(channel));
+            position = BinaryRecordingReader.HEADER;
+            while (reader.next()) {
+                if (!reader.isValid()) {
+                    skipped++;
+                    continue;
+                }
+                long timeDelta = reader.getTimeDelta();
+                long delta = timeDelta - previousTimeDelta;
+                previousTimeDelta = timeDelta;
+                writeVarLong(os, ( delta << 1 ) ^ ( delta >> 63 ));
+                writeVarLong(os, number(reader.getLine().getQuery()));
+                lines++;
+            }
+
+            long dictionaryOffset = position;
+            long[] offsets = new long[queries.size()];
+            for (int i = 0 ; i < offsets.length ; i++) {
+                byte[] query = queries.get(i);
+                offsets[i] = position;
+                writeInt(os, query.length);
+                os.write(query);
+                position += query.length;
+            }
+            long indexOffset = position;
+            for (long offset : offsets) {
+                writeLong(os, offset);
+            }
+            os.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(BinaryRecordingReader.HEADER);
+            header.put(BinaryRecordingReader.MAGIC)
+                    .putLong(lines)
+                    .putLong(dictionaryOffset)
+                    .putLong(indexOffset)
+                    .flip();
+            channel.write(header, 0);
+            malformed = reader.getMalformed();
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("lines", lines);
+        stats.put("queries", (long) queries.size());
+        stats.put("skipped", skipped);
+        stats.put("malformed", malformed);
+        return stats;
+    }
+
+    /**
+     * The dictionary number of a query, adding it if new
+     */
+    private int number(String query) {
+        Integer number = dictionary.get(query);
+        if (number == null) {
+            number = queries.size();
+            dictionary.put(query, number);
+            queries.add(encode(query).getBytes(StandardCharsets.UTF_8));
+        }
+        return number;
+    }
+
+    /**
+     * Quote what isn't allowed in an uri, as a call would
+     *
+     * @param query recorded query
+     * @return encoded query
+     */
+    static String encode(String query) {
+        try {
+            String encoded = SolrSender.toUri("http://localhost/select?" + query).getRawQuery();
+            return encoded == null ? query : encoded;
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            return query;
+        }
+    }
+
+    private void writeVarLong(OutputStream os, long value) throws IOException {
+        while (( value & ~0x7fL ) != 0) {
+            os.write((int) ( value & 0x7f ) | 0x80);
+            value >>>= 7;
+            position++;
+        }
+        os.write((int) value);
+        position++;
+    }
+
+    private void writeInt(OutputStream os, int value) throws IOException {
+        for (int shift = 24 ; shift >= 0 ; shift -= 8) {
+            os.write(value >>> shift);
+        }
+        position += Integer.BYTES;
+    }
+
+    private void writeLong(OutputStream os, long value) throws IOException {
+        for (int shift = 56 ; shift >= 0 ; shift -= 8) {
+            os.write((int) ( value >>> shift ));
+        }
+        position += Long.BYTES;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import dk.dbc.solr.performance.Compression;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+
+/**
+ * The lines of a recording, in order
+ * <p>
+ * The reader is a cursor: {@link #next()} moves to the next line, and the
+ * current line is looked at through the getters, so lines that aren't
+ * replayed doesn't have to be materialized as {@link LogLine}s.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public interface RecordingReader extends Closeable {
+
+    /**
+     * Open a recording, text (as written by the recorder, possibly gzip or
+     * zstd compressed) or compiled (see {@link RecordingCompiler})
+     *
+     * @param input file name or null for stdin (text only)
+     * @return reader
+     * @throws IOException if the file cannot be opened
+     */
+    static RecordingReader open(String input) throws IOException {
+        return open(input, 0);
+    }
+
+    /**
+     * Open a recording, text recordings are read ahead on a thread of their
+     * own (see {@link PrefetchingRecordingReader}), compiled recordings are
+     * memory mapped
+     *
+     * @param input     file name or null for stdin (text only)
+     * @param readAhead max number of lines read ahead, 0 to read as the
+     *                  lines are replayed
+     * @return reader
+     * @throws IOException if the file cannot be opened
+     */
+    static RecordingReader open(String input, int readAhead) throws IOException {
+        return open(input, readAhead, 0);
+    }
+
+    /**
+     * Open a recording, positioned near an offset into it
+     * <p>
+     * An uncompressed text recording is sought to the last line before the
+     * offset, that is in its {@link dk.dbc.solr.performance.SeekIndex}.
+     * Other recordings are read from the start. Either way, lines before
+     * the offset may be returned, and it is up to the caller to skip them.
+     *
+     * @param input       file name or null for stdin (text only)
+     * @param readAhead   max number of lines read ahead, 0 to read as the
+     *                    lines are replayed
+     * @param startOffset time into the recording (ms)
+     * @return reader
+     * @throws IOException if the file cannot be opened
+     */
+    static RecordingReader open(String input, int readAhead, long startOffset) throws IOException {
+        if (input != null && BinaryRecordingReader.isCompiled(Paths.get(input)))
+            return new BinaryRecordingReader(Paths.get(input));
+        InputStream is = input == null ? Compression.decompress(System.in) : TextRecordingReader.openAt(input, startOffset);
+        RecordingReader reader = new TextRecordingReader(is);
+        if (readAhead > 0)
+            return new PrefetchingRecordingReader(reader, readAhead);
+        return reader;
+    }
+
+    /**
+     * Move to the next line
+     *
+     * @return false at end of input
+     * @throws IOException if the input cannot be read
+     */
+    boolean next() throws IOException;
+
+    /**
+     * If the current line can be replayed (comments cannot)
+     *
+     * @return true for a query line
+     */
+    boolean isValid();
+
+    /**
+     * When the current line was logged relative to start
+     *
+     * @return milliseconds
+     */
+    long getTimeDelta();
+
+    /**
+     * The current line
+     *
+     * @return LogLine object
+     */
+    LogLine getLine();
+
+    /**
+     * Number of malformed lines passed so far, they are not valid
+     *
+     * @return lines
+     */
+    long getMalformed();
+}
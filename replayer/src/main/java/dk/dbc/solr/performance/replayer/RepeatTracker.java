@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tell if a query has been sent recently
+ * <p>
+ * The last WINDOW distinct queries are kept (least recently sent are
+ * forgotten first), like a cache of that size in solr. A query that is
+ * among them is a repeat, and is likely to be served from solr's caches
+ * (warm), other queries are cold.
+ * <p>
+ * This is used from the thread reading the recording only
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RepeatTracker {
+
+    private final LinkedHashMap<String, Boolean> recent;
+
+    /**
+     * @param window number of distinct queries remembered
+     */
+    public RepeatTracker(int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("Repeat window needs to be at least 1");
+        this.recent = new LinkedHashMap<String, Boolean>(Math.min(window, 1 << 16), 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > window;
+            }
+        };
+    }
+
+    /**
+     * Register that a query is sent
+     *
+     * @param query the query
+     * @return if it is a repeat of a recent query
+     */
+    public boolean sent(String query) {
+        return recent.put(query, Boolean.TRUE) != null;
+    }
+}
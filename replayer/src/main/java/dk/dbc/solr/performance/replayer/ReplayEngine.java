@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How calls to solr are executed
+ * <p>
+ * The engines report calls alike (through {@link CallReporter}), and feed
+ * the call durations to the {@link CallTimeWathcer}
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public interface ReplayEngine extends AutoCloseable {
+
+    enum Type {
+        /**
+         * A bounded pool of worker threads, each making one blocking call
+         * at a time
+         */
+        BLOCKING,
+        /**
+         * Non-blocking calls on a few i/o threads, limited only by the
+         * number of calls allowed in flight
+         */
+        ASYNC;
+
+        /**
+         * Case insensitive lookup
+         *
+         * @param name engine name
+         * @return engine type
+         */
+        public static Type of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown engine: " + name + " (use blocking or async)");
+            }
+        }
+    }
+
+    /**
+     * Construct the engine selected on the command line
+     * <p>
+     * When mirroring, the calls are always made by the {@link MirrorEngine},
+     * and with virtual users by the {@link ClosedLoopEngine}
+     *
+     * @param config       configuration
+     * @param logCollector where to log the calls
+     * @param watcher      monitor of call durations
+     * @param jobListener  who to notify if call times are exceeded
+     * @return engine
+     */
+    static ReplayEngine of(Config config, LogCollector logCollector, CallTimeWathcer watcher, JobListener jobListener) {
+        if (!config.getMirrorNodes().isEmpty())
+            return new MirrorEngine(config, logCollector, watcher, jobListener);
+        if (config.getUsers() > 0)
+            return new ClosedLoopEngine(config, logCollector, watcher, jobListener);
+        switch (config.getEngine()) {
+            case BLOCKING:
+                return new BlockingEngine(config, logCollector, watcher, jobListener);
+            case ASYNC:
+                return new AsyncEngine(config, logCollector, watcher, jobListener);
+            default:
+                throw new IllegalStateException("Unknown engine: " + config.getEngine());
+        }
+    }
+
+    /**
+     * Send a call
+     * <p>
+     * This might block, or drop the call, depending on the overflow policy
+     *
+     * @param logLine          the line to replay
+     * @param intendedDispatch when the call should have been sent
+     *                         ({@link System#nanoTime()})
+     */
+    void submit(LogLine logLine, long intendedDispatch);
+
+    /**
+     * Stop accepting calls, and wait for the calls in flight to complete
+     *
+     * @param timeout how long to wait (ms)
+     */
+    void awaitCompletion(long timeout);
+
+    /**
+     * Statistics about concurrency and queueing
+     *
+     * @return map of name to value
+     */
+    Map<String, Long> getWorkerStats();
+
+    /**
+     * Number of lines dropped or shed by the overflow policy, instead of
+     * being sent
+     *
+     * @return count
+     */
+    default long getRejected() {
+        return rejected(getWorkerStats());
+    }
+
+    /**
+     * Number of lines dropped or shed
+     *
+     * @param workerStats as returned by {@link #getWorkerStats()}
+     * @return count
+     */
+    static long rejected(Map<String, Long> workerStats) {
+        return workerStats.getOrDefault("dropped", 0L) + workerStats.getOrDefault("shed", 0L);
+    }
+
+    /**
+     * Statistics about the connection pool
+     *
+     * @return map of name to value
+     */
+    Map<String, Integer> getConnectionStats();
+
+    /**
+     * Statistics about the solr nodes
+     *
+     * @return map of base url to (map of name to value)
+     */
+    Map<String, Map<String, Long>> getNodeStats();
+
+    @Override
+    void close();
+}
@@ -18,15 +18,20 @@
  */
 package dk.dbc.solr.performance.replayer;
 
+import dk.dbc.solr.performance.Compression;
+import dk.dbc.solr.performance.MetricsServer;
+import dk.dbc.solr.performance.MetricsWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /** Replay the recorded solr queries against a solr instance
  * and record execution time and result.
@@ -42,9 +47,12 @@ import java.util.concurrent.Executors;
 public class Replayer implements JobListener{
 
     private static final Logger log = LoggerFactory.getLogger(Replayer.class);
+    private static final long RATE_INTERVAL = 1000L;
 
     private final Config config;
     private boolean callTimeExceeded = false;
+    private volatile ReplayerMetrics metrics;
+    private List<String> hotSet;
 
     public Replayer(Config config) {
         this.config = config;
@@ -55,53 +63,228 @@ public class Replayer implements JobListener{
      * @return 0 for complete run, greater than 0 if the test was stopped prematurely
      */
     public int run() {
-        LogCollector logCollector = new LogCollector();
+        if (config.getCompile() != null)
+            return compile();
+        MetricsServer metricsServer = null;
+        if (config.getMetrics() != null) {
+            try {
+                metricsServer = new MetricsServer(config.getMetrics(), this::writeMetrics);
+            } catch (IOException ex) {
+                log.error("Cannot serve metrics on {}: {}", config.getMetrics(), ex.getMessage());
+                return Status.Code.IOERROR.ordinal();
+            }
+        }
+        try {
+            if (config.getWorkers() > 0)
+                return new Coordinator(config).run();
+            if (config.getCapacitySearch() != null)
+                return searchCapacity();
+            return replayOnce();
+        } finally {
+            if (metricsServer != null)
+                metricsServer.close();
+        }
+    }
+
+    /**
+     * Compile the input into a binary recording
+     *
+     * @return 0 if the recording was compiled
+     */
+    private int compile() {
+        try {
+            Map<String, Long> stats = RecordingCompiler.compile(config.getInput(), Paths.get(config.getCompile()));
+            log.info("Compiled {} lines ({} distinct queries, {} lines skipped, {} malformed) into {}",
+                     stats.get("lines"), stats.get("queries"), stats.get("skipped"), stats.get("malformed"), config.getCompile());
+            return Status.Code.OK.ordinal();
+        } catch (IOException ex) {
+            log.error("Cannot compile {} into {}: {}", config.getInput(), config.getCompile(), ex.getMessage());
+            return Status.Code.IOERROR.ordinal();
+        }
+    }
+
+    /**
+     * Replay the recording, and write the log
+     *
+     * @return 0 for complete run, greater than 0 if the test was stopped prematurely
+     */
+    private int replayOnce() {
+        LogCollector logCollector = new LogCollector(config.getRecordMode());
+        logCollector.addConfig(config.asMap());
+        // A worker's histograms are merged by the coordinator
+        logCollector.setExportHistograms(config.getShard() != null);
+        try {
+            // A worker's query classes are compared by the coordinator
+            logCollector.setQueryClasses(QueryClasses.of(config, config.getShard() == null));
+        } catch (IOException ex) {
+            log.error("Cannot read baseline {}: {}", config.getBaseline(), ex.getMessage());
+            return Status.Code.IOERROR.ordinal();
+        }
+        Status runStatus = replay(config.getRateProfile(), logCollector, Long.MAX_VALUE);
+
+        try {
+            logCollector.addRunStatus(runStatus.getCode(), runStatus.getMessage());
+            logCollector.dump(getDestination(getSummaryOutput()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return runStatus.getCode();
+    }
+
+    /**
+     * Replay the recording once per step, and report the capacity curve
+     *
+     * @return 0 if the search completed, greater than 0 if a step could not
+     *         be run
+     */
+    private int searchCapacity() {
+        CapacitySearch search = new CapacitySearch(config.getCapacitySearch(), config.getSlo());
+        Status searchStatus = new Status();
+        search.run(speed -> {
+            LogCollector steps = new LogCollector(LogCollector.Mode.HISTOGRAM);
+            long started = System.nanoTime();
+            Status status = replay(RateProfile.constant(speed), steps, config.getStepTime());
+            long elapsed = System.nanoTime() - started;
+            if (status.code == Status.Code.IOERROR) {
+                searchStatus.setStatus(status.code, status.getMessage());
+                return null;
+            }
+            return new CapacitySearch.Step(speed, status.dispatched, steps.getCorrectedLatency(), steps.getRejected(), elapsed,
+                                           status.code == Status.Code.CALLTIME_EXCEEDED);
+        });
+
+        LogCollector logCollector = new LogCollector(LogCollector.Mode.HISTOGRAM);
+        logCollector.addConfig(config.asMap());
+        logCollector.addCapacity(search.report());
+        CapacitySearch.Step knee = search.getKnee();
+        if (knee == null)
+            log.warn("Capacity search: no step met the slo {}", config.getSlo());
+        else
+            log.info("Capacity search: knee at {}x ({} calls/s)", knee.getSpeed(), String.format(Locale.ROOT, "%.1f", knee.getQps()));
+        try {
+            logCollector.addRunStatus(searchStatus.getCode(), searchStatus.getMessage());
+            logCollector.dump(getDestination(config.getOutput()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return searchStatus.getCode();
+    }
+
+    /**
+     * Replay the recording once
+     *
+     * @param profile      replay speed
+     * @param logCollector where the calls are recorded
+     * @param stepTime     stop (without error) after this many ms
+     * @return how the replay ended
+     */
+    private Status replay(RateProfile profile, LogCollector logCollector, long stepTime) {
+        callTimeExceeded = false;
+        Warmup warmup = new Warmup(config.getWarmupLines(), config.getWarmupTime());
+        logCollector.setWarmup(warmup);
         CallTimeWathcer wathcer = new CallTimeWathcer(config.getCallBufferSize(), config.getMaxDelayedCalls(), config.getCallTimeConstraint() );
         String input = config.getInput();
-        ExecutorService executorService = Executors.newCachedThreadPool();
+        ReplayEngine engine = ReplayEngine.of(config, logCollector, wathcer, this);
+        IntervalReporter reporter = new IntervalReporter(logCollector, engine::getRejected, config.getReportInterval());
+        metrics = new ReplayerMetrics(logCollector, reporter);
 
-        logCollector.addConfig(config.asMap());
         Status runStatus = new Status();
 
         if( ! fileExistsAndNotDir(input)) {
             runStatus.setStatus(Status.Code.IOERROR, "File "+ input + " does not exist or is not a file");
         }
+        else if( ! startStream(logCollector) ) {
+            runStatus.setStatus(Status.Code.IOERROR, "Cannot write to output file " + config.getOutput());
+        }
+        else if( ! findHotSet() ) {
+            runStatus.setStatus(Status.Code.IOERROR, "Cannot find the hot set of " + input);
+        }
         else {
+            CacheMode cacheMode = config.getCacheMode();
+            CacheMode.Rewriter rewriter = cacheMode.rewriter(hotSet);
+            RepeatTracker repeats = config.getRepeatWindow() > 0 ? new RepeatTracker(config.getRepeatWindow()) : null;
+            awaitStart();
             Instant timeStarted = Instant.now();
-            long runtime = 0;
-
-            try(BufferedReader br = getBufferedReader(input)) {
+            // In closed loop the users set the pace, lines are handed out without delay
+            if (config.getUsers() > 0)
+                profile = RateProfile.constant(Double.POSITIVE_INFINITY);
+            Scheduler scheduler = new Scheduler(config.getSchedule(), profile);
+            long origin = scheduler.start();
+            RateTracker rates = new RateTracker(profile, origin, RATE_INTERVAL);
+            reporter.start(origin);
+            long stepNanos = TimeUnit.MILLISECONDS.toNanos(stepTime);
+            Shard shard = config.getShard();
+            // The window of the recording that is replayed
+            long startOffset = config.getStartOffset();
+            long windowEnd = config.getWindowEnd();
+
+            try(RecordingReader recording = RecordingReader.open(input, config.getReadAhead(), startOffset)) {
+                PrefetchingRecordingReader prefetch = recording instanceof PrefetchingRecordingReader ?
+                                                      (PrefetchingRecordingReader) recording : null;
+                if (prefetch != null)
+                    reporter.setReadAhead(prefetch::getDepth);
                 long numLines = 0;
-                while (br.ready()) {
-                    LogCollector.LogEntry logEntry = LogCollector.newEntry();
-                    logCollector.addEntry(logEntry);
-
+                long validLines = 0;
+                while (recording.next()) {
                     if(callTimeExceeded) {
                         runStatus.setStatus( Status.Code.CALLTIME_EXCEEDED, "CallTime exceeded (" + config.getCallTimeConstraint() + "ms)");
                         break;
                     }
 
+                    // Lines before the window aren't counted
+                    if (recording.isValid() && recording.getTimeDelta() < startOffset) {
+                        continue;
+                    }
+
                     numLines++;
                     if (numLines > config.getLimit()) {
                         runStatus.setStatus(Status.Code.MAXLINES_EXCEEDED, "Max number of line constraint exceeded (" + config.getLimit() + " lines)");
                         break;
                     }
 
-                    LogLine logLine = LogLine.of(br.readLine());
-                    if (!logLine.isValid()) {
+                    if (!recording.isValid()) {
                         continue;
                     }
 
-                    ReplayerTask task = new ReplayerTask(config, logCollector, wathcer, logLine, this);
-                    executorService.execute(task);
-
-                    long originalTimeDelta = logLine.getTimeDelta();
-                    long callDelay = calculateDelay(runtime, originalTimeDelta);
-                    logEntry.setTimes(originalTimeDelta, callDelay);
-
-                    log.info("Sleeping for {}ms", callDelay);
+                    long originalTimeDelta = recording.getTimeDelta();
+                    if (originalTimeDelta >= windowEnd) {
+                        log.info("Replay time ({}ms) reached", config.getReplayTime());
+                        break;
+                    }
+                    // Scheduled relative to the start of the window
+                    long timeDelta = originalTimeDelta - startOffset;
+                    if (scheduler.intendedDispatch(timeDelta) - origin > stepNanos) {
+                        break;
+                    }
+                    // Lines are counted across all shards, so the warm-up
+                    // is the same as in a single process
+                    long line = validLines++;
+                    if (shard != null && !shard.includes(line, originalTimeDelta)) {
+                        continue;
+                    }
+                    LogLine logLine = rewriter.apply(recording.getLine(), line);
+                    if (repeats != null && repeats.sent(logLine.getQuery()))
+                        logLine = logLine.asRepeat();
+                    LogCollector.LogEntry logEntry = LogCollector.newEntry();
                     try {
-                        Thread.sleep(callDelay);
+                        long intendedDispatch = scheduler.awaitDispatch(timeDelta);
+                        long now = System.nanoTime();
+                        rates.record(intendedDispatch, now);
+                        // No delay (and closed loop) has no schedule to lag behind
+                        if (scheduler.isScheduled(timeDelta))
+                            reporter.dispatched(intendedDispatch, now);
+                        else
+                            reporter.dispatched();
+                        if (warmup.includes(line, now - origin))
+                            logLine = logLine.asWarmup();
+                        engine.submit(logLine, intendedDispatch);
+                        runStatus.dispatched++;
+
+                        long callDelay = scheduler.awaitNext(timeDelta);
+                        logEntry.setTimes(originalTimeDelta, callDelay);
+                        logCollector.addEntry(logEntry);
+                        log.debug("Delay to next call {}ms", callDelay);
                     } catch (InterruptedException e) {
                         throw new RuntimeException("Interrupted!!!");
                     }
@@ -110,12 +293,20 @@ public class Replayer implements JobListener{
                         runStatus.setStatus( Status.Code.RUNTIME_EXCEEDED, "Runtime exceeded (" + config.getDurationConstraint() + "ms)" );
                         break;
                     }
-
-                    runtime = originalTimeDelta;
+                }
+                if (recording.getMalformed() > 0)
+                    log.warn("Skipped {} malformed lines in {}", recording.getMalformed(), input);
+                logCollector.addInput(numLines, recording.getMalformed(), prefetch == null ? null : prefetch.getStats());
+                if (cacheMode.getKind() != CacheMode.Kind.NONE || repeats != null) {
+                    Map<String, Object> cache = rewriter.stats();
+                    cache.put("mode", cacheMode.toString());
+                    logCollector.addCache(cache);
                 }
             } catch (IOException ex) {
                 runStatus.setStatus(Status.Code.IOERROR, "Error processing input: "+ ex.getMessage());
             }
+            if (config.getUsers() == 0)
+                logCollector.addRates(rates.intervals());
         }
 
         if( !runStatus.statusOK() ) {
@@ -123,33 +314,98 @@ public class Replayer implements JobListener{
             log.error(runStatus.getMessage());
         }
 
+        engine.awaitCompletion(config.getConnectTimeout() + config.getReadTimeout() + 1000L);
+        reporter.close();
+        logCollector.addIntervals(reporter.getIntervals());
+        logCollector.addWorkerPool(engine.getWorkerStats());
+        logCollector.addConnectionPool(engine.getConnectionStats());
+        logCollector.addNodes(engine.getNodeStats());
+        engine.close();
+        closeStream(logCollector, runStatus);
+
+        return runStatus;
+    }
+
+    /**
+     * Wait for the common start time of the workers (--start-at)
+     */
+    private void awaitStart() {
+        long remaining = config.getStartAt() - System.currentTimeMillis();
+        if (config.getStartAt() > 0 && remaining < 0)
+            log.warn("Started {}ms after the common start time", -remaining);
         try {
-            executorService.shutdown();
-            logCollector.addRunStatus(runStatus.getCode(), runStatus.getMessage());
-            logCollector.dump(getDestination(config.getOutput()));
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (remaining > 0)
+                Thread.sleep(remaining);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted!!!");
         }
+    }
 
-        return runStatus.getCode();
+    /**
+     * In stream mode, open the output for the log entries
+     *
+     * @param logCollector where the log entries are added
+     * @return false if the output cannot be written to
+     */
+    private boolean startStream(LogCollector logCollector) {
+        if (logCollector.getMode() != LogCollector.Mode.STREAM)
+            return true;
+        try {
+            logCollector.streamTo(getDestination(config.getOutput()));
+            return true;
+        } catch (IOException ex) {
+            log.error("Cannot write to {}: {}", config.getOutput(), ex.getMessage());
+            return false;
+        }
     }
 
     /**
-     * Calculate the actual delay between calls
+     * In stream mode, write the remaining log entries
      *
-     * @param runtime The current accumulated runtime
-     * @param originalTimeDelta The original time delta from the start
-     * @return The calculated delay to wait, adjusted for the configured
-     * replay speed
+     * @param logCollector where the log entries are added
+     * @param runStatus    status to report write errors in
      */
-    private long calculateDelay(long runtime, long originalTimeDelta) {
-        long d = (long) ((originalTimeDelta-runtime) / 100.00 * config.getReplay());
-        return d>0 ? d : 0;
+    private void closeStream(LogCollector logCollector, Status runStatus) {
+        try {
+            logCollector.closeStream();
+        } catch (IOException ex) {
+            log.error("Error writing to {}: {}", config.getOutput(), ex.getMessage());
+            if (runStatus.statusOK())
+                runStatus.setStatus(Status.Code.IOERROR, "Error writing output: " + ex.getMessage());
+        }
     }
 
-    private BufferedReader getBufferedReader(String input) throws FileNotFoundException {
-        InputStream is = (InputStream)((input != null) ? new FileInputStream(input) : System.in);
-        return new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+    /**
+     * Where the summary is written, in stream mode the output is the log
+     * entries, and the summary goes next to it
+     *
+     * @return file name or null for no output
+     */
+    private String getSummaryOutput() {
+        String output = config.getOutput();
+        if (output != null && config.getRecordMode() == LogCollector.Mode.STREAM)
+            return output + ".summary.json";
+        return output;
+    }
+
+    /**
+     * Find the hot set of the replayed window, if the cache mode is hot-set
+     * (once, a capacity search replays the same window repeatedly)
+     *
+     * @return false if the recording couldn't be read
+     */
+    private boolean findHotSet() {
+        CacheMode cacheMode = config.getCacheMode();
+        if (cacheMode.getKind() != CacheMode.Kind.HOT_SET || hotSet != null)
+            return true;
+        try (RecordingReader recording = RecordingReader.open(config.getInput(), 0, config.getStartOffset())) {
+            hotSet = cacheMode.hotSet(recording, config.getStartOffset(), config.getWindowEnd());
+            log.info("Replaying a hot set of {} queries", hotSet.size());
+            return true;
+        } catch (IOException ex) {
+            log.error("Cannot read {}: {}", config.getInput(), ex.getMessage());
+            return false;
+        }
     }
 
     private boolean fileExistsAndNotDir(String input) {
@@ -160,11 +416,18 @@ public class Replayer implements JobListener{
             return false;
     }
 
-    private  OutputStream getDestination(String fileName) throws  FileNotFoundException {
+    /**
+     * Open an output file, compressed if the name ends with .gz or .zst
+     *
+     * @param fileName name of the file or null for no output
+     * @return stream or null
+     * @throws IOException if the file cannot be opened
+     */
+    private OutputStream getDestination(String fileName) throws IOException {
         if(fileName == null)
             return null;
         else
-            return new FileOutputStream(fileName);
+            return Compression.create(fileName, false);
     }
 
     /**
@@ -189,6 +452,17 @@ public class Replayer implements JobListener{
     }
 
 
+    /**
+     * Write the metrics of the current replay
+     *
+     * @param writer where to write the metrics
+     */
+    private void writeMetrics(MetricsWriter writer) {
+        ReplayerMetrics current = metrics;
+        if (current != null)
+            current.accept(writer);
+    }
+
     /**
      * Callback from ReplayerTask
      */
@@ -197,7 +471,7 @@ public class Replayer implements JobListener{
         callTimeExceeded = true;
     }
 
-    private static class Status {
+    static class Status {
         public enum Code {
             OK,
             RUNTIME_EXCEEDED,
@@ -230,5 +504,6 @@ public class Replayer implements JobListener{
 
         private String message;
         private Code code;
+        private long dispatched;
     }
 }
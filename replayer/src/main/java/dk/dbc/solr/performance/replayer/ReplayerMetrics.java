@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import dk.dbc.solr.performance.MetricsWriter;
+import java.util.function.Consumer;
+
+/**
+ * The metrics of a running replay, for the metrics endpoint
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ReplayerMetrics implements Consumer<MetricsWriter> {
+
+    private final LogCollector logCollector;
+    private final IntervalReporter reporter;
+
+    /**
+     * @param logCollector where completed calls are recorded
+     * @param reporter     where dispatched calls are counted
+     */
+    public ReplayerMetrics(LogCollector logCollector, IntervalReporter reporter) {
+        this.logCollector = logCollector;
+        this.reporter = reporter;
+    }
+
+    @Override
+    public void accept(MetricsWriter writer) {
+        long dispatched = reporter.getDispatched();
+        long completed = logCollector.getCompleted();
+        writer.family("solr_replayer_dispatched_total", "counter", "Lines dispatched to the engine")
+                .sample("solr_replayer_dispatched_total", dispatched);
+        writer.family("solr_replayer_completed_total", "counter", "Calls completed, including the warm-up")
+                .sample("solr_replayer_completed_total", completed);
+        writer.family("solr_replayer_requests_total", "counter", "Calls completed after the warm-up, by http status (or error)");
+        logCollector.getRequestCounts().forEach((status, count) -> writer.sample("solr_replayer_requests_total", count, "status", status));
+        writer.histogram("solr_replayer_request_duration_seconds", "Service time of calls completed after the warm-up", logCollector.getServiceTime());
+        writer.family("solr_replayer_in_flight", "gauge", "Calls accepted by the engine, but not completed")
+                .sample("solr_replayer_in_flight", reporter.getInFlight());
+        writer.family("solr_replayer_schedule_lag_seconds", "gauge", "How late the latest line was dispatched, compared to the schedule")
+                .sample("solr_replayer_schedule_lag_seconds", reporter.getLag() / 1e9);
+        int readAhead = reporter.getReadAhead();
+        if (readAhead >= 0)
+            writer.family("solr_replayer_read_ahead_lines", "gauge", "Lines read from the input, and not yet dispatched")
+                    .sample("solr_replayer_read_ahead_lines", readAhead);
+    }
+}
@@ -34,21 +34,32 @@ public class ReplayerTask implements Runnable{
     private LogLine logLine;
     private CallTimeWathcer watcher;
     private JobListener jobListener;
+    private long intendedDispatch;
 
-    public ReplayerTask(Config config, LogCollector logCollector, CallTimeWathcer watcher, LogLine logLine, JobListener jobListener) {
+    /**
+     * @param sender           the (shared) sender of the call
+     * @param watcher          monitor of call durations
+     * @param logLine          the line to replay
+     * @param intendedDispatch when the call should have been sent
+     *                         ({@link System#nanoTime()})
+     * @param jobListener      who to notify if the call times are exceeded
+     */
+    public ReplayerTask(SolrSender sender, CallTimeWathcer watcher, LogLine logLine, long intendedDispatch, JobListener jobListener) {
         this.watcher = watcher;
 
-        this.sender = new SolrSender(config.getSolr(), logCollector);
+        this.sender = sender;
         this.logLine = logLine;
+        this.intendedDispatch = intendedDispatch;
         this.jobListener = jobListener;
     }
 
     @Override
     public void run() {
         log.debug( "Running: logLine=" + logLine);
-        long duration = sender.send(logLine);
+        long duration = sender.send(logLine, intendedDispatch);
         try {
-            watcher.addCallTime(duration); // Can throw CallTimeExceededException
+            if (!logLine.isWarmup())
+                watcher.addCallTime(duration); // Can throw CallTimeExceededException
         } catch (CallTimeExceededException ex ) {
             notifyListeners();
         }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import dk.dbc.solr.performance.Timing;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Monotonic timing of the phases of a single call
+ * <p>
+ * All timestamps are {@link System#nanoTime()} values. The phases are:
+ * <ul>
+ * <li>connect - acquiring a connection from the pool (and connecting)
+ * <li>ttfb - sending the request until the response headers arrive
+ * <li>body - reading the response body
+ * </ul>
+ * Timestamps that hasn't been reached (ie. connection failed) are 0
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RequestTiming implements Timing {
+
+    /**
+     * Name of the http context attribute, the request executor records into
+     */
+    public static final String ATTRIBUTE = RequestTiming.class.getName();
+
+    private final long started;
+    private volatile long acquired;
+    private volatile long firstByte;
+    private long completed;
+    private int qTime;
+
+    public RequestTiming() {
+        this.started = System.nanoTime();
+        this.acquired = 0;
+        this.firstByte = 0;
+        this.completed = 0;
+        this.qTime = -1;
+    }
+
+    /**
+     * A connection has been acquired, and the request is about to be sent
+     */
+    void acquired() {
+        acquired = System.nanoTime();
+    }
+
+    /**
+     * The response headers has been received
+     */
+    void firstByte() {
+        firstByte = System.nanoTime();
+    }
+
+    /**
+     * The time solr reported spending on the request
+     *
+     * @param qTime QTime from the response header (ms) or -1 if unknown
+     */
+    void setQTime(int qTime) {
+        this.qTime = qTime;
+    }
+
+    /**
+     * The call is completed (the body is read, or an error occurred)
+     */
+    @Override
+    public void close() {
+        if (completed == 0)
+            completed = System.nanoTime();
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return nanoseconds from start until completed
+     */
+    public long getTotal() {
+        return completed - started;
+    }
+
+    /**
+     * @return nanoseconds acquiring a connection, or -1 if not reached
+     */
+    public long getConnect() {
+        return acquired == 0 ? -1 : acquired - started;
+    }
+
+    /**
+     * @return nanoseconds from request sent until response headers, or -1
+     *         if not reached
+     */
+    public long getFirstByte() {
+        return acquired == 0 || firstByte == 0 ? -1 : firstByte - acquired;
+    }
+
+    /**
+     * @return nanoseconds reading the body, or -1 if not reached
+     */
+    public long getBody() {
+        return firstByte == 0 || completed == 0 ? -1 : completed - firstByte;
+    }
+
+    /**
+     * @return QTime reported by solr (ms), or -1 if unknown
+     */
+    public int getQTime() {
+        return qTime;
+    }
+
+    /**
+     * @return nanoseconds not spent in solr (network/client), or -1 if QTime
+     *         is unknown
+     */
+    public long getOverhead() {
+        return qTime < 0 ? -1 : Math.max(0, getTotal() - ( qTime * 1_000_000L ));
+    }
+
+    /**
+     * Convert a phase to ms for logging
+     *
+     * @param nanos phase duration
+     * @return ms with fraction, or -1 if phase is unknown
+     */
+    static double ms(long nanos) {
+        return nanos < 0 ? -1.0 : NANOSECONDS.toMicros(nanos) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTiming{" + "connect=" + ms(getConnect()) + ", ttfb=" + ms(getFirstByte()) + ", body=" + ms(getBody()) + ", qTime=" + qTime + '}';
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write log entries as JSON Lines (one json object per line) while the test
+ * is running
+ * <p>
+ * Entries are handed to a background thread through a bounded queue, which
+ * writes them with a streaming generator, and flushes periodically. When the
+ * queue is full, the caller waits for room, so no entries are lost.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ResultStreamWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultStreamWriter.class);
+
+    static final int QUEUE_SIZE = 10_000;
+    static final long FLUSH_INTERVAL = 1_000L;
+    private static final int BATCH_SIZE = 256;
+
+    private final JsonGenerator generator;
+    private final BlockingQueue<LogCollector.LogEntry> queue;
+    private final Thread thread;
+    private final AtomicLong written;
+    private final AtomicLong stalled;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Start a writer
+     *
+     * @param os where to write the entries, it is closed when the writer is
+     * @throws IOException if the generator cannot be created
+     */
+    public ResultStreamWriter(OutputStream os) throws IOException {
+        this(os, QUEUE_SIZE, FLUSH_INTERVAL);
+    }
+
+    ResultStreamWriter(OutputStream os, int queueSize, long flushInterval) throws IOException {
+        this.generator = new ObjectMapper().getFactory().createGenerator(os, JsonEncoding.UTF8);
+        this.generator.setRootValueSeparator(null);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.written = new AtomicLong();
+        this.stalled = new AtomicLong();
+        this.closed = false;
+        this.failure = null;
+        this.thread = new Thread(() -> writeLoop(flushInterval), "result-writer");
+        this.thread.start();
+    }
+
+    /**
+     * Queue an entry for writing
+     * <p>
+     * The entry shouldn't be modified after this. If writing has failed, the
+     * entry is discarded
+     *
+     * @param entry log entry
+     */
+    public void write(LogCollector.LogEntry entry) {
+        if (closed)
+            throw new IllegalStateException("Result writer is closed");
+        if (failure != null)
+            return;
+        if (queue.offer(entry))
+            return;
+        stalled.incrementAndGet();
+        try {
+            queue.put(entry);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while queueing log entry: {}", entry);
+        }
+    }
+
+    /**
+     * Number of entries written
+     *
+     * @return count
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Number of times a caller had to wait for room in the queue
+     *
+     * @return count
+     */
+    public long getStalled() {
+        return stalled.get();
+    }
+
+    /**
+     * Write the remaining entries, and close the output
+     *
+     * @throws IOException if any entry couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            thread.interrupt();
+        }
+        try {
+            generator.close();
+        } catch (IOException ex) {
+            if (failure == null)
+                failure = ex;
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void writeLoop(long flushInterval) {
+        List<LogCollector.LogEntry> batch = new ArrayList<>(BATCH_SIZE);
+        long nextFlush = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        try {
+            for (;;) {
+                LogCollector.LogEntry entry = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    batch.add(entry);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    for (LogCollector.LogEntry e : batch) {
+                        generator.writeObject(e);
+                        generator.writeRaw('\n');
+                    }
+                    written.addAndGet(batch.size());
+                    batch.clear();
+                }
+                long now = System.nanoTime();
+                if (now - nextFlush >= 0) {
+                    generator.flush();
+                    nextFlush = now + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                }
+                if (entry == null && closed && queue.isEmpty())
+                    break;
+            }
+            generator.flush();
+        } catch (IOException ex) {
+            log.error("Error writing log entries: {}", ex.getMessage());
+            log.debug("Error writing log entries: ", ex);
+            failure = ex;
+            queue.clear();
+        } catch (InterruptedException ex) {
+            log.error("Interrupted while writing log entries");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides when log lines are dispatched
+ * <p>
+ * In {@link Mode#ABSOLUTE} mode every line is dispatched at start + the time
+ * delta mapped through the {@link RateProfile}, regardless of how long parsing and dispatching took. In
+ * {@link Mode#DELAY} mode the (legacy) scaled gap between two lines is slept
+ * after each dispatch, which accumulates drift.
+ * <p>
+ * All times returned are {@link System#nanoTime()} values
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Scheduler {
+
+    public enum Mode {
+        DELAY,
+        ABSOLUTE;
+
+        /**
+         * Case insensitive lookup
+         *
+         * @param name mode name
+         * @return mode
+         */
+        public static Mode of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown schedule: " + name + " (use delay or absolute)");
+            }
+        }
+    }
+
+    private final Mode mode;
+    private final RateProfile profile;
+    private long origin;
+    private long previousTimeDelta;
+
+    /**
+     * @param mode   scheduling mode
+     * @param replay replay speed in percent of original delay (100 is
+     *               original speed, 0 is no delay)
+     */
+    public Scheduler(Mode mode, int replay) {
+        this(mode, RateProfile.constant(RateProfile.parseSpeed(String.valueOf(replay))));
+    }
+
+    /**
+     * @param mode    scheduling mode
+     * @param profile replay speed over the run
+     */
+    public Scheduler(Mode mode, RateProfile profile) {
+        this.mode = mode;
+        this.profile = profile;
+        this.origin = System.nanoTime();
+        this.previousTimeDelta = 0;
+    }
+
+    /**
+     * Set the time that time deltas are relative to
+     *
+     * @return the origin as nanoTime
+     */
+    public long start() {
+        origin = System.nanoTime();
+        previousTimeDelta = 0;
+        return origin;
+    }
+
+    /**
+     * Wait until a line should be dispatched
+     *
+     * @param timeDelta time delta from the recording (ms)
+     * @return when the line was intended to be dispatched (nanoTime)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long awaitDispatch(long timeDelta) throws InterruptedException {
+        // Without a schedule, a line is intended to be sent when it is
+        if (mode == Mode.DELAY || !isScheduled(timeDelta))
+            return System.nanoTime();
+        long intended = intendedDispatch(timeDelta);
+        sleepUntil(intended);
+        return intended;
+    }
+
+    /**
+     * Wait after a line has been dispatched
+     * <p>
+     * In {@link Mode#ABSOLUTE} mode this doesn't wait
+     *
+     * @param timeDelta time delta from the recording (ms)
+     * @return the scaled gap from the previous line (ms)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long awaitNext(long timeDelta) throws InterruptedException {
+        long delay = TimeUnit.NANOSECONDS.toMillis(wallTime(timeDelta) - wallTime(previousTimeDelta));
+        previousTimeDelta = timeDelta;
+        if (delay <= 0)
+            return 0;
+        if (mode == Mode.DELAY)
+            Thread.sleep(delay);
+        return delay;
+    }
+
+    /**
+     * If a line has a time it should be dispatched at
+     * <p>
+     * At no delay (infinite speed) every line is due at once, so there is no
+     * schedule to be behind
+     *
+     * @param timeDelta time delta from the recording (ms)
+     * @return false if the speed is infinite, where the line is replayed
+     */
+    public boolean isScheduled(long timeDelta) {
+        return !Double.isInfinite(profile.speedAt(wallTime(timeDelta)));
+    }
+
+    /**
+     * When a line should be dispatched
+     *
+     * @param timeDelta time delta from the recording (ms)
+     * @return nanoTime
+     */
+    long intendedDispatch(long timeDelta) {
+        return origin + wallTime(timeDelta);
+    }
+
+    private long wallTime(long timeDelta) {
+        return profile.wallTime(TimeUnit.MILLISECONDS.toNanos(timeDelta));
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        for (;;) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return;
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public RateProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        return "Scheduler{" + "mode=" + mode + ", profile=" + profile + '}';
+    }
+}
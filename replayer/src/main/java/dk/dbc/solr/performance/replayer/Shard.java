@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.Locale;
+
+/**
+ * The part of a recording a worker replays, when the replay is split
+ * across worker processes (see {@link Coordinator})
+ * <p>
+ * Every worker reads the whole recording, and keeps its own lines, so the
+ * recorded timing is kept. Lines are split either by their number (modulo
+ * the number of shards) or in time slices of the recording, where all the
+ * lines in a slice goes to the same worker.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Shard {
+
+    private final int index;
+    private final int count;
+    private final long slice;
+
+    /**
+     * @param index which shard (0 based)
+     * @param count number of shards
+     * @param slice length of time slices (ms), 0 to split by line number
+     */
+    public Shard(int index, int count, long slice) {
+        if (count < 1 || index < 0 || index >= count)
+            throw new IllegalArgumentException("Shard needs to be INDEX/COUNT where 0 <= INDEX < COUNT");
+        this.index = index;
+        this.count = count;
+        this.slice = slice;
+    }
+
+    /**
+     * Parse a shard from "INDEX/COUNT"
+     *
+     * @param text  shard specification
+     * @param slice length of time slices (ms), 0 to split by line number
+     * @return shard
+     */
+    public static Shard of(String text, long slice) {
+        String[] parts = text.split("/", 2);
+        if (parts.length != 2)
+            throw new IllegalArgumentException("Shard needs to be INDEX/COUNT");
+        return new Shard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), slice);
+    }
+
+    /**
+     * Is a line part of this shard
+     *
+     * @param line      number of the (valid) line in the recording, 0 based
+     * @param timeDelta when the line was recorded relative to start (ms)
+     * @return true if this worker should send the line
+     */
+    public boolean includes(long line, long timeDelta) {
+        long position = slice > 0 ? timeDelta / slice : line;
+        return position % count == index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d/%d%s", index, count, slice > 0 ? " by " + slice + "ms" : " by line");
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import org.HdrHistogram.Histogram;
+
+/**
+ * A service level objective, that a replay step has to meet
+ * <p>
+ * Given as a comma separated list of {@code pNN:DURATION} (ie. p99:500ms,
+ * percentile of the corrected latency) and {@code errors:PERCENT} (ie.
+ * errors:1%, failed calls - no response or http status 5xx - out of all
+ * calls).
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Slo {
+
+    private final String text;
+    private final Map<Double, Long> percentiles;
+    private final double errorRatio;
+
+    private Slo(String text, Map<Double, Long> percentiles, double errorRatio) {
+        this.text = text;
+        this.percentiles = percentiles;
+        this.errorRatio = errorRatio;
+    }
+
+    /**
+     * Parse an objective
+     *
+     * @param text     objective specification (see class documentation)
+     * @param timeSpec parser of durations into milliseconds
+     * @return objective
+     */
+    public static Slo of(String text, Function<String, Long> timeSpec) {
+        Map<Double, Long> percentiles = new LinkedHashMap<>();
+        double errorRatio = 1.0;
+        for (String part : text.split(",")) {
+            String[] kv = part.trim().split(":", 2);
+            if (kv.length != 2)
+                throw new IllegalArgumentException("Invalid slo: " + part + " (use pNN:DURATION or errors:PERCENT)");
+            String key = kv[0].toLowerCase(Locale.ROOT);
+            if (key.equals("errors")) {
+                String value = kv[1].endsWith("%") ? kv[1].substring(0, kv[1].length() - 1) : kv[1];
+                errorRatio = Double.parseDouble(value) / 100.0;
+                if (errorRatio < 0 || errorRatio > 1)
+                    throw new IllegalArgumentException("Error rate needs to be between 0% and 100%: " + part);
+            } else if (key.startsWith("p")) {
+                double percentile = Double.parseDouble(key.substring(1));
+                if (percentile <= 0 || percentile > 100)
+                    throw new IllegalArgumentException("Percentile needs to be between 0 and 100: " + part);
+                percentiles.put(percentile, timeSpec.apply(kv[1]));
+            } else {
+                throw new IllegalArgumentException("Invalid slo: " + part + " (use pNN:DURATION or errors:PERCENT)");
+            }
+        }
+        return new Slo(text, percentiles, errorRatio);
+    }
+
+    /**
+     * Check a step against the objective
+     *
+     * @param latency  corrected latency of all calls (microseconds)
+     * @param calls    number of calls
+     * @param failures number of failed calls
+     * @return descriptions of what was violated, empty if the objective is
+     *         met
+     */
+    public List<String> violations(Histogram latency, long calls, long failures) {
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<Double, Long> e : percentiles.entrySet()) {
+            double actual = latency.getValueAtPercentile(e.getKey()) / 1000.0;
+            if (actual > e.getValue())
+                violations.add(String.format(Locale.ROOT, "p%s %.1fms > %dms", format(e.getKey()), actual, e.getValue()));
+        }
+        if (calls > 0 && failures > calls * errorRatio)
+            violations.add(String.format(Locale.ROOT, "errors %.2f%% > %s%%", failures * 100.0 / calls, format(errorRatio * 100)));
+        return violations;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
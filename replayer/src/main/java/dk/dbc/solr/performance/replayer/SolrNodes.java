@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The solr nodes calls are spread across
+ * <p>
+ * A node is ejected for a while, after a number of consecutive failures (no
+ * response or a 5xx status). If all nodes are ejected, they are all used
+ * anyway.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class SolrNodes {
+
+    private static final Logger log = LoggerFactory.getLogger(SolrNodes.class);
+
+    private static final int VIRTUAL_NODES = 128;
+
+    public enum Balance {
+        /**
+         * Take turns
+         */
+        ROUND_ROBIN,
+        /**
+         * The node with the fewest calls in flight
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Consistent hashing of the query, so the same query goes to the
+         * same node (and its caches)
+         */
+        HASH;
+
+        /**
+         * Case insensitive lookup
+         *
+         * @param name balance name (with - or _)
+         * @return balance
+         */
+        public static Balance of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown balance: " + name + " (use round-robin, least-outstanding or hash)");
+            }
+        }
+    }
+
+    private final Node[] nodes;
+    private final Balance balance;
+    private final int ejectAfter;
+    private final long ejectFor;
+    private final AtomicLong turn;
+    private final long[] ringPoints;
+    private final Node[] ringNodes;
+
+    /**
+     * @param urls       base urls of the nodes
+     * @param balance    how to choose a node
+     * @param ejectAfter number of consecutive failures before ejecting a node
+     * @param ejectFor   how long a node is ejected (ms)
+     */
+    public SolrNodes(List<String> urls, Balance balance, int ejectAfter, long ejectFor) {
+        if (urls.isEmpty())
+            throw new IllegalArgumentException("At least one solr node is needed");
+        this.nodes = urls.stream().map(Node::new).toArray(Node[]::new);
+        this.balance = balance;
+        this.ejectAfter = ejectAfter;
+        this.ejectFor = TimeUnit.MILLISECONDS.toNanos(ejectFor);
+        this.turn = new AtomicLong();
+
+        long[] points = new long[nodes.length * VIRTUAL_NODES];
+        Node[] owners = new Node[points.length];
+        Integer[] order = new Integer[points.length];
+        for (int n = 0 ; n < nodes.length ; n++) {
+            for (int v = 0 ; v < VIRTUAL_NODES ; v++) {
+                int i = n * VIRTUAL_NODES + v;
+                points[i] = hash(nodes[n].baseUrl + "#" + v);
+                owners[i] = nodes[n];
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(points[a], points[b]));
+        this.ringPoints = new long[points.length];
+        this.ringNodes = new Node[points.length];
+        for (int i = 0 ; i < order.length ; i++) {
+            ringPoints[i] = points[order[i]];
+            ringNodes[i] = owners[order[i]];
+        }
+    }
+
+    /**
+     * A single node, no balancing
+     *
+     * @param url base url of the node
+     */
+    public SolrNodes(String url) {
+        this(Arrays.asList(url), Balance.ROUND_ROBIN, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Construct the nodes from the command line parameters
+     *
+     * @param config configuration
+     * @return nodes
+     */
+    public static SolrNodes of(Config config) {
+        return new SolrNodes(config.getSolrNodes(), config.getBalance(), config.getEjectAfter(), config.getEjectFor());
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Choose a node for a call, and count it as outstanding
+     * <p>
+     * Every call to this must be followed by a {@link #release(Node, int)}
+     *
+     * @param query the query to send
+     * @return node
+     */
+    public Node select(String query) {
+        long now = System.nanoTime();
+        Node node;
+        switch (balance) {
+            case LEAST_OUTSTANDING:
+                node = leastOutstanding(now);
+                break;
+            case HASH:
+                node = byHash(query, now);
+                break;
+            case ROUND_ROBIN:
+            default:
+                node = roundRobin(now);
+                break;
+        }
+        node.outstanding.incrementAndGet();
+        return node;
+    }
+
+    /**
+     * A call to a node has completed
+     *
+     * @param node         the node from {@link #select(String)}
+     * @param responseCode http status or -1 if no response was received
+     */
+    public void release(Node node, int responseCode) {
+        node.outstanding.decrementAndGet();
+        node.calls.incrementAndGet();
+        if (responseCode >= 0 && responseCode < 500) {
+            node.consecutiveFailures.set(0);
+            return;
+        }
+        node.failures.incrementAndGet();
+        long now = System.nanoTime();
+        // Calls that were in flight when the node was ejected, don't count
+        if (!node.isAvailable(now))
+            return;
+        if (node.consecutiveFailures.incrementAndGet() >= ejectAfter) {
+            node.consecutiveFailures.set(0);
+            node.ejectedUntil = now + ejectFor;
+            node.ejections.incrementAndGet();
+            log.warn("Ejecting solr node {} for {}ms after {} consecutive failures",
+                     node.baseUrl, TimeUnit.NANOSECONDS.toMillis(ejectFor), ejectAfter);
+        }
+    }
+
+    /**
+     * Statistics of the nodes
+     *
+     * @return map of base url to (map of name to value)
+     */
+    public Map<String, Map<String, Long>> getStats() {
+        long now = System.nanoTime();
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            Map<String, Long> map = new LinkedHashMap<>();
+            map.put("calls", node.calls.get());
+            map.put("failures", node.failures.get());
+            map.put("outstanding", (long) node.outstanding.get());
+            map.put("ejections", node.ejections.get());
+            map.put("ejected", node.isAvailable(now) ? 0L : 1L);
+            stats.put(node.baseUrl, map);
+        }
+        return stats;
+    }
+
+    private Node roundRobin(long now) {
+        int start = (int) ( turn.getAndIncrement() % nodes.length );
+        for (int i = 0 ; i < nodes.length ; i++) {
+            Node node = nodes[( start + i ) % nodes.length];
+            if (node.isAvailable(now))
+                return node;
+        }
+        return nodes[start];
+    }
+
+    private Node leastOutstanding(long now) {
+        // Start at a different node each time, so ties are spread
+        int start = (int) ( turn.getAndIncrement() % nodes.length );
+        Node best = null;
+        for (int i = 0 ; i < nodes.length ; i++) {
+            Node node = nodes[( start + i ) % nodes.length];
+            if (node.isAvailable(now) &&
+                ( best == null || node.outstanding.get() < best.outstanding.get() ))
+                best = node;
+        }
+        return best != null ? best : nodes[start];
+    }
+
+    private Node byHash(String query, long now) {
+        int pos = Arrays.binarySearch(ringPoints, hash(query));
+        if (pos < 0)
+            pos = -pos - 1;
+        for (int i = 0 ; i < ringPoints.length ; i++) {
+            Node node = ringNodes[( pos + i ) % ringPoints.length];
+            if (node.isAvailable(now))
+                return node;
+        }
+        return ringNodes[pos % ringPoints.length];
+    }
+
+    /**
+     * 64 bit FNV-1a of the utf-8 bytes, with a final avalanche
+     *
+     * @param s text
+     * @return hash
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Parse a comma separated list of urls
+     *
+     * @param urls text
+     * @return list of urls
+     */
+    static List<String> parseUrls(String urls) {
+        List<String> list = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            url = url.trim();
+            if (!url.isEmpty())
+                list.add(url);
+        }
+        return list;
+    }
+
+    public static class Node {
+
+        private final String baseUrl;
+        private final AtomicInteger outstanding;
+        private final AtomicInteger consecutiveFailures;
+        private final AtomicLong calls;
+        private final AtomicLong failures;
+        private final AtomicLong ejections;
+        private volatile long ejectedUntil;
+
+        private Node(String baseUrl) {
+            this.baseUrl = baseUrl;
+            this.outstanding = new AtomicInteger();
+            this.consecutiveFailures = new AtomicInteger();
+            this.calls = new AtomicLong();
+            this.failures = new AtomicLong();
+            this.ejections = new AtomicLong();
+            this.ejectedUntil = 0;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        private boolean isAvailable(long now) {
+            long until = ejectedUntil;
+            return until == 0 || now - until >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+
+/**
+ * What is compared between two solr responses: the number of hits, and the
+ * ids of the returned documents (in order)
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class SolrResponse {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final long numFound;
+    private final int docs;
+    private final long docsHash;
+
+    SolrResponse(long numFound, int docs, long docsHash) {
+        this.numFound = numFound;
+        this.docs = docs;
+        this.docsHash = docsHash;
+    }
+
+    /**
+     * Parse a response from the json response writer
+     * <p>
+     * Only {@code response.numFound} and the id field of
+     * {@code response.docs} are looked at
+     *
+     * @param body    response body
+     * @param idField name of the unique key field
+     * @return response, numFound is -1 if there is no response section
+     * @throws IOException if the body isn't json
+     */
+    public static SolrResponse parse(byte[] body, String idField) throws IOException {
+        long numFound = -1;
+        int docs = 0;
+        long docsHash = 0;
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Response is not a json object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!"response".equals(field) || token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    token = parser.nextToken();
+                    if ("numFound".equals(name) && token.isNumeric()) {
+                        numFound = parser.getLongValue();
+                    } else if ("docs".equals(name) && token == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            String id = readId(parser, idField);
+                            docsHash = docsHash * 0x100000001b3L ^ ( id == null ? 0 : SolrNodes.hash(id) );
+                            docs++;
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        return new SolrResponse(numFound, docs, docsHash);
+    }
+
+    /**
+     * Read a document, returning the value of the id field
+     *
+     * @param parser  parser positioned at the start of the document
+     * @param idField name of the id field
+     * @return id or null if not present
+     * @throws IOException if the document cannot be parsed
+     */
+    private static String readId(JsonParser parser, String idField) throws IOException {
+        String id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (idField.equals(name) && token.isScalarValue())
+                id = parser.getText();
+            else
+                parser.skipChildren();
+        }
+        return id;
+    }
+
+    /**
+     * Make sure a query asks for a json response
+     *
+     * @param query query string from the log
+     * @return query string with wt=json
+     */
+    static String withJsonWriter(String query) {
+        StringBuilder sb = new StringBuilder(query.length() + 8);
+        for (String param : query.split("&")) {
+            if (param.isEmpty() || param.startsWith("wt="))
+                continue;
+            sb.append(param).append('&');
+        }
+        return sb.append("wt=json").toString();
+    }
+
+    public long getNumFound() {
+        return numFound;
+    }
+
+    public int getDocs() {
+        return docs;
+    }
+
+    public long getDocsHash() {
+        return docsHash;
+    }
+
+    @Override
+    public String toString() {
+        return "SolrResponse{" + "numFound=" + numFound + ", docs=" + docs + ", docsHash=" + Long.toHexString(docsHash) + '}';
+    }
+}
@@ -21,86 +21,180 @@
  */
 package dk.dbc.solr.performance.replayer;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 
 
 /**
  * Accept log-lines and send the contained query to a solr instance.
  * Record the execution time, and record the result
+ * <p>
+ * The sender is shared between all tasks, and calls are made through a
+ * pooled (keep-alive) http client
  */
 public class SolrSender {
     private static final Logger log = LoggerFactory.getLogger(SolrSender.class);
 
-    private String baseUrl;
-    private LogCollector logCollector;
+    private static final int BUFFER_SIZE = 8192;
+
+    private SolrNodes nodes;
+    private CallReporter reporter;
+    private CloseableHttpClient client;
 
 
     /**
      * @param baseUrl Base Solr url
      * @param collector A Log-collector
+     * @param pool Connection pool to send requests through
      */
-    public SolrSender(String baseUrl, LogCollector collector) {
-        this.baseUrl = baseUrl;
-        this.logCollector = collector;
+    public SolrSender(String baseUrl, LogCollector collector, ConnectionPool pool) {
+        this(new SolrNodes(baseUrl), collector, pool);
+    }
+
+    /**
+     * @param nodes Solr nodes to spread the calls across
+     * @param collector A Log-collector
+     * @param pool Connection pool to send requests through
+     */
+    public SolrSender(SolrNodes nodes, LogCollector collector, ConnectionPool pool) {
+        this.nodes = nodes;
+        this.reporter = new CallReporter(collector);
+        this.client = pool.getClient();
     }
 
     /**
      * Send a query to solr and capture information about the request
-     * @param logLine a Line from the recorded log
+     * <p>
+     * Besides the call duration, the lag between intended and actual send
+     * time, and the duration measured from the intended send time (corrected
+     * for coordinated omission) is recorded
+     *
+     * @param logLine          a Line from the recorded log
+     * @param intendedDispatch when the query should have been sent
+     *                         ({@link System#nanoTime()})
      * @return Duration of solr-call in ms
      */
-    public long send(LogLine logLine) {
+    public long send(LogLine logLine, long intendedDispatch) {
         log.trace( "LogLine = " + logLine);
 
-        LogCollector.LogEntry logEntry = new LogCollector.LogEntry();
-
-        long callDuration = 0;
-        final String q = logLine.getQuery();
-        logEntry.setQuery(q);
+        SolrNodes.Node node = nodes.select(logLine.getQuery());
+        RequestTiming timing = new RequestTiming();
+        int responseCode = -1;
+        String error = null;
 
         try {
-            URL url = new URL(baseUrl + "/select?" + q );
-            HttpURLConnection solrClient= (HttpURLConnection) url.openConnection();
-            solrClient.setRequestMethod("GET");
-
-            Timer.start();
-            solrClient.connect();
-            int responseCode = solrClient.getResponseCode();
-
-            logCollector.incrementFor(Integer.toString(responseCode));
-
-            if (responseCode != 200) {
-                log.error( "Got non-zero status({}) from solr on query: {}", responseCode, q);
-                logEntry.setStatus("Non-zero exit status from solr(" + responseCode + ")");
+            HttpGet request = new HttpGet(toUri(node.getBaseUrl() + "/select?" + logLine.getQuery()));
+            HttpClientContext context = HttpClientContext.create();
+            context.setAttribute(RequestTiming.ATTRIBUTE, timing);
+
+            try (CloseableHttpResponse response = client.execute(request, context)) {
+                responseCode = response.getStatusLine().getStatusCode();
+                // Read the entire body, the connection is only reused if drained
+                timing.setQTime(readBody(response.getEntity()));
             }
         } catch (Exception e) {
-            log.error("Exception from solrClient caught ({}) on query: {}", e.getMessage() , q);
-            logEntry.setStatus("Exception from solr (" + e.getMessage() + ")");
+            error = String.valueOf(e.getMessage());
+        } finally {
+            timing.close();
+            nodes.release(node, responseCode);
         }
 
-        finally {
-            callDuration = Timer.end();
-            logEntry.setCallDuration(callDuration);
-            logCollector.addEntry(logEntry);
+        return reporter.report(logLine, node.getBaseUrl(), intendedDispatch, timing, responseCode, error);
+    }
 
-            log.info( "Call duration = {}ms", callDuration);
+    /**
+     * Read the entire response body, extracting the QTime
+     *
+     * @param entity response body
+     * @return QTime or -1 if not found
+     * @throws IOException if the response cannot be read
+     */
+    static int readBody(HttpEntity entity) throws IOException {
+        if (entity == null)
+            return -1;
+        QTimeExtractor extractor = new QTimeExtractor();
+        try (InputStream is = entity.getContent()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = is.read(buffer) ; n != -1 ; n = is.read(buffer)) {
+                extractor.accept(buffer, 0, n);
+            }
         }
-
-        return callDuration;
+        extractor.end();
+        return extractor.getQTime();
     }
-    private static class Timer {
-        private static long startTS;
 
-        public static void start() {
-            startTS = System.currentTimeMillis();
+    /**
+     * Convert an url to an uri
+     * <p>
+     * Recorded queries are not always strictly encoded, characters not
+     * allowed in an uri are quoted. Valid %XX escapes are left as they are,
+     * so the query is sent as it was recorded.
+     *
+     * @param url the url to call
+     * @return uri
+     * @throws URISyntaxException if the url cannot be parsed at all
+     */
+    static URI toUri(String url) throws URISyntaxException {
+        try {
+            return URI.create(url);
+        } catch (IllegalArgumentException ex) {
+            return new URI(quote(url));
         }
+    }
 
-        public static long end() {
-            return System.currentTimeMillis() - startTS;
+    /**
+     * Percent-encode the characters that aren't allowed in an uri
+     * <p>
+     * A % that doesn't start a valid escape is quoted too
+     *
+     * @param url url, possibly with illegal characters
+     * @return url with only legal characters
+     */
+    static String quote(String url) {
+        StringBuilder quoted = new StringBuilder(url.length() + 16);
+        for (int i = 0 ; i < url.length() ; i++) {
+            char c = url.charAt(i);
+            if (c == '%') {
+                if (i + 2 < url.length() && isHex(url.charAt(i + 1)) && isHex(url.charAt(i + 2)))
+                    quoted.append(c);
+                else
+                    quoted.append("%25");
+            } else if (isAllowed(c)) {
+                quoted.append(c);
+            } else {
+                int end = Character.isHighSurrogate(c) && i + 1 < url.length() ? i + 2 : i + 1;
+                for (byte b : url.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                    quoted.append('%')
+                            .append(Character.toUpperCase(Character.forDigit(( b >> 4 ) & 0xf, 16)))
+                            .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+                }
+                i = end - 1;
+            }
         }
+        return quoted.toString();
+    }
+
+    /**
+     * Unreserved and reserved characters of RFC 3986, except #, which would
+     * end the query
+     */
+    private static boolean isAllowed(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' ||
+               "-._~!$&'()*+,;=:@/?".indexOf(c) != -1;
+    }
+
+    private static boolean isHex(char c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import dk.dbc.solr.performance.Compression;
+import dk.dbc.solr.performance.SeekIndex;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A recording as written by the recorder: a line per query "delta query",
+ * and comment lines starting with #
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class TextRecordingReader implements RecordingReader {
+
+    private static final Logger log = LoggerFactory.getLogger(TextRecordingReader.class);
+
+    private final BufferedReader reader;
+    private final LogLineParser parser;
+    private String text;
+
+    public TextRecordingReader(InputStream is) {
+        this.reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        this.parser = new LogLineParser();
+    }
+
+    /**
+     * Open a text recording, sought to the last indexed line before an
+     * offset, if it is uncompressed
+     *
+     * @param input       file name
+     * @param startOffset time into the recording (ms)
+     * @return stream of the (decompressed) content
+     * @throws IOException if the file cannot be opened
+     */
+    static InputStream openAt(String input, long startOffset) throws IOException {
+        if (startOffset > 0) {
+            Path path = Paths.get(input);
+            Compression compression;
+            try (InputStream is = new BufferedInputStream(Files.newInputStream(path))) {
+                compression = Compression.ofMagic(is);
+            }
+            if (compression == Compression.NONE) {
+                long position = SeekIndex.load(path).positionOf(startOffset);
+                log.info("Seeking to byte {} of {}", position, input);
+                FileInputStream is = new FileInputStream(input);
+                try {
+                    is.getChannel().position(position);
+                } catch (IOException ex) {
+                    is.close();
+                    throw ex;
+                }
+                return is;
+            }
+            log.info("{} is compressed, reading up to the start offset", input);
+        }
+        return Compression.open(input);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        text = reader.readLine();
+        if (text == null)
+            return false;
+        parser.parse(text);
+        return true;
+    }
+
+    @Override
+    public boolean isValid() {
+        return parser.isValid();
+    }
+
+    @Override
+    public long getTimeDelta() {
+        return parser.getTimeDelta();
+    }
+
+    @Override
+    public LogLine getLine() {
+        if (!parser.isValid())
+            return LogLine.of(text);
+        return LogLine.of(parser.getTimeDelta(), text.substring(parser.getQueryStart()));
+    }
+
+    @Override
+    public long getMalformed() {
+        return parser.getMalformed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
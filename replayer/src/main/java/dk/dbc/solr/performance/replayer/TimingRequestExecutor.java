@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.IOException;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Request executor that marks when a connection has been acquired, and when
+ * the response headers arrive, in the {@link RequestTiming} of the http
+ * context
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+class TimingRequestExecutor extends HttpRequestExecutor {
+
+    @Override
+    public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+        RequestTiming timing = timingOf(context);
+        if (timing != null)
+            timing.acquired();
+        return super.execute(request, conn, context);
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context) throws HttpException, IOException {
+        HttpResponse response = super.doReceiveResponse(request, conn, context);
+        RequestTiming timing = timingOf(context);
+        if (timing != null)
+            timing.firstByte();
+        return response;
+    }
+
+    private static RequestTiming timingOf(HttpContext context) {
+        Object timing = context.getAttribute(RequestTiming.ATTRIBUTE);
+        return timing instanceof RequestTiming ? (RequestTiming) timing : null;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The start of a replay, where calls are sent but kept out of the main
+ * statistics and the call time watcher
+ * <p>
+ * The warm-up is either a duration from start, or a number of dispatched
+ * lines. Lines in it are dispatched as {@link LogLine#asWarmup()}.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Warmup {
+
+    private final long lines;
+    private final long duration;
+
+    /**
+     * @param lines    number of lines in the warm-up (0 for none)
+     * @param duration duration of the warm-up (ms, 0 for none)
+     */
+    public Warmup(long lines, long duration) {
+        this.lines = lines;
+        this.duration = TimeUnit.MILLISECONDS.toNanos(duration);
+    }
+
+    /**
+     * Is a line part of the warm-up
+     *
+     * @param dispatched number of lines dispatched before this one
+     * @param sinceStart time since start (nanoseconds)
+     * @return true if the line should be sent as warm-up
+     */
+    public boolean includes(long dispatched, long sinceStart) {
+        return dispatched < lines || sinceStart < duration;
+    }
+
+    /**
+     * @return true if there is a warm-up
+     */
+    public boolean isEnabled() {
+        return lines > 0 || duration > 0;
+    }
+
+    @Override
+    public String toString() {
+        return lines > 0 ? lines + " lines" : TimeUnit.NANOSECONDS.toMillis(duration) + "ms";
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed number of worker threads with a bounded queue in front
+ * <p>
+ * When the queue is full the {@link Overflow} policy decides what happens to
+ * the call being dispatched.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class WorkerPool extends ThreadPoolExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkerPool.class);
+
+    public enum Overflow {
+        /**
+         * The dispatcher waits for room in the queue
+         */
+        BLOCK,
+        /**
+         * The new call is dropped (and counted)
+         */
+        DROP,
+        /**
+         * The oldest queued call is dropped (and counted), and the new call
+         * is queued
+         */
+        SHED;
+
+        /**
+         * Case insensitive lookup
+         *
+         * @param name policy name
+         * @return policy
+         */
+        public static Overflow of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown overflow policy: " + name + " (use block, drop or shed)");
+            }
+        }
+    }
+
+    private final Overflow overflow;
+    private final AtomicLong blocked;
+    private final AtomicLong dropped;
+    private final AtomicLong shed;
+    private final AtomicInteger peakQueueDepth;
+
+    /**
+     * Construct a worker pool
+     *
+     * @param concurrency number of worker threads
+     * @param queueSize   number of calls that can wait for a worker
+     * @param overflow    what to do when the queue is full
+     */
+    public WorkerPool(int concurrency, int queueSize, Overflow overflow) {
+        super(concurrency, concurrency, 60L, TimeUnit.SECONDS,
+              new ArrayBlockingQueue<>(queueSize),
+              new WorkerThreadFactory());
+        this.overflow = overflow;
+        this.blocked = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.shed = new AtomicLong();
+        this.peakQueueDepth = new AtomicInteger();
+        setRejectedExecutionHandler(new OverflowHandler());
+    }
+
+    /**
+     * Construct a worker pool from the command line parameters
+     *
+     * @param config configuration
+     * @return worker pool
+     */
+    public static WorkerPool of(Config config) {
+        return new WorkerPool(config.getConcurrency(), config.getQueueSize(), config.getOverflow());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command);
+        peakQueueDepth.accumulateAndGet(getQueue().size(), Math::max);
+    }
+
+    /**
+     * Number of calls that has been dropped, because the queue was full
+     *
+     * @return count
+     */
+    public long getRejected() {
+        return dropped.get() + shed.get();
+    }
+
+    /**
+     * Current statistics of the pool
+     *
+     * @return map of name to value
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("concurrency", (long) getMaximumPoolSize());
+        map.put("queueSize", (long) ( getQueue().size() + getQueue().remainingCapacity() ));
+        map.put("queueDepth", (long) getQueue().size());
+        map.put("peakQueueDepth", (long) peakQueueDepth.get());
+        map.put("active", (long) getActiveCount());
+        map.put("completed", getCompletedTaskCount());
+        map.put("blocked", blocked.get());
+        map.put("dropped", dropped.get());
+        map.put("shed", shed.get());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkerPool{" + "overflow=" + overflow + ", " + getStats() + '}';
+    }
+
+    private class OverflowHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown())
+                return;
+            switch (overflow) {
+                case BLOCK:
+                    blocked.incrementAndGet();
+                    try {
+                        executor.getQueue().put(r);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case DROP:
+                    dropped.incrementAndGet();
+                    log.debug("Dropped call - queue is full");
+                    break;
+                case SHED:
+                    if (executor.getQueue().poll() != null) {
+                        shed.incrementAndGet();
+                        log.debug("Shed oldest call - queue is full");
+                    }
+                    executor.execute(r);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown overflow policy: " + overflow);
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger number = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "replayer-" + number.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class AsyncEngineTest {
+
+    @Rule
+    public WireMockRule wireMock = new WireMockRule(options().dynamicPort());
+
+    @Test(timeout = 10_000L)
+    public void testCallsAreReported() throws Exception {
+        System.out.println("testCallsAreReported");
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody("{\"responseHeader\":{\"status\":0,\"QTime\":3}}")));
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .withQueryParam("q", equalTo("fail"))
+                .willReturn(aResponse()
+                        .withStatus(500)
+                        .withBody("{}")));
+
+        Config config = Config.of("-s", "http://localhost:" + wireMock.port() + "/solr",
+                                  "--engine", "async", "--concurrency", "2", "--max-connections", "2");
+        LogCollector collector = new LogCollector();
+        CallTimeWathcer watcher = new CallTimeWathcer(100, 10, 5000);
+        AtomicInteger exceeded = new AtomicInteger();
+        try (ReplayEngine engine = ReplayEngine.of(config, collector, watcher, exceeded::incrementAndGet)) {
+            assertThat(engine, instanceOf(AsyncEngine.class));
+            for (int i = 0 ; i < 5 ; i++) {
+                engine.submit(LogLine.of("0 q=ok"), System.nanoTime());
+            }
+            engine.submit(LogLine.of("0 q=fail"), System.nanoTime());
+            engine.awaitCompletion(5000);
+
+            Map<String, Long> stats = engine.getWorkerStats();
+            assertThat(stats.get("completed"), is(6L));
+            assertThat(stats.get("inFlight"), is(0L));
+            assertThat(stats.get("dropped"), is(0L));
+            assertThat(stats.get("peakInFlight"), lessThanOrEqualTo(2L));
+            assertThat(engine.getConnectionStats().get("leased"), is(0));
+        }
+        assertThat(exceeded.get(), is(0));
+        wireMock.verify(6, getRequestedFor(urlPathEqualTo("/solr/select")));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testConcurrencyExceedsMaxConnections() throws Exception {
+        System.out.println("testConcurrencyExceedsMaxConnections");
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(1000)
+                        .withBody("{\"responseHeader\":{\"status\":0,\"QTime\":3}}")));
+
+        Config config = Config.of("-s", "http://localhost:" + wireMock.port() + "/solr",
+                                  "--engine", "async", "--concurrency", "8", "--max-connections", "2");
+        LogCollector collector = new LogCollector();
+        CallTimeWathcer watcher = new CallTimeWathcer(100, 10, 5000);
+        try (ReplayEngine engine = ReplayEngine.of(config, collector, watcher, () -> {})) {
+            for (int i = 0 ; i < 8 ; i++) {
+                engine.submit(LogLine.of("0 q=" + i), System.nanoTime());
+            }
+            int leased = 0;
+            for (int i = 0 ; i < 80 && leased < 8 ; i++) {
+                Thread.sleep(10);
+                leased = engine.getConnectionStats().get("leased");
+            }
+            assertThat(leased, is(8));
+            engine.awaitCompletion(5000);
+            assertThat(engine.getWorkerStats().get("completed"), is(8L));
+        }
+        wireMock.verify(8, getRequestedFor(urlPathEqualTo("/solr/select")));
+    }
+}
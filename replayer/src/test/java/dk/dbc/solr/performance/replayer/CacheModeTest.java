@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CacheModeTest {
+
+    @Test
+    public void testParse() throws Exception {
+        System.out.println("testParse");
+        assertThat(CacheMode.of("none").getKind(), is(CacheMode.Kind.NONE));
+        assertThat(CacheMode.of("bust").getKind(), is(CacheMode.Kind.BUST));
+        assertThat(CacheMode.of("bust:0.5").toString(), is("bust:0.5"));
+        assertThat(CacheMode.of("hot-set:10").getKind(), is(CacheMode.Kind.HOT_SET));
+        for (String invalid : new String[] {"bust:0", "bust:2", "hot-set:0", "cold"}) {
+            try {
+                CacheMode.of(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException ex) {
+                System.out.println(invalid + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testBust() throws Exception {
+        System.out.println("testBust");
+        assertThat(CacheMode.bust("q=a+b&fq=type%3Abook&rows=10", 7),
+                   is("q=%7B%21cache%3Dfalse%7Da+b&fq=%7B%21cache%3Dfalse%7Dtype%3Abook&rows=10&cacheBust=7"));
+        // Local params are only allowed in q with the lucene parser
+        assertThat(CacheMode.bust("q=a&defType=edismax&fq=%7B!tag%3Dt%7Dtype:book", 8),
+                   is("q=a&defType=edismax&fq=%7B%21cache%3Dfalse+tag%3Dt%7Dtype%3Abook&cacheBust=8"));
+    }
+
+    @Test
+    public void testBustRatio() throws Exception {
+        System.out.println("testBustRatio");
+        CacheMode.Rewriter rewriter = CacheMode.of("bust:0.25").rewriter(null);
+        int busted = 0;
+        for (int i = 0 ; i < 100 ; i++) {
+            LogLine line = rewriter.apply(LogLine.of(i, "q=a"), i);
+            if (line.getQuery().contains("cacheBust="))
+                busted++;
+        }
+        assertThat(busted, is(25));
+        assertThat(rewriter.stats().get("busted"), is(25L));
+    }
+
+    @Test
+    public void testHotSet() throws Exception {
+        System.out.println("testHotSet");
+        StringBuilder recording = new StringBuilder("#header\n");
+        for (int i = 0 ; i < 1000 ; i++) {
+            // q=hot0 every 2nd line, q=hot1 every 4th, and a long tail
+            String query = i % 2 == 0 ? "q=hot0" : i % 4 == 1 ? "q=hot1" : "q=tail" + i;
+            recording.append(i).append(' ').append(query).append('\n');
+        }
+        CacheMode mode = CacheMode.of("hot-set:2");
+        List<String> hotSet;
+        try (RecordingReader reader = new TextRecordingReader(new ByteArrayInputStream(recording.toString().getBytes(UTF_8)))) {
+            hotSet = mode.hotSet(reader, 0, Long.MAX_VALUE);
+        }
+        assertThat(hotSet, contains("q=hot0", "q=hot1"));
+
+        CacheMode.Rewriter rewriter = mode.rewriter(hotSet);
+        assertThat(rewriter.apply(LogLine.of(0, "q=hot1"), 0).getQuery(), is("q=hot1"));
+        assertThat(rewriter.apply(LogLine.of(1, "q=tail"), 1).getQuery(), is("q=hot0"));
+        assertThat(rewriter.apply(LogLine.of(2, "q=tail"), 2).getQuery(), is("q=hot1"));
+        assertThat(rewriter.apply(LogLine.of(3, "q=tail"), 3).getQuery(), is("q=hot0"));
+        Map<String, Object> stats = rewriter.stats();
+        assertThat(stats.get("substituted"), is(3L));
+    }
+}
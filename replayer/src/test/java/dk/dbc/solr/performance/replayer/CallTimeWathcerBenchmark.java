@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Cost of adding a call time to the watcher, compared to the former
+ * synchronized, boxed and rescanning implementation
+ * <p>
+ * Run the main method with the test classpath, ie. from the IDE
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class CallTimeWathcerBenchmark {
+
+    private static final long CUTOFF = 5000;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int window;
+
+    private CallTimeWathcer watcher;
+    private SynchronizedWatcher synchronizedWatcher;
+
+    @Setup
+    public void setUp() {
+        // The limit is never hit, so the exception doesn't take part
+        watcher = new CallTimeWathcer(window, Integer.MAX_VALUE, CUTOFF);
+        synchronizedWatcher = new SynchronizedWatcher(window, Integer.MAX_VALUE, CUTOFF);
+    }
+
+    @Benchmark
+    public void ring() {
+        watcher.addCallTime(callTime());
+    }
+
+    @Benchmark
+    public void synchronizedStack() {
+        synchronizedWatcher.addCallTime(callTime());
+    }
+
+    private static long callTime() {
+        return ThreadLocalRandom.current().nextLong(2 * CUTOFF);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CallTimeWathcerBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    /**
+     * The former implementation (with the former fixed size stack inlined)
+     */
+    private static class SynchronizedWatcher {
+
+        private final Deque<Long> callTimes;
+        private final int callBufferSize;
+        private final int maxCalls;
+        private final long cutoffLimit;
+
+        private SynchronizedWatcher(int callBufferSize, int maxCalls, long cutoffLimit) {
+            this.callTimes = new ArrayDeque<>(callBufferSize);
+            this.callBufferSize = callBufferSize;
+            this.maxCalls = maxCalls;
+            this.cutoffLimit = cutoffLimit;
+        }
+
+        private synchronized void addCallTime(long callTime) {
+            while (callTimes.size() >= callBufferSize) {
+                callTimes.removeLast();
+            }
+            callTimes.push(callTime);
+            if (callTimes.stream().filter(e -> e >= cutoffLimit).count() > maxCalls) {
+                throw new CallTimeExceededException();
+            }
+        }
+    }
+}
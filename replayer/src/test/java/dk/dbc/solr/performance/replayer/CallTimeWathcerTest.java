@@ -56,6 +56,39 @@ public class CallTimeWathcerTest {
         assertEquals( 3, c.numElementsAbove(2));
     }
 
+    @Test
+    public void testCallStackKeepsRunningCount() {
+        CallTimeWathcer.CallStack c = new CallTimeWathcer.CallStack(3, 10);
+        assertEquals( 1, c.push(10));
+        assertEquals( 1, c.push(9));
+        assertEquals( 2, c.push(11));
+        assertEquals( 1, c.push(1)); // Replaces 10
+        assertEquals( 1, c.push(1)); // Replaces 9
+        assertEquals( 0, c.push(1)); // Replaces 11
+        assertEquals( 0, c.numElementsAbove(10));
+        assertEquals( 3, c.numElementsAbove(1));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testConcurrentCallTimes() throws Exception {
+        int threads = 8;
+        CallTimeWathcer.CallStack c = new CallTimeWathcer.CallStack(100, 50);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0 ; t < threads ; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0 ; i < 100_000 ; i++) {
+                    c.push(( i % 2 ) * 100);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // Scanning (any limit above 0) agrees with the running count
+        assertEquals( c.numElementsAbove(1), c.numElementsAbove(50));
+    }
+
     @Test(expected = CallTimeExceededException.class)
     public void testThrowsException() {
         int numCalls = 10;
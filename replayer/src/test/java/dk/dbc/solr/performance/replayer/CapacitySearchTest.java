@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CapacitySearchTest {
+
+    private static final Slo SLO = Slo.of("p99:100ms,errors:1%", t -> Long.parseLong(t.replace("ms", "")));
+
+    /**
+     * A fake solr where the latency is 20ms until the speed exceeds the
+     * capacity, and 500ms above it
+     */
+    private static CapacitySearch.Step replay(double speed, double capacity, List<Double> speeds) {
+        speeds.add(speed);
+        Histogram histogram = LatencyHistograms.newHistogram();
+        histogram.recordValueWithCount(speed > capacity ? 500_000 : 20_000, 100);
+        return new CapacitySearch.Step(speed, 100, Collections.singletonMap("200", histogram), 0, TimeUnit.SECONDS.toNanos(10), false);
+    }
+
+    @Test(timeout = 2_000L)
+    public void testStepStopsAtFirstViolation() throws Exception {
+        System.out.println("testStepStopsAtFirstViolation");
+        List<Double> speeds = new ArrayList<>();
+        CapacitySearch search = new CapacitySearch(CapacitySearch.Strategy.of("step:1x,2x,4x,8x,16x"), SLO);
+        search.run(speed -> replay(speed, 5, speeds));
+
+        assertThat(speeds, contains(1.0, 2.0, 4.0, 8.0));
+        assertThat(search.getKnee().getSpeed(), is(4.0));
+        assertThat(search.getKnee().getQps(), is(10.0));
+
+        List<?> curve = (List<?>) search.report().get("curve");
+        assertThat(curve.size(), is(4));
+        assertThat(( (Map<?, ?>) curve.get(3) ).get("passed"), is((Object) false));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBinaryConvergesOnKnee() throws Exception {
+        System.out.println("testBinaryConvergesOnKnee");
+        List<Double> speeds = new ArrayList<>();
+        CapacitySearch search = new CapacitySearch(CapacitySearch.Strategy.of("binary:1x:32x:8"), SLO);
+        search.run(speed -> replay(speed, 5, speeds));
+
+        assertThat(speeds.size(), is(10));
+        assertThat(search.getKnee().getSpeed(), lessThanOrEqualTo(5.0));
+        assertThat(search.getKnee().getSpeed(), greaterThan(4.5));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testNoKneeIfFirstStepFails() throws Exception {
+        System.out.println("testNoKneeIfFirstStepFails");
+        List<Double> speeds = new ArrayList<>();
+        CapacitySearch search = new CapacitySearch(CapacitySearch.Strategy.of("binary:1x:32x"), SLO);
+        search.run(speed -> replay(speed, 0.5, speeds));
+
+        assertThat(speeds, contains(1.0));
+        assertThat(search.getKnee(), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSloErrors() throws Exception {
+        System.out.println("testSloErrors");
+        Histogram ok = LatencyHistograms.newHistogram();
+        ok.recordValueWithCount(20_000, 98);
+        assertThat(SLO.violations(ok, 100, 1), empty());
+        assertThat(SLO.violations(ok, 100, 2), contains("errors 2.00% > 1%"));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRejectedCountAsFailures() throws Exception {
+        System.out.println("testRejectedCountAsFailures");
+        CapacitySearch search = new CapacitySearch(CapacitySearch.Strategy.of("step:1x,2x"), SLO);
+        search.run(speed -> {
+            Histogram histogram = LatencyHistograms.newHistogram();
+            histogram.recordValueWithCount(20_000, 100);
+            return new CapacitySearch.Step(speed, 120, Collections.singletonMap("200", histogram),
+                                           speed > 1 ? 20 : 0, TimeUnit.SECONDS.toNanos(10), false);
+        });
+
+        assertThat(search.getKnee().getSpeed(), is(1.0));
+        Map<?, ?> step = (Map<?, ?>) ( (List<?>) search.report().get("curve") ).get(1);
+        assertThat(step.get("rejected"), is((Object) 20L));
+        assertThat(step.get("failures"), is((Object) 20L));
+        assertThat(step.get("passed"), is((Object) false));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ClosedLoopEngineTest {
+
+    @Rule
+    public WireMockRule wireMock = new WireMockRule(options().dynamicPort());
+
+    @Test(timeout = 10_000L)
+    public void testUsersShareTheLoad() throws Exception {
+        System.out.println("testUsersShareTheLoad");
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(20)
+                        .withBody("{\"responseHeader\":{\"status\":0,\"QTime\":3}}")));
+
+        Config config = Config.of("-s", "http://localhost:" + wireMock.port() + "/solr", "--users", "4");
+        LogCollector collector = new LogCollector();
+        AtomicInteger exceeded = new AtomicInteger();
+        long before = System.nanoTime();
+        try (ReplayEngine engine = ReplayEngine.of(config, collector, new CallTimeWathcer(100, 10, 5000), exceeded::incrementAndGet)) {
+            assertThat(engine, instanceOf(ClosedLoopEngine.class));
+            for (int i = 0 ; i < 40 ; i++) {
+                engine.submit(LogLine.of("0 q=" + i), 0);
+            }
+            engine.awaitCompletion(5000);
+            long elapsed = ( System.nanoTime() - before ) / 1_000_000;
+            // 4 users, 10 calls each of at least 20ms
+            assertThat(elapsed, greaterThanOrEqualTo(200L));
+
+            Map<String, Object> stats = ( (ClosedLoopEngine) engine ).getLoopStats();
+            assertThat(stats.get("calls"), is(40L));
+            assertThat((Double) stats.get("throughput"), lessThanOrEqualTo(200.0));
+            assertThat((Double) stats.get("fairness"), greaterThan(0.8));
+            assertThat(engine.getConnectionStats().get("peakLeased"), lessThanOrEqualTo(4));
+        }
+        assertThat(exceeded.get(), is(0));
+        wireMock.verify(40, getRequestedFor(urlPathEqualTo("/solr/select")));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CoordinatorTest {
+
+    private static final TypeReference<Map<String, Object>> OUTPUT = new TypeReference<Map<String, Object>>() {};
+
+    @Rule
+    public WireMockRule wireMock = new WireMockRule(options().dynamicPort());
+
+    @Test
+    public void testShard() throws Exception {
+        System.out.println("testShard");
+        Shard byLine = Shard.of("1/3", 0);
+        assertThat(byLine.includes(0, 0), is(false));
+        assertThat(byLine.includes(1, 0), is(true));
+        assertThat(byLine.includes(4, 0), is(true));
+
+        Shard bySlice = Shard.of("1/2", 1000);
+        assertThat(bySlice.includes(0, 999), is(false));
+        assertThat(bySlice.includes(1, 1000), is(true));
+        assertThat(bySlice.includes(2, 1999), is(true));
+        assertThat(bySlice.includes(3, 2000), is(false));
+    }
+
+    @Test
+    public void testWorkerArguments() throws Exception {
+        System.out.println("testWorkerArguments");
+        List<String> arguments = Coordinator.workerArguments(
+                Config.optionDefinitions(),
+                Arrays.asList("-s", "http://localhost/solr", "--workers", "4", "-oout.json", "-r", "2x", "--output=x", "-v"),
+                Arrays.asList("workers", "output"));
+        assertThat(arguments, is(Arrays.asList("-s", "http://localhost/solr", "-r", "2x", "-v")));
+    }
+
+    @Test
+    public void testMergeIsEquivalent() throws Exception {
+        System.out.println("testMergeIsEquivalent");
+        LogCollector single = new LogCollector(LogCollector.Mode.HISTOGRAM);
+        LogCollector[] shards = new LogCollector[] {
+            new LogCollector(LogCollector.Mode.HISTOGRAM),
+            new LogCollector(LogCollector.Mode.HISTOGRAM),
+            new LogCollector(LogCollector.Mode.HISTOGRAM)};
+        for (int i = 0 ; i < 1000 ; i++) {
+            String status = i % 10 == 0 ? "500" : "200";
+            long duration = TimeUnit.MICROSECONDS.toNanos(i * 37 % 5000);
+            for (LogCollector collector : Arrays.asList(single, shards[i % 3])) {
+                collector.incrementFor(status);
+                collector.recordLatency(status, duration, duration * 2);
+            }
+        }
+        List<Coordinator.Worker> workers = new ArrayList<>();
+        for (int i = 0 ; i < shards.length ; i++) {
+            shards[i].setExportHistograms(true);
+            workers.add(new Coordinator.Worker(i, 0, dump(shards[i])));
+        }
+
+        // Compared as written, where numbers are as small as they fit
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Object> merged = mapper.readValue(
+                mapper.writeValueAsBytes(Coordinator.merge(new HashMap<>(), LogCollector.Mode.HISTOGRAM, workers)), OUTPUT);
+        Map<String, Object> expected = dump(single);
+        assertThat(merged.get("latency"), is(expected.get("latency")));
+        assertThat(merged.get("correctedLatency"), is(expected.get("correctedLatency")));
+        assertThat(merged.get("statistics"), is(expected.get("statistics")));
+        assertThat(((Map<?, ?>) merged.get("status")).get("code"), is(0));
+        assertThat((List<?>) merged.get("workers"), hasSize(3));
+    }
+
+    @Test(timeout = 60_000L)
+    public void testWorkersOnLocalhost() throws Exception {
+        System.out.println("testWorkersOnLocalhost");
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody("{\"responseHeader\":{\"status\":0,\"QTime\":1}}")));
+        File recording = File.createTempFile("recording", ".data");
+        File output = File.createTempFile("merged", ".json");
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add("#{\"started\":\"2019-03-13T09:33:06.730Z\"}");
+            for (int i = 0 ; i < 30 ; i++) {
+                lines.add(( i * 10 ) + " q=" + i);
+            }
+            Files.write(recording.toPath(), lines, StandardCharsets.UTF_8);
+
+            Config config = Config.of("-s", "http://localhost:" + wireMock.port() + "/solr",
+                                      "-i", recording.getPath(), "-o", output.getPath(),
+                                      "--workers", "3", "--report-interval", "0");
+            int code = new Replayer(config).run();
+            assertThat(code, is(0));
+
+            Map<?, ?> merged = new ObjectMapper().readValue(output, Map.class);
+            assertThat(((Map<?, ?>) merged.get("statistics")).get("200"), is(30));
+            assertThat(((Map<?, ?>) ((Map<?, ?>) merged.get("latency")).get("200")).get("count"), is(30));
+            assertThat((List<?>) merged.get("workers"), hasSize(3));
+            // A call and a schedule entry per line
+            assertThat((List<?>) merged.get("loglines"), hasSize(60));
+            assertThat(merged.containsKey("histograms"), is(false));
+            wireMock.verify(30, getRequestedFor(urlPathEqualTo("/solr/select")));
+        } finally {
+            recording.delete();
+            output.delete();
+        }
+    }
+
+    private static Map<String, Object> dump(LogCollector collector) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        collector.dump(bos);
+        return new ObjectMapper().readValue(bos.toByteArray(), OUTPUT);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class EntryBuffersTest {
+
+    private static final int THREADS = 8;
+    private static final int ENTRIES = 10_000;
+
+    @Test(timeout = 10_000L)
+    public void testNoEntriesAreLost() throws Exception {
+        System.out.println("testNoEntriesAreLost");
+        EntryBuffers buffers = new EntryBuffers();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0 ; t < THREADS ; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                for (int i = 0 ; i < ENTRIES ; i++) {
+                    LogCollector.LogEntry entry = new LogCollector.LogEntry();
+                    entry.setCallDuration(thread * ENTRIES + i);
+                    buffers.add(entry);
+                }
+            });
+        }
+        start.countDown();
+        // Entries can be read while they're being added
+        assertThat(buffers.entries().size(), lessThanOrEqualTo(THREADS * ENTRIES));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        List<LogCollector.LogEntry> entries = buffers.entries();
+        assertThat(buffers.size(), is((long) THREADS * ENTRIES));
+        assertThat(entries.size(), is(THREADS * ENTRIES));
+        boolean[] seen = new boolean[THREADS * ENTRIES];
+        long previous = -1;
+        for (LogCollector.LogEntry entry : entries) {
+            assertThat(entry.sequence(), greaterThan(previous));
+            previous = entry.sequence();
+            assertFalse(seen[(int) entry.getCallDuration()]);
+            seen[(int) entry.getCallDuration()] = true;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class IntervalReporterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Rule
+    public WireMockRule wireMock = new WireMockRule(options().dynamicPort());
+
+    @Test(timeout = 2_000L)
+    public void testSnapshot() throws Exception {
+        System.out.println("testSnapshot");
+        LogCollector logCollector = new LogCollector(LogCollector.Mode.HISTOGRAM);
+        IntervalReporter reporter = new IntervalReporter(logCollector, 0);
+        reporter.start(0);
+        for (int i = 0 ; i < 4 ; i++) {
+            reporter.dispatched(i * SECOND / 10, i * SECOND / 10 + TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        logCollector.recordLatency("200", TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(10));
+        logCollector.recordLatency("500", TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.MILLISECONDS.toNanos(20));
+
+        Map<String, Object> snapshot = reporter.snapshot(2 * SECOND);
+        assertThat(snapshot.get("dispatched"), is((Object) 2.0));
+        assertThat(snapshot.get("completed"), is((Object) 1.0));
+        assertThat(snapshot.get("inFlight"), is((Object) 2L));
+        assertThat((Double) snapshot.get("max"), closeTo(20.0, 0.1));
+        assertThat(snapshot.get("lag"), is((Object) 3L));
+        assertThat(((Map<?, ?>) snapshot.get("errors")).get("500"), is((Object) 1L));
+
+        // The next interval only has what happened since
+        logCollector.recordLatency("200", TimeUnit.MILLISECONDS.toNanos(30), TimeUnit.MILLISECONDS.toNanos(30));
+        snapshot = reporter.snapshot(3 * SECOND);
+        assertThat(snapshot.get("dispatched"), is((Object) 0.0));
+        assertThat(snapshot.get("completed"), is((Object) 1.0));
+        assertThat(snapshot.get("inFlight"), is((Object) 1L));
+        assertThat((Double) snapshot.get("p50"), closeTo(30.0, 0.1));
+        assertThat(((Map<?, ?>) snapshot.get("errors")).isEmpty(), is(true));
+        assertThat(snapshot.get("lag"), is((Object) 0L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testUnscheduledHasNoLag() throws Exception {
+        System.out.println("testUnscheduledHasNoLag");
+        LogCollector logCollector = new LogCollector(LogCollector.Mode.HISTOGRAM);
+        IntervalReporter reporter = new IntervalReporter(logCollector, 0);
+        reporter.start(0);
+        reporter.dispatched(0, TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(reporter.getLag(), is(TimeUnit.MILLISECONDS.toNanos(5)));
+        for (int i = 0 ; i < 10 ; i++) {
+            reporter.dispatched();
+        }
+        assertThat(reporter.getLag(), is(0L));
+        Map<String, Object> snapshot = reporter.snapshot(SECOND);
+        assertThat(snapshot.get("dispatched"), is((Object) 11.0));
+        assertThat(snapshot.get("lag"), is((Object) 5L));
+        reporter.dispatched();
+        assertThat(reporter.snapshot(2 * SECOND).get("lag"), is((Object) 0L));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testDroppedAreNotInFlight() throws Exception {
+        System.out.println("testDroppedAreNotInFlight");
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(200)
+                        .withBody("{\"responseHeader\":{\"status\":0,\"QTime\":3}}")));
+
+        Config config = Config.of("-s", "http://localhost:" + wireMock.port() + "/solr",
+                                  "--concurrency", "1", "--queue-size", "1", "--overflow", "drop");
+        LogCollector logCollector = new LogCollector(LogCollector.Mode.HISTOGRAM);
+        CallTimeWathcer watcher = new CallTimeWathcer(100, 10, 5000);
+        try (ReplayEngine engine = ReplayEngine.of(config, logCollector, watcher, () -> {})) {
+            IntervalReporter reporter = new IntervalReporter(logCollector, engine::getRejected, 0);
+            reporter.start(0);
+            for (int i = 0 ; i < 5 ; i++) {
+                reporter.dispatched();
+                engine.submit(LogLine.of("0 q=" + i), System.nanoTime());
+            }
+            assertThat(engine.getRejected(), is(3L));
+            assertThat(reporter.getAccepted(), is(2L));
+            assertThat(reporter.getInFlight(), lessThanOrEqualTo(2L));
+
+            engine.awaitCompletion(5000);
+            Map<String, Object> snapshot = reporter.snapshot(SECOND);
+            assertThat(snapshot.get("dispatched"), is((Object) 2.0));
+            assertThat(snapshot.get("completed"), is((Object) 2.0));
+            assertThat(snapshot.get("inFlight"), is((Object) 0L));
+            assertThat(reporter.getInFlight(), is(0L));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramsTest {
+
+    @Test(timeout = 5_000L)
+    public void testThreadsAreMerged() throws Exception {
+        System.out.println("testThreadsAreMerged");
+        LatencyHistograms histograms = new LatencyHistograms();
+        Thread[] threads = new Thread[4];
+        for (int i = 0 ; i < threads.length ; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 1 ; n <= 1000 ; n++) {
+                    histograms.record("200", TimeUnit.MILLISECONDS.toNanos(n));
+                }
+                histograms.record("500", TimeUnit.MILLISECONDS.toNanos(5));
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<String, Histogram> totals = histograms.totals();
+        assertThat(totals.keySet(), contains("200", "500"));
+        assertThat(totals.get("200").getTotalCount(), is(4000L));
+        assertThat(totals.get("500").getTotalCount(), is(4L));
+
+        Map<String, Object> summary = histograms.summary().get("200");
+        assertThat(summary.keySet(), contains("count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        assertThat((Double) summary.get("p50"), closeTo(500.0, 1.0));
+        assertThat((Double) summary.get("p99"), closeTo(990.0, 1.0));
+        assertThat((Double) summary.get("max"), closeTo(1000.0, 1.0));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testHarvestIsInterval() throws Exception {
+        System.out.println("testHarvestIsInterval");
+        LatencyHistograms histograms = new LatencyHistograms();
+        histograms.record("200", 1_000_000L);
+        assertThat(histograms.harvest().get("200").getTotalCount(), is(1L));
+        histograms.record("200", 2_000_000L);
+        histograms.record("200", 3_000_000L);
+        assertThat(histograms.harvest().get("200").getTotalCount(), is(2L));
+        assertThat(histograms.totals().get("200").getTotalCount(), is(3L));
+    }
+}
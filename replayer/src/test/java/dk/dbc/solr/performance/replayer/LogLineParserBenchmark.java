@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Cost of parsing a recorded line, compared to the former regular
+ * expression implementation
+ * <p>
+ * Run the main method with the test classpath, ie. from the IDE (add
+ * {@code -prof gc} to see the allocation rate)
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogLineParserBenchmark {
+
+    private static final String[] LINES = new String[] {
+        "#{\"started\":\"2019-03-13T09:33:06.730Z\"}",
+        "0 q=REDACTED&defType=edismax&fl=REDACTED&start=0&fq=REDACTED&rows=99999&wt=phps&dbcPerfTest=true",
+        "35 q=REDACTED&defType=edismax&fl=REDACTED&start=0&fq=REDACTED&rows=99999&wt=phps&dbcPerfTest=true",
+        "1234567 q=REDACTED&start=1&fq=REDACTED&fq=REDACTED&rows=0&wt=phps&dbcPerfTest=true"
+    };
+
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("#.*");
+    private static final Pattern SPACE_PATTERN = Pattern.compile("(\\d+)\\s+(.*)");
+
+    private final LogLineParser parser = new LogLineParser();
+    private int next;
+
+    private String line() {
+        next = ( next + 1 ) % LINES.length;
+        return LINES[next];
+    }
+
+    /**
+     * The single pass parser, as the replayer uses it: the delta without
+     * copying out the query
+     */
+    @Benchmark
+    public long parser() {
+        return parser.parse(line()) ? parser.getTimeDelta() : -1;
+    }
+
+    /**
+     * A complete LogLine through the parser
+     */
+    @Benchmark
+    public LogLine logLine() {
+        return LogLine.of(line());
+    }
+
+    /**
+     * The former implementation
+     */
+    @Benchmark
+    public LogLine regex() {
+        String text = line();
+        if (COMMENT_PATTERN.matcher(text).matches())
+            return LogLine.of(0L, "");
+        Matcher m = SPACE_PATTERN.matcher(text);
+        m.matches();
+        return LogLine.of(Long.valueOf(m.group(1)), m.group(2));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(LogLineParserBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -78,4 +78,25 @@ public class LogLineTest {
                 .filter(LogLine::isValid)
                 .forEach(t -> assertNotNull("", t.getQuery() ));
     }
+
+    @Test(timeout = 2_000L)
+    public void testMalformed() throws Exception {
+        System.out.println("testMalformed");
+        LogLineParser parser = new LogLineParser();
+        for (String text : new String[] {"", "abc 1", "100", "100q=a", " 100 q=a", "99999999999999999999 q=a"}) {
+            assertFalse(text, parser.parse(text));
+            assertFalse(text, LogLine.of(text).isValid());
+        }
+        assertThat(parser.getMalformed(), is(6L));
+
+        assertFalse(parser.parse("# comment"));
+        assertThat(parser.getMalformed(), is(6L));
+
+        assertTrue(parser.parse("35 \tq=a b"));
+        assertThat(parser.getTimeDelta(), is(35L));
+        assertThat(parser.getQuery().toString(), is("q=a b"));
+        LogLine logLine = LogLine.of("35 \tq=a b");
+        assertThat(logLine.getTimeDelta(), is(35L));
+        assertThat(logLine.getQuery(), is("q=a b"));
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class MirrorEngineTest {
+
+    @Rule
+    public WireMockRule baseline = new WireMockRule(options().dynamicPort());
+
+    @Rule
+    public WireMockRule candidate = new WireMockRule(options().dynamicPort());
+
+    @Test(timeout = 10_000L)
+    public void testResponsesAreCompared() throws Exception {
+        System.out.println("testResponsesAreCompared");
+        baseline.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse().withStatus(200).withBody(response(2, "a", "b"))));
+        candidate.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse().withStatus(200).withBody(response(2, "a", "b"))));
+        candidate.stubFor(get(urlPathEqualTo("/solr/select"))
+                .withQueryParam("q", equalTo("reordered"))
+                .willReturn(aResponse().withStatus(200).withBody(response(2, "b", "a"))));
+        candidate.stubFor(get(urlPathEqualTo("/solr/select"))
+                .withQueryParam("q", equalTo("more"))
+                .willReturn(aResponse().withStatus(200).withBody(response(3, "a", "b"))));
+
+        Config config = Config.of("-s", "http://localhost:" + baseline.port() + "/solr",
+                                  "--mirror", "http://localhost:" + candidate.port() + "/solr");
+        LogCollector collector = new LogCollector();
+        AtomicInteger exceeded = new AtomicInteger();
+        try (ReplayEngine engine = ReplayEngine.of(config, collector, new CallTimeWathcer(100, 10, 5000), exceeded::incrementAndGet)) {
+            assertThat(engine, instanceOf(MirrorEngine.class));
+            engine.submit(LogLine.of("0 q=same&wt=javabin"), System.nanoTime());
+            engine.submit(LogLine.of("0 q=reordered"), System.nanoTime());
+            engine.submit(LogLine.of("0 q=more"), System.nanoTime());
+            engine.awaitCompletion(5000);
+            assertThat(engine.getWorkerStats().get("completed"), is(3L));
+            assertThat(engine.getNodeStats().size(), is(2));
+        }
+
+        Map<String, Object> summary = collector.mirrorSummary();
+        assertThat(summary.get("calls"), is(3L));
+        assertThat(summary.get("compared"), is(3L));
+        assertThat(summary.get("statusMismatches"), is(0L));
+        assertThat(summary.get("numFoundMismatches"), is(1L));
+        assertThat(summary.get("docsMismatches"), is(1L));
+        baseline.verify(3, getRequestedFor(urlPathEqualTo("/solr/select")).withQueryParam("wt", equalTo("json")));
+        candidate.verify(3, getRequestedFor(urlPathEqualTo("/solr/select")).withQueryParam("wt", equalTo("json")));
+    }
+
+    @Test
+    public void testParseResponse() throws Exception {
+        System.out.println("testParseResponse");
+        SolrResponse response = SolrResponse.parse(response(10, "a", "b").getBytes(StandardCharsets.UTF_8), "id");
+        assertThat(response.getNumFound(), is(10L));
+        assertThat(response.getDocs(), is(2));
+        assertThat(response.getDocsHash(), not(SolrResponse.parse(response(10, "b", "a").getBytes(StandardCharsets.UTF_8), "id").getDocsHash()));
+
+        SolrResponse grouped = SolrResponse.parse("{\"grouped\":{}}".getBytes(StandardCharsets.UTF_8), "id");
+        assertThat(grouped.getNumFound(), is(-1L));
+    }
+
+    @Test
+    public void testWithJsonWriter() throws Exception {
+        System.out.println("testWithJsonWriter");
+        assertThat(SolrResponse.withJsonWriter("q=a&wt=javabin&rows=10"), is("q=a&rows=10&wt=json"));
+        assertThat(SolrResponse.withJsonWriter("q=a"), is("q=a&wt=json"));
+    }
+
+    private static String response(int numFound, String... ids) {
+        StringBuilder sb = new StringBuilder("{\"responseHeader\":{\"status\":0,\"QTime\":1,\"params\":{\"q\":\"x\"}},");
+        sb.append("\"response\":{\"numFound\":").append(numFound).append(",\"start\":0,\"docs\":[");
+        for (int i = 0 ; i < ids.length ; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"title\":[\"t\"],\"id\":\"").append(ids[i]).append("\",\"nested\":{\"id\":\"x\"}}");
+        }
+        return sb.append("]}}").toString();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class PrefetchingRecordingReaderTest {
+
+    private static final String LINES = "#header\n0 q=a\n5 q=b\nmalformed\n10 q=c\n";
+
+    @Test(timeout = 5_000L)
+    public void testReadsAllLines() throws Exception {
+        System.out.println("testReadsAllLines");
+        try (PrefetchingRecordingReader reader = new PrefetchingRecordingReader(text(new ByteArrayInputStream(LINES.getBytes(UTF_8))), 2)) {
+            assertThat(reader.next(), is(true));
+            assertThat(reader.isValid(), is(false));
+            assertThat(reader.next(), is(true));
+            assertThat(reader.getLine().getQuery(), is("q=a"));
+            assertThat(reader.next(), is(true));
+            assertThat(reader.getTimeDelta(), is(5L));
+            assertThat(reader.next(), is(true));
+            assertThat(reader.isValid(), is(false));
+            assertThat(reader.next(), is(true));
+            assertThat(reader.getLine().getQuery(), is("q=c"));
+            assertThat(reader.next(), is(false));
+            assertThat(reader.next(), is(false));
+            assertThat(reader.getMalformed(), is(1L));
+            assertThat(reader.getStats().get("size"), is(2L));
+        }
+    }
+
+    @Test(timeout = 5_000L)
+    public void testSlowInputIsNotTheEnd() throws Exception {
+        System.out.println("testSlowInputIsNotTheEnd");
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream is = new PipedInputStream(pipe);
+        try (PrefetchingRecordingReader reader = new PrefetchingRecordingReader(text(is), 10)) {
+            pipe.write("0 q=a\n".getBytes(UTF_8));
+            pipe.flush();
+            assertThat(reader.next(), is(true));
+            Thread writer = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                    pipe.write("100 q=b\n".getBytes(UTF_8));
+                    pipe.close();
+                } catch (IOException | InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            writer.start();
+            // Nothing is buffered until the writer wakes up
+            assertThat(reader.next(), is(true));
+            assertThat(reader.getLine().getQuery(), is("q=b"));
+            assertThat(reader.next(), is(false));
+            assertThat(reader.getStats().get("emptyWaits"), greaterThanOrEqualTo(1L));
+            writer.join();
+        }
+    }
+
+    @Test(timeout = 5_000L)
+    public void testReadError() throws Exception {
+        System.out.println("testReadError");
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("disk on fire");
+            }
+        };
+        InputStream is = new SequenceInputStream(new ByteArrayInputStream("0 q=a\n".getBytes(UTF_8)), failing);
+        try (PrefetchingRecordingReader reader = new PrefetchingRecordingReader(text(is), 10)) {
+            try {
+                while (reader.next()) {
+                }
+                fail("Expected an IOException");
+            } catch (IOException ex) {
+                assertThat(ex.getMessage(), is("disk on fire"));
+            }
+        }
+    }
+
+    @Test(timeout = 5_000L)
+    public void testCloseWhileReadingAhead() throws Exception {
+        System.out.println("testCloseWhileReadingAhead");
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0 ; i < 1000 ; i++) {
+            lines.append(i).append(" q=").append(i).append('\n');
+        }
+        PrefetchingRecordingReader reader = new PrefetchingRecordingReader(text(new ByteArrayInputStream(lines.toString().getBytes(UTF_8))), 10);
+        assertThat(reader.next(), is(true));
+        // The reader thread is blocked on a full queue
+        reader.close();
+    }
+
+    private static RecordingReader text(InputStream is) {
+        return new TextRecordingReader(is);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class QTimeExtractorTest {
+
+    @Test
+    public void testJson() throws Exception {
+        System.out.println("testJson");
+        assertThat(extract("{\"responseHeader\":{\"status\":0,\"QTime\":17,\"params\":{}}}"), is(17));
+        assertThat(extract("{\n  \"responseHeader\":{\n    \"status\":0,\n    \"QTime\": 5}}"), is(5));
+    }
+
+    @Test
+    public void testXml() throws Exception {
+        System.out.println("testXml");
+        assertThat(extract("<response><lst name=\"responseHeader\"><int name=\"status\">0</int><int name=\"QTime\">123</int></lst></response>"), is(123));
+    }
+
+    @Test
+    public void testPhps() throws Exception {
+        System.out.println("testPhps");
+        assertThat(extract("a:2:{s:14:\"responseHeader\";a:2:{s:6:\"status\";i:0;s:5:\"QTime\";i:42;}s:8:\"response\";}"), is(42));
+    }
+
+    @Test
+    public void testSplitAcrossChunks() throws Exception {
+        System.out.println("testSplitAcrossChunks");
+        byte[] bytes = "{\"responseHeader\":{\"status\":0,\"QTime\":1234}}".getBytes(StandardCharsets.UTF_8);
+        for (int split = 1 ; split < bytes.length ; split++) {
+            QTimeExtractor extractor = new QTimeExtractor();
+            extractor.accept(bytes, 0, split);
+            extractor.accept(bytes, split, bytes.length - split);
+            extractor.end();
+            assertThat("split at " + split, extractor.getQTime(), is(1234));
+        }
+    }
+
+    @Test
+    public void testJavabin() throws Exception {
+        System.out.println("testJavabin");
+        // small int: SINT tag with value in low nibble
+        assertThat(extract(javabin(0x60 | 7)), is(7));
+        // larger int: SINT tag with continuation and a vint
+        // 300 = 0x12c, low nibble 0xc, rest 0x12
+        assertThat(extract(javabin(0x60 | 0x10 | 0xc, 0x12)), is(300));
+        // 0 is written as INT
+        assertThat(extract(javabin(6, 0, 0, 0, 0)), is(0));
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        System.out.println("testNotFound");
+        assertThat(extract("{\"responseHeader\":{\"status\":0}}"), is(-1));
+        assertThat(extract("QTime is not a number here"), is(-1));
+    }
+
+    private static int extract(String text) {
+        return extract(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int extract(byte[] bytes) {
+        QTimeExtractor extractor = new QTimeExtractor();
+        extractor.accept(bytes, 0, bytes.length);
+        extractor.end();
+        return extractor.getQTime();
+    }
+
+    private static byte[] javabin(int... value) {
+        byte[] name = "QTime".getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = new byte[3 + name.length + value.length];
+        bytes[0] = 2; // version
+        bytes[1] = (byte) 0xe0; // extern string
+        bytes[2] = (byte) ( 0x20 | name.length ); // str
+        System.arraycopy(name, 0, bytes, 3, name.length);
+        for (int i = 0 ; i < value.length ; i++) {
+            bytes[3 + name.length + i] = (byte) value[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class QueryClassesTest {
+
+    private static final String LOOKUP = "q=id%3A1&fl=id&rows=1";
+    private static final String FACETS = "q=a&facet.field=type&rows=10";
+
+    @Test
+    public void testTopClasses() throws Exception {
+        System.out.println("testTopClasses");
+        QueryClasses classes = new QueryClasses(2, 1.5, null);
+        for (int i = 0 ; i < 30 ; i++) {
+            classes.record(LOOKUP, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        for (int i = 0 ; i < 20 ; i++) {
+            classes.record(FACETS, TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        // 8 classes are tracked, the rest are other
+        for (int i = 0 ; i < 10 ; i++) {
+            classes.record("q=a&p" + i + "=x", TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Map<String, Object> report = classes.report();
+        assertThat(report.get("tracked"), is(8));
+        Map<?, ?> top = (Map<?, ?>) report.get("classes");
+        assertThat(top.keySet(), contains(QuerySignature.of(LOOKUP), QuerySignature.of(FACETS)));
+        Map<?, ?> lookup = (Map<?, ?>) top.get(QuerySignature.of(LOOKUP));
+        assertThat(lookup.get("count"), is(30L));
+        assertThat(lookup.get("share"), is(0.5));
+        assertThat((Double) ( (Map<?, ?>) top.get(QuerySignature.of(FACETS)) ).get("p50"), closeTo(100.0, 1.0));
+        assertThat(( (Map<?, ?>) report.get(QueryClasses.OTHER) ).get("count"), is(10L));
+        assertThat(report.containsKey("regressions"), is(false));
+    }
+
+    @Test
+    public void testLateClassIsReported() throws Exception {
+        System.out.println("testLateClassIsReported");
+        QueryClasses classes = new QueryClasses(2, 1.5, null);
+        // More classes than are tracked, before the frequent one appears
+        for (int i = 0 ; i < 20 ; i++) {
+            for (int n = 0 ; n < 3 ; n++) {
+                classes.record("q=a&p" + i + "=x", TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+        for (int i = 0 ; i < 50 ; i++) {
+            classes.record(LOOKUP, TimeUnit.MILLISECONDS.toNanos(1));
+            classes.record("q=a&late" + i + "=x", TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Map<String, Object> report = classes.report();
+        assertThat(report.get("tracked"), is(8));
+        Map<?, ?> top = (Map<?, ?>) report.get("classes");
+        assertThat(top.containsKey(QuerySignature.of(LOOKUP)), is(true));
+        assertThat(( (Map<?, ?>) top.get(QuerySignature.of(LOOKUP)) ).get("count"), is(50L));
+        long others = ( (Number) ( (Map<?, ?>) report.get(QueryClasses.OTHER) ).get("count") ).longValue();
+        long reported = top.values().stream().mapToLong(c -> ( (Number) ( (Map<?, ?>) c ).get("count") ).longValue()).sum();
+        assertThat(others + reported, is(160L));
+    }
+
+    @Test
+    public void testRegressions() throws Exception {
+        System.out.println("testRegressions");
+        QueryClasses before = new QueryClasses(5, 1.5, null);
+        record(before, 10, 10);
+        File file = File.createTempFile("baseline", ".json");
+        try {
+            Map<String, Object> output = new HashMap<>();
+            output.put("queryClasses", before.report());
+            new ObjectMapper().writeValue(file, output);
+
+            QueryClasses after = new QueryClasses(5, 1.5, QueryClasses.readBaseline(file.getPath()));
+            record(after, 10, 30);
+            after.record("q=new", TimeUnit.MILLISECONDS.toNanos(1));
+            Map<String, Object> report = after.report();
+            assertThat((List<?>) report.get("regressions"), contains(QuerySignature.of(FACETS)));
+            Map<?, ?> facets = (Map<?, ?>) ( (Map<?, ?>) report.get("classes") ).get(QuerySignature.of(FACETS));
+            Map<?, ?> baseline = (Map<?, ?>) facets.get("baseline");
+            assertThat((Double) baseline.get("p99Ratio"), closeTo(3.0, 0.1));
+            assertThat(baseline.get("regressed"), is(true));
+            assertThat(( (Map<?, ?>) report.get("classes") ).containsKey(QuerySignature.of("q=new")), is(true));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEncodedMerge() throws Exception {
+        System.out.println("testEncodedMerge");
+        QueryClasses classes = new QueryClasses(5, 1.5, null);
+        record(classes, 10, 10);
+        Map<String, String> encoded = classes.encoded();
+        assertThat(encoded.keySet(), hasItem(QueryClasses.OTHER));
+        Histogram decoded = LatencyHistograms.decode(encoded.get(QuerySignature.of(LOOKUP)));
+        assertThat(decoded.getTotalCount(), is(30L));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBaselineWithoutClasses() throws Exception {
+        System.out.println("testBaselineWithoutClasses");
+        File file = File.createTempFile("baseline", ".json");
+        try {
+            new ObjectMapper().writeValue(file, new HashMap<>());
+            QueryClasses.readBaseline(file.getPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void record(QueryClasses classes, long lookupMs, long facetsMs) {
+        for (int i = 0 ; i < 30 ; i++) {
+            classes.record(LOOKUP, TimeUnit.MILLISECONDS.toNanos(lookupMs));
+            classes.record(FACETS, TimeUnit.MILLISECONDS.toNanos(facetsMs));
+        }
+    }
+}
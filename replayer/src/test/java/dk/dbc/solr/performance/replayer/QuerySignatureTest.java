@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class QuerySignatureTest {
+
+    @Test
+    public void testValuesStripped() throws Exception {
+        System.out.println("testValuesStripped");
+        assertThat(QuerySignature.of("q=id%3A123&fl=id,title&rows=1"),
+                   is(QuerySignature.of("fl=author&q=id%3A456&rows=1")));
+        assertThat(QuerySignature.of("q=id%3A123&fl=id&rows=1"),
+                   is("select;params=fl,q,rows;rows=1-10"));
+    }
+
+    @Test
+    public void testStructure() throws Exception {
+        System.out.println("testStructure");
+        String facets = QuerySignature.of("q=a&facet=true&facet.field=facet.type&facet.field=%7B!ex%3Dt%7Dfacet.creator&sort=score+desc,%20title++asc&rows=322&qt=search");
+        assertThat(facets, is("search;params=facet,facet.field,q,qt,rows,sort;facet=facet.creator,facet.type;sort=score desc, title asc;rows=101-1000"));
+        assertThat(QuerySignature.of("q=a&facet.field=facet.type"),
+                   not(QuerySignature.of("q=a&facet.field=facet.subject")));
+        assertThat(QuerySignature.of("q=a&sort=title+asc"),
+                   not(QuerySignature.of("q=a&sort=title+desc")));
+    }
+
+    @Test
+    public void testRowsBucket() throws Exception {
+        System.out.println("testRowsBucket");
+        assertThat(QuerySignature.rowsBucket(null), is("1-10"));
+        assertThat(QuerySignature.rowsBucket("0"), is("0"));
+        assertThat(QuerySignature.rowsBucket("10"), is("1-10"));
+        assertThat(QuerySignature.rowsBucket("11"), is("11-100"));
+        assertThat(QuerySignature.rowsBucket("99999"), is("1001+"));
+        assertThat(QuerySignature.rowsBucket("many"), is("?"));
+        assertThat(QuerySignature.of("q=a&rows=0"), not(QuerySignature.of("q=a&rows=20")));
+    }
+
+    @Test
+    public void testCacheBustIgnored() throws Exception {
+        System.out.println("testCacheBustIgnored");
+        String query = "q=a&fq=type%3Abook&facet.field=type&rows=10";
+        assertThat(QuerySignature.of(CacheMode.bust(query, 42)), is(QuerySignature.of(query)));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        System.out.println("testMalformed");
+        assertThat(QuerySignature.of(""), is("select;params=;rows=1-10"));
+        assertThat(QuerySignature.of("q=%zz&&rows"), is("select;params=q,rows;rows=?"));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class RateProfileTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static Long seconds(String t) {
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(t.replace("s", "")));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testParseSpeed() throws Exception {
+        System.out.println("testParseSpeed");
+        assertThat(RateProfile.parseSpeed("3x"), is(3.0));
+        assertThat(RateProfile.parseSpeed("100"), is(1.0));
+        assertThat(RateProfile.parseSpeed("50"), is(2.0));
+        assertThat(RateProfile.parseSpeed("10"), is(10.0));
+        assertThat(RateProfile.parseSpeed("0"), is(Double.POSITIVE_INFINITY));
+    }
+
+    @Test(timeout = 2_000L, expected = IllegalArgumentException.class)
+    public void testParseSpeedNegative() throws Exception {
+        System.out.println("testParseSpeedNegative");
+        RateProfile.parseSpeed("-1x");
+    }
+
+    @Test(timeout = 2_000L)
+    public void testConstantKeepsArrivalPattern() throws Exception {
+        System.out.println("testConstantKeepsArrivalPattern");
+        RateProfile profile = RateProfile.constant(10);
+        assertThat(profile.wallTime(0), is(0L));
+        assertThat(profile.wallTime(10 * SECOND), is(SECOND));
+        assertThat(profile.wallTime(35 * SECOND), is(3 * SECOND + SECOND / 2));
+        assertThat(RateProfile.constant(Double.POSITIVE_INFINITY).wallTime(35 * SECOND), is(0L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testLinear() throws Exception {
+        System.out.println("testLinear");
+        RateProfile profile = RateProfile.of("linear:1x:3x:10s", RateProfileTest::seconds);
+        assertThat(profile.speedAt(0), is(1.0));
+        assertThat(profile.speedAt(5 * SECOND), closeTo(2.0, 1e-9));
+        assertThat(profile.speedAt(20 * SECOND), is(3.0));
+        // Average speed 2x over the ramp
+        assertThat(profile.wallTime(20 * SECOND), is(10 * SECOND));
+        // First 5s at average 1.5x
+        assertThat((double) profile.wallTime(15 * SECOND / 2), closeTo(5 * SECOND, 1000));
+        // Held at 3x after the ramp
+        assertThat(profile.wallTime(50 * SECOND), is(20 * SECOND));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testStep() throws Exception {
+        System.out.println("testStep");
+        RateProfile profile = RateProfile.of("step:1x,2x,4x:10s", RateProfileTest::seconds);
+        assertThat(profile.speedAt(5 * SECOND), is(1.0));
+        assertThat(profile.speedAt(15 * SECOND), is(2.0));
+        assertThat(profile.speedAt(100 * SECOND), is(4.0));
+        assertThat(profile.wallTime(10 * SECOND), is(10 * SECOND));
+        assertThat(profile.wallTime(30 * SECOND), is(20 * SECOND));
+        assertThat(profile.wallTime(70 * SECOND), is(30 * SECOND));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSpike() throws Exception {
+        System.out.println("testSpike");
+        RateProfile profile = RateProfile.of("spike:1x:10x:10s:2s", RateProfileTest::seconds);
+        assertThat(profile.speedAt(5 * SECOND), is(1.0));
+        assertThat(profile.speedAt(11 * SECOND), is(10.0));
+        assertThat(profile.speedAt(13 * SECOND), is(1.0));
+        assertThat(profile.wallTime(20 * SECOND), is(11 * SECOND));
+        assertThat(profile.wallTime(35 * SECOND), is(17 * SECOND));
+    }
+
+    @Test(timeout = 2_000L, expected = IllegalArgumentException.class)
+    public void testUnknownProfile() throws Exception {
+        System.out.println("testUnknownProfile");
+        RateProfile.of("sine:1x:2x", RateProfileTest::seconds);
+    }
+
+    @Test(timeout = 2_000L)
+    public void testTrackerReportsIntendedAndAchieved() throws Exception {
+        System.out.println("testTrackerReportsIntendedAndAchieved");
+        RateTracker tracker = new RateTracker(RateProfile.constant(2), 0, 1000);
+        tracker.record(SECOND / 2, SECOND / 2);
+        tracker.record(SECOND, SECOND);
+        tracker.record(SECOND + 1, 2 * SECOND + 1);
+
+        List<Map<String, Object>> intervals = tracker.intervals();
+        assertThat(intervals.size(), is(3));
+        assertThat(intervals.get(1).get("speed"), is((Object) 2.0));
+        assertThat(intervals.get(1).get("intended"), is((Object) 2.0));
+        assertThat(intervals.get(1).get("achieved"), is((Object) 1.0));
+        assertThat(intervals.get(2).get("intended"), is((Object) 0.0));
+        assertThat(intervals.get(2).get("achieved"), is((Object) 1.0));
+    }
+}
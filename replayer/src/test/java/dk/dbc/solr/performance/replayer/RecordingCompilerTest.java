@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class RecordingCompilerTest {
+
+    @Test
+    public void testCompiledIsTheSame() throws Exception {
+        System.out.println("testCompiledIsTheSame");
+        String input = new File(getClass().getResource("/recording.data").toURI()).getPath();
+        Path compiled = Files.createTempFile("recording", ".bin");
+        try {
+            Map<String, Long> stats = RecordingCompiler.compile(input, compiled);
+            assertThat(stats.get("skipped"), is(1L));
+            assertThat(BinaryRecordingReader.isCompiled(compiled), is(true));
+            assertThat(BinaryRecordingReader.isCompiled(new File(input).toPath()), is(false));
+
+            long lines = 0;
+            try (RecordingReader text = RecordingReader.open(input) ;
+                 RecordingReader binary = RecordingReader.open(compiled.toString())) {
+                assertThat(binary, instanceOf(BinaryRecordingReader.class));
+                while (text.next()) {
+                    if (!text.isValid())
+                        continue;
+                    assertThat(binary.next(), is(true));
+                    assertThat(binary.getTimeDelta(), is(text.getTimeDelta()));
+                    assertThat(binary.getLine().getQuery(), is(RecordingCompiler.encode(text.getLine().getQuery())));
+                    lines++;
+                }
+                assertThat(binary.next(), is(false));
+            }
+            assertThat(stats.get("lines"), is(lines));
+        } finally {
+            Files.delete(compiled);
+        }
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        System.out.println("testDictionary");
+        Path text = Files.createTempFile("recording", ".data");
+        Path compiled = Files.createTempFile("recording", ".bin");
+        try {
+            Files.write(text, Arrays.asList("#header", "0 q=a", "5 q=b", "5 q=a", "not a line", "100000 q=a b"), StandardCharsets.UTF_8);
+            Map<String, Long> stats = RecordingCompiler.compile(text.toString(), compiled);
+            assertThat(stats.get("lines"), is(4L));
+            assertThat(stats.get("queries"), is(3L));
+            assertThat(stats.get("skipped"), is(2L));
+
+            try (BinaryRecordingReader reader = new BinaryRecordingReader(compiled)) {
+                assertThat(reader.getLines(), is(4L));
+                assertThat(reader.getQueries(), is(3));
+                reader.next();
+                reader.next();
+                reader.next();
+                assertThat(reader.getTimeDelta(), is(5L));
+                assertThat(reader.getLine().getQuery(), is("q=a"));
+                reader.next();
+                assertThat(reader.getTimeDelta(), is(100000L));
+                // Quoted as a call would
+                assertThat(reader.getLine().getQuery(), is("q=a%20b"));
+                assertThat(reader.next(), is(false));
+            }
+        } finally {
+            Files.delete(text);
+            Files.delete(compiled);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class RepeatTrackerTest {
+
+    @Test
+    public void testWindow() throws Exception {
+        System.out.println("testWindow");
+        RepeatTracker tracker = new RepeatTracker(2);
+        assertThat(tracker.sent("a"), is(false));
+        assertThat(tracker.sent("b"), is(false));
+        assertThat(tracker.sent("a"), is(true));
+        // b is least recently sent, and is forgotten
+        assertThat(tracker.sent("c"), is(false));
+        assertThat(tracker.sent("a"), is(true));
+        assertThat(tracker.sent("b"), is(false));
+    }
+}
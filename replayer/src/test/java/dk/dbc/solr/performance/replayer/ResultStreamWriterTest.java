@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ResultStreamWriterTest {
+
+    @Test(timeout = 10_000L)
+    public void testEntriesAreWrittenAsJsonLines() throws Exception {
+        System.out.println("testEntriesAreWrittenAsJsonLines");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        // A small queue, so writers will have to wait for room
+        try (ResultStreamWriter writer = new ResultStreamWriter(bos, 4, 10L)) {
+            for (int i = 0 ; i < 1000 ; i++) {
+                LogCollector.LogEntry entry = new LogCollector.LogEntry();
+                entry.setQuery("q=" + i);
+                entry.setCallDuration(i);
+                executor.execute(() -> writer.write(entry));
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+
+        String[] lines = new String(bos.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertThat(lines.length, is(1000));
+        ObjectMapper mapper = new ObjectMapper();
+        long sum = 0;
+        for (String line : lines) {
+            JsonNode node = mapper.readTree(line);
+            assertThat(node.get("query").asText(), is("q=" + node.get("callDuration").asLong()));
+            sum += node.get("callDuration").asLong();
+        }
+        assertThat(sum, is(999L * 1000L / 2L));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testStreamModeKeepsOnlySummary() throws Exception {
+        System.out.println("testStreamModeKeepsOnlySummary");
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        LogCollector collector = new LogCollector(LogCollector.Mode.STREAM);
+        collector.streamTo(lines);
+        collector.addEntry(new LogCollector.LogEntry());
+        collector.addStatusEntry("done");
+        collector.closeStream();
+        collector.dump(summary);
+
+        assertThat(new String(lines.toByteArray(), StandardCharsets.UTF_8).split("\n").length, is(2));
+        JsonNode node = new ObjectMapper().readTree(summary.toByteArray());
+        assertThat(node.has("loglines"), is(false));
+        assertThat(node.get("results").get("written").asLong(), is(2L));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class SchedulerTest {
+
+    @Test(timeout = 2_000L)
+    public void testAbsoluteDispatchIsRelativeToStart() throws Exception {
+        System.out.println("testAbsoluteDispatchIsRelativeToStart");
+        Scheduler scheduler = new Scheduler(Scheduler.Mode.ABSOLUTE, 50);
+        long origin = scheduler.start();
+
+        assertThat(scheduler.intendedDispatch(0), is(origin));
+        assertThat(scheduler.intendedDispatch(100), is(origin + TimeUnit.MILLISECONDS.toNanos(50)));
+
+        long intended = scheduler.awaitDispatch(100);
+        assertThat(intended, is(origin + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertThat(System.nanoTime(), greaterThanOrEqualTo(intended));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testAbsoluteDoesNotAccumulateDrift() throws Exception {
+        System.out.println("testAbsoluteDoesNotAccumulateDrift");
+        Scheduler scheduler = new Scheduler(Scheduler.Mode.ABSOLUTE, 100);
+        long origin = scheduler.start();
+
+        // Being late for one line, doesn't postpone the next
+        Thread.sleep(30);
+        long late = scheduler.awaitDispatch(10);
+        assertThat(System.nanoTime() - late, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+        assertThat(scheduler.awaitNext(10), is(10L));
+
+        long next = scheduler.awaitDispatch(40);
+        assertThat(next, is(origin + TimeUnit.MILLISECONDS.toNanos(40)));
+        assertThat(scheduler.awaitNext(40), is(30L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testDelaySleepsAfterDispatch() throws Exception {
+        System.out.println("testDelaySleepsAfterDispatch");
+        Scheduler scheduler = new Scheduler(Scheduler.Mode.DELAY, 200);
+        scheduler.start();
+
+        long before = System.nanoTime();
+        scheduler.awaitDispatch(10);
+        assertThat(scheduler.awaitNext(10), is(20L));
+        assertThat(System.nanoTime() - before, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testNoDelayHasNoSchedule() throws Exception {
+        System.out.println("testNoDelayHasNoSchedule");
+        Scheduler scheduler = new Scheduler(Scheduler.Mode.ABSOLUTE, 0);
+        long origin = scheduler.start();
+        assertThat(scheduler.isScheduled(0), is(false));
+        assertThat(scheduler.isScheduled(TimeUnit.HOURS.toMillis(1)), is(false));
+
+        Thread.sleep(50);
+        // Intended when dispatched, not at the origin, so the corrected
+        // latency doesn't grow with the age of the run
+        for (long timeDelta : new long[] {0, 60_000, TimeUnit.HOURS.toMillis(1)}) {
+            long before = System.nanoTime();
+            long intended = scheduler.awaitDispatch(timeDelta);
+            assertThat(intended, greaterThanOrEqualTo(before));
+            assertThat(intended - origin, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50)));
+        }
+        assertThat(new Scheduler(Scheduler.Mode.ABSOLUTE, 100).isScheduled(0), is(true));
+    }
+
+    @Test
+    public void testModeOf() throws Exception {
+        System.out.println("testModeOf");
+        assertThat(Scheduler.Mode.of("Absolute"), is(Scheduler.Mode.ABSOLUTE));
+        assertThat(Scheduler.Mode.of("delay"), is(Scheduler.Mode.DELAY));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class SolrNodesTest {
+
+    private static final List<String> URLS = Arrays.asList("http://a/solr", "http://b/solr", "http://c/solr");
+
+    @Test
+    public void testRoundRobin() {
+        System.out.println("testRoundRobin");
+        SolrNodes nodes = new SolrNodes(URLS, SolrNodes.Balance.ROUND_ROBIN, 5, 30_000);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0 ; i < 300 ; i++) {
+            SolrNodes.Node node = nodes.select("q=" + i);
+            counts.merge(node.getBaseUrl(), 1, Integer::sum);
+            nodes.release(node, 200);
+        }
+        assertThat(counts.values(), everyItem(is(100)));
+    }
+
+    @Test
+    public void testLeastOutstanding() {
+        System.out.println("testLeastOutstanding");
+        SolrNodes nodes = new SolrNodes(URLS, SolrNodes.Balance.LEAST_OUTSTANDING, 5, 30_000);
+        SolrNodes.Node a = nodes.select("q=1");
+        SolrNodes.Node b = nodes.select("q=2");
+        SolrNodes.Node c = nodes.select("q=3");
+        assertThat(new HashSet<>(Arrays.asList(a, b, c)).size(), is(3));
+        nodes.release(b, 200);
+        // b is the only node with no calls in flight
+        assertThat(nodes.select("q=5"), sameInstance(b));
+    }
+
+    @Test
+    public void testHashIsConsistent() {
+        System.out.println("testHashIsConsistent");
+        SolrNodes nodes = new SolrNodes(URLS, SolrNodes.Balance.HASH, 5, 30_000);
+        SolrNodes twoNodes = new SolrNodes(URLS.subList(0, 2), SolrNodes.Balance.HASH, 5, 30_000);
+        Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0 ; i < 3000 ; i++) {
+            String query = "q=" + i;
+            SolrNodes.Node node = nodes.select(query);
+            assertThat(nodes.select(query), sameInstance(node));
+            counts.merge(node.getBaseUrl(), 1, Integer::sum);
+            // Without node c, only the queries sent to c move
+            String without = twoNodes.select(query).getBaseUrl();
+            if (!without.equals(node.getBaseUrl())) {
+                assertThat(node.getBaseUrl(), is("http://c/solr"));
+                moved++;
+            }
+        }
+        assertThat(counts.values(), everyItem(greaterThan(600)));
+        assertThat(moved, is(counts.get("http://c/solr")));
+    }
+
+    @Test
+    public void testFailingNodeIsEjected() {
+        System.out.println("testFailingNodeIsEjected");
+        SolrNodes nodes = new SolrNodes(URLS, SolrNodes.Balance.ROUND_ROBIN, 2, 30_000);
+        for (int i = 0 ; i < 30 ; i++) {
+            SolrNodes.Node node = nodes.select("q=" + i);
+            nodes.release(node, node.getBaseUrl().equals("http://b/solr") ? 503 : 200);
+        }
+        Map<String, Map<String, Long>> stats = nodes.getStats();
+        assertThat(stats.get("http://b/solr").get("ejections"), is(1L));
+        assertThat(stats.get("http://b/solr").get("ejected"), is(1L));
+        assertThat(stats.get("http://b/solr").get("calls"), is(2L));
+        assertThat(stats.get("http://a/solr").get("calls") + stats.get("http://c/solr").get("calls"), is(28L));
+    }
+
+    @Test
+    public void testAllEjectedUsesAll() {
+        System.out.println("testAllEjectedUsesAll");
+        SolrNodes nodes = new SolrNodes(URLS.subList(0, 1), SolrNodes.Balance.ROUND_ROBIN, 1, 30_000);
+        SolrNodes.Node node = nodes.select("q=1");
+        nodes.release(node, -1);
+        assertThat(nodes.select("q=2"), sameInstance(node));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.Map;
+import org.apache.http.entity.StringEntity;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class SolrSenderTest {
+
+    @Rule
+    public WireMockRule wireMock = new WireMockRule(options().dynamicPort());
+
+    @Test(timeout = 10_000L)
+    public void testConnectionsAreReused() throws Exception {
+        System.out.println("testConnectionsAreReused");
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody("{\"responseHeader\":{\"status\":0,\"QTime\":3}}")));
+        wireMock.stubFor(get(urlPathEqualTo("/solr/select"))
+                .withQueryParam("q", equalTo("fail"))
+                .willReturn(aResponse()
+                        .withStatus(500)
+                        .withBody("{}")));
+
+        LogCollector collector = new LogCollector();
+        try (ConnectionPool pool = new ConnectionPool(2, 1000, 1000, true)) {
+            SolrSender sender = new SolrSender("http://localhost:" + wireMock.port() + "/solr", collector, pool);
+            for (int i = 0 ; i < 5 ; i++) {
+                sender.send(LogLine.of("0 q=ok"), System.nanoTime());
+            }
+            sender.send(LogLine.of("0 q=fail"), System.nanoTime());
+
+            Map<String, Integer> stats = pool.getStats();
+            assertThat(stats.get("leased"), is(0));
+            assertThat(stats.get("idle"), is(1));
+        }
+        wireMock.verify(6, getRequestedFor(urlPathEqualTo("/solr/select")));
+    }
+
+    @Test
+    public void testReadBodyExtractsQTime() throws Exception {
+        System.out.println("testReadBodyExtractsQTime");
+        assertThat(SolrSender.readBody(new StringEntity("{\"responseHeader\":{\"status\":0,\"QTime\":3}}")), is(3));
+        assertThat(SolrSender.readBody(new StringEntity("")), is(-1));
+        assertThat(SolrSender.readBody(null), is(-1));
+    }
+
+    @Test
+    public void testToUriQuotesIllegalCharacters() throws Exception {
+        System.out.println("testToUriQuotesIllegalCharacters");
+        assertThat(SolrSender.toUri("http://localhost/solr/select?q=a%20b").toString(),
+                   is("http://localhost/solr/select?q=a%20b"));
+        assertThat(SolrSender.toUri("http://localhost/solr/select?q={!lucene}a b").toASCIIString(),
+                   is("http://localhost/solr/select?q=%7B!lucene%7Da%20b"));
+    }
+
+    @Test
+    public void testToUriKeepsEscapes() throws Exception {
+        System.out.println("testToUriKeepsEscapes");
+        assertThat(SolrSender.toUri("http://localhost/solr/select?q=a b&fq=%22x%22").toASCIIString(),
+                   is("http://localhost/solr/select?q=a%20b&fq=%22x%22"));
+        assertThat(SolrSender.toUri("http://localhost/solr/select?fq={!tag%3Dx}type:book&q=100%").getRawQuery(),
+                   is("fq=%7B!tag%3Dx%7Dtype:book&q=100%25"));
+        assertThat(SolrSender.toUri("http://localhost/solr/select?q=\u00e6\u00f8 x").toASCIIString(),
+                   is("http://localhost/solr/select?q=%C3%A6%C3%B8%20x"));
+        assertThat(RecordingCompiler.encode("fq={!tag%3Dx}type:book"),
+                   is("fq=%7B!tag%3Dx%7Dtype:book"));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class WarmupTest {
+
+    @Test
+    public void testLineCount() throws Exception {
+        System.out.println("testLineCount");
+        Warmup warmup = new Warmup(2, 0);
+        assertThat(warmup.isEnabled(), is(true));
+        assertThat(warmup.includes(0, 0), is(true));
+        assertThat(warmup.includes(1, TimeUnit.HOURS.toNanos(1)), is(true));
+        assertThat(warmup.includes(2, 0), is(false));
+    }
+
+    @Test
+    public void testDuration() throws Exception {
+        System.out.println("testDuration");
+        Warmup warmup = new Warmup(0, 1000);
+        assertThat(warmup.includes(100, TimeUnit.MILLISECONDS.toNanos(999)), is(true));
+        assertThat(warmup.includes(0, TimeUnit.MILLISECONDS.toNanos(1000)), is(false));
+    }
+
+    @Test
+    public void testNone() throws Exception {
+        System.out.println("testNone");
+        Warmup warmup = new Warmup(0, 0);
+        assertThat(warmup.isEnabled(), is(false));
+        assertThat(warmup.includes(0, 0), is(false));
+    }
+
+    @Test
+    public void testWarmupLine() throws Exception {
+        System.out.println("testWarmupLine");
+        LogLine line = LogLine.of("100 /select?q=a");
+        LogLine warm = line.asWarmup();
+        assertThat(line.isWarmup(), is(false));
+        assertThat(warm.isWarmup(), is(true));
+        assertThat(warm.getTimeDelta(), is(100L));
+        assertThat(warm.getQuery(), is("/select?q=a"));
+    }
+}
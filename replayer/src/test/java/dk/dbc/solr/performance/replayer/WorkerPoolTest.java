@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of solr-performance-test
+ *
+ * solr-performance-test is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * solr-performance-test is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.solr.performance.replayer;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class WorkerPoolTest {
+
+    @Test(timeout = 5_000L)
+    public void testDrop() throws Exception {
+        System.out.println("testDrop");
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        WorkerPool pool = new WorkerPool(1, 2, WorkerPool.Overflow.DROP);
+        for (int i = 0 ; i < 5 ; i++) {
+            pool.execute(() -> {
+                await(release);
+                ran.incrementAndGet();
+            });
+        }
+        Map<String, Long> stats = pool.getStats();
+        assertThat(stats.get("queueDepth"), is(2L));
+        assertThat(stats.get("dropped"), is(2L));
+        assertThat(pool.getRejected(), is(2L));
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(2, TimeUnit.SECONDS));
+        assertThat(ran.get(), is(3));
+        assertThat(pool.getStats().get("peakQueueDepth"), is(2L));
+    }
+
+    @Test(timeout = 5_000L)
+    public void testShedDropsOldest() throws Exception {
+        System.out.println("testShedDropsOldest");
+        CountDownLatch release = new CountDownLatch(1);
+        StringBuffer order = new StringBuffer();
+        WorkerPool pool = new WorkerPool(1, 2, WorkerPool.Overflow.SHED);
+        for (int i = 0 ; i < 5 ; i++) {
+            int n = i;
+            pool.execute(() -> {
+                await(release);
+                order.append(n);
+            });
+        }
+        assertThat(pool.getStats().get("shed"), is(2L));
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(2, TimeUnit.SECONDS));
+        assertThat(order.toString(), is("034"));
+    }
+
+    @Test(timeout = 5_000L)
+    public void testBlockWaitsForRoom() throws Exception {
+        System.out.println("testBlockWaitsForRoom");
+        AtomicInteger ran = new AtomicInteger();
+        WorkerPool pool = new WorkerPool(1, 1, WorkerPool.Overflow.BLOCK);
+        for (int i = 0 ; i < 10 ; i++) {
+            pool.execute(() -> {
+                sleep(10);
+                ran.incrementAndGet();
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(2, TimeUnit.SECONDS));
+        assertThat(ran.get(), is(10));
+        assertThat(pool.getStats().get("blocked"), greaterThan(0L));
+        assertThat(pool.getRejected(), is(0L));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}